@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javafx.application.Platform;
+import javafx.scene.image.WritableImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Crt.paintCrt() of a full 24x80 screen, rendered into an offscreen image via
+ * Canvas.snapshot() so that the JavaFX pipeline really draws every frame.
+ * paintCrt measures an unchanged screen, scrolledPaintCrt one where the host has
+ * just scrolled a line.
+ *
+ * Needs a JavaFX toolkit, ie. a display (or Xvfb) - the other benchmarks do not.
+ *
+ * @author Stephen Merrony
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrtBench {
+
+    // a line of text at the bottom of the screen, and the newline to scroll it up
+    static final byte[] LINE = "   1234  drwxr-xr-x  SYSTEM  :UDD:SCRATCH:LISTING.LS\n".getBytes(StandardCharsets.US_ASCII);
+
+    Terminal terminal;
+    Crt crt;
+    WritableImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+        terminal = new Terminal(new Status(), new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>());
+        byte[] fill = HostStreamSynth.generate(HostStreamSynth.Pattern.FORM_REPAINT, 64 * 1024,
+                Terminal.DEFAULT_LINES, Terminal.DEFAULT_COLS);
+        terminal.processHostBytes(fill, 0, fill.length, false);
+        byte[] toBottom = {Terminal.WRITE_WINDOW_ADDR, 0, (byte) (Terminal.DEFAULT_LINES - 1)};
+        terminal.processHostBytes(toBottom, 0, toBottom.length, false);
+        onFxThread(() -> {
+            crt = new Crt(terminal);
+            crt.setWidth(terminal.visible_cols * BDFfont.CHAR_PIXEL_WIDTH);
+            crt.setHeight(terminal.visible_lines * BDFfont.CHAR_PIXEL_HEIGHT);
+            image = new WritableImage((int) crt.getWidth(), (int) crt.getHeight());
+            return null;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Platform.exit();
+    }
+
+    @Benchmark
+    public WritableImage paintCrt() throws Exception {
+        return onFxThread(() -> {
+            crt.paintCrt();
+            return crt.snapshot(null, image);
+        });
+    }
+
+    @Benchmark
+    public WritableImage scrolledPaintCrt() throws Exception {
+        terminal.processHostBytes(LINE, 0, LINE.length, false);
+        return paintCrt();
+    }
+
+    private static <T> T onFxThread(Callable<T> work) throws Exception {
+        FutureTask<T> task = new FutureTask<>(work);
+        Platform.runLater(task);
+        return task.get();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * History.addLine() in the steady state (buffer full) and fetchAllAsString() of a
+ * full History, as used by View History.
+ *
+ * @author Stephen Merrony
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBench {
+
+    History history;
+    Cell[] line;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        history = new History();
+        line = new Cell[Terminal.TOTAL_COLS];
+        for (int c = 0; c < line.length; c++) {
+            line[c] = new Cell();
+            line[c].set((byte) ('A' + c % 26), false, false, false, false, false);
+        }
+        for (int l = 0; l < History.MAX_HISTORY_LINES; l++) {
+            history.addLine(line);
+        }
+    }
+
+    @Benchmark
+    public int addLine() {
+        history.addLine(line);
+        return history.lineCount();
+    }
+
+    @Benchmark
+    public int fetchAllAsString() {
+        return history.fetchAllAsString().length();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Host byte processing - the work Terminal.run() does for every byte taken from
+ * fromHostQ, fed with the same synthetic streams as Emulation/Benchmark.  Scores are
+ * in bytes per second.
+ *
+ * @author Stephen Merrony
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TerminalBench {
+
+    static final int STREAM_BYTES = 64 * 1024;
+
+    @Param({"SCROLLING_LISTING", "FORM_REPAINT", "ATTRIBUTE_TOGGLING", "ERASE_EOL_STORM", "MIXED"})
+    HostStreamSynth.Pattern stream;
+
+    byte[] bytes;
+    Terminal terminal;
+    BlockingQueue<Byte> fromHostQ, fromKbdQ, logQ;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fromHostQ = new LinkedBlockingQueue<>();
+        fromKbdQ = new LinkedBlockingQueue<>();
+        logQ = new LinkedBlockingQueue<>();
+        terminal = new Terminal(new Status(), fromHostQ, fromKbdQ, logQ);
+        bytes = HostStreamSynth.generate(stream, STREAM_BYTES, Terminal.DEFAULT_LINES, Terminal.DEFAULT_COLS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_BYTES)
+    public int processStream() {
+        terminal.processHostBytes(bytes, 0, bytes.length, false);
+        return terminal.cursorX + terminal.cursorY;
+    }
+
+    /**
+     * The same stream as it really arrives - boxed, one byte at a time via fromHostQ
+     */
+    @Benchmark
+    @OperationsPerInvocation(STREAM_BYTES)
+    public int processStreamViaQueue() throws InterruptedException {
+        for (byte b : bytes) {
+            fromHostQ.offer(b);
+        }
+        for (int ix = 0; ix < bytes.length; ix++) {
+            terminal.processHostByte(fromHostQ.take());
+        }
+        return terminal.cursorX + terminal.cursorY;
+    }
+}
@@ -5,26 +5,32 @@ package components;
  * 
  * Default colours are picked up from the Crt object.
  * 
+ * Version 1.3 Parse the BDF file with BDFglyphs, which the exporters share
+ *             Write each image in one go with setPixels rather than pixel by pixel
+ *             Keep the pixels of each image too, for the Crt's row images
  * Version 0.9 Switch to JavaFX from Swing
  * Version 0.6 Switch to Raster for chars
  * Version 0.5 Add Constants and sync with v.0.4
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
 
 public final class BDFfont {
 
-	public static final int CHAR_PIXEL_WIDTH  = 10;
-	public static final int CHAR_PIXEL_HEIGHT = 12;
-	public static final int CHARSET_SIZE = 128; 
+	public static final int CHAR_PIXEL_WIDTH  = BDFglyphs.CHAR_PIXEL_WIDTH;
+	public static final int CHAR_PIXEL_HEIGHT = BDFglyphs.CHAR_PIXEL_HEIGHT;
+	public static final int CHARSET_SIZE = BDFglyphs.CHARSET_SIZE; 
 
 	public int charCount;
 	public WritableImage charImages[], charDimImages[], charReverseImages[];
+	// the same images as ARGB pixels, CHAR_PIXEL_WIDTH per line
+	public int charPixels[][], charDimPixels[][], charReversePixels[][];
 	public boolean charLoaded[];
 	public boolean loaded;
 
@@ -33,6 +39,9 @@ public final class BDFfont {
 		charDimImages     = new WritableImage[CHARSET_SIZE];
 		charReverseImages = new WritableImage[CHARSET_SIZE];
 		charLoaded        = new boolean[CHARSET_SIZE];	
+		charPixels        = new int[CHARSET_SIZE][];
+		charDimPixels     = new int[CHARSET_SIZE][];
+		charReversePixels = new int[CHARSET_SIZE][];
 		for (int i = 0; i < CHARSET_SIZE; i++) {
 			charImages[i]        = new WritableImage( CHAR_PIXEL_WIDTH, CHAR_PIXEL_HEIGHT );
 			charDimImages[i]     = new WritableImage( CHAR_PIXEL_WIDTH, CHAR_PIXEL_HEIGHT );
@@ -42,69 +51,61 @@ public final class BDFfont {
 	}
 
 	public boolean load( InputStream  fontFileStream ) {
-
-		BufferedReader bfr;
-		bfr = new BufferedReader(  new InputStreamReader( fontFileStream )  );
-		PixelWriter plainWriter, dimWriter, reverseWriter;
-
 		try {
-			while (!(bfr.readLine()).equals( "ENDPROPERTIES" )); // skip over header
-			String charCountLine = bfr.readLine();
-			if (!charCountLine.startsWith( "CHARS" )) return false;
-			charCount = Integer.parseInt( charCountLine.substring( charCountLine.indexOf(' ') + 1 ) );
+			load( BDFglyphs.parse( fontFileStream ) );
+		} catch (IOException | RuntimeException e) {
+			// e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
 
-			for (int cc = 0; cc < charCount; cc++) {
-				// skip to start of char
-				while (!(bfr.readLine()).startsWith( "STARTCHAR" ));
-				String encodingLine = bfr.readLine();
-				if (!encodingLine.startsWith( "ENCODING" )) return false;
-				int asciiCode = Integer.parseInt( encodingLine.substring( encodingLine.indexOf( ' ' ) + 1 ) );
-				// System.out.printf( "BDFfont: Debug - loading character %d\n", asciiCode );
+	/***
+	 * Build the plain, dim and reverse images for every glyph
+	 * 
+	 * @param glyphs
+	 */
+	public void load( BDFglyphs glyphs ) {
 
-				// skip two lines (SWIDTH & DWIDTH)
-				bfr.readLine(); bfr.readLine();
+		final PixelFormat<IntBuffer> argb = PixelFormat.getIntArgbInstance();
+		final int fg = toArgb( Crt.DFLT_FG_COLOR ), bg = toArgb( Crt.DFLT_BG_COLOR ), dim = toArgb( Crt.DFLT_DIM_COLOR );
+		final int[] plainPixels = new int[CHAR_PIXEL_WIDTH * CHAR_PIXEL_HEIGHT];
+		final int[] dimPixels = new int[CHAR_PIXEL_WIDTH * CHAR_PIXEL_HEIGHT];
+		final int[] reversePixels = new int[CHAR_PIXEL_WIDTH * CHAR_PIXEL_HEIGHT];
+		PixelWriter plainWriter, dimWriter, reverseWriter;
 
-				// decode the BBX line
-				String bbxLine = bfr.readLine();
-				if (!bbxLine.startsWith( "BBX" )) return false;
-				String[] bbxTokens = bbxLine.split( " " );
-				int pixWidth = Integer.parseInt( bbxTokens[1]) ; 
-				int pixHeight = Integer.parseInt( bbxTokens[2] ); // rows up from base used
-				int xOffset = Integer.parseInt( bbxTokens[3] );
-				int yOffset = Integer.parseInt( bbxTokens[4] );
+		charCount = glyphs.loadedCount();
+		for (int asciiCode = 0; asciiCode < CHARSET_SIZE; asciiCode++) {
+			short[] glyph = glyphs.glyph( asciiCode );
+			if (glyph == null) continue;
 
-				// skip the BITMAP line
-				bfr.readLine();
-				
-				plainWriter = charImages[asciiCode].getPixelWriter();
-				dimWriter = charDimImages[asciiCode].getPixelWriter();
-				reverseWriter = charReverseImages[asciiCode].getPixelWriter();
-				// fill the reverse raster with whiteness
-				for (int x = 0; x < CHAR_PIXEL_WIDTH; x++)
-					for (int y = 0; y < CHAR_PIXEL_HEIGHT; y++)
-						reverseWriter.setColor(x, y, Crt.DFLT_FG_COLOR );
-				
-				// load the actual bitmap for this char a row at a time from the top down
-				for (int bitMapLine = pixHeight - 1; bitMapLine >= 0; bitMapLine--) {
-					String lineStr = bfr.readLine();
-					byte lineByte = (byte) ( Integer.parseInt( lineStr, 16 ) );
-					for (int i=0; i < pixWidth; i++) {
-						boolean pix = ((lineByte & 0x80) >> 7) == 1; // test the MSB
-						int thisYoffset = CHAR_PIXEL_HEIGHT - (1 + bitMapLine + yOffset);
-						plainWriter.setColor( xOffset + i, thisYoffset, pix ? Crt.DFLT_FG_COLOR : Crt.DFLT_BG_COLOR );
-						reverseWriter.setColor( xOffset + i, thisYoffset, pix ? Crt.DFLT_BG_COLOR : Crt.DFLT_FG_COLOR );
-						dimWriter.setColor( xOffset + i, thisYoffset, pix ? Crt.DFLT_DIM_COLOR : Crt.DFLT_BG_COLOR );
-						lineByte = (byte) (lineByte << 1);
-					}
+			int ix = 0;
+			for (int y = 0; y < CHAR_PIXEL_HEIGHT; y++) {
+				for (int x = 0; x < CHAR_PIXEL_WIDTH; x++) {
+					boolean pix = (glyph[y] & (0x8000 >>> x)) != 0;
+					plainPixels[ix] = pix ? fg : bg;
+					reversePixels[ix] = pix ? bg : fg;
+					dimPixels[ix++] = pix ? dim : bg;
 				}
-				charLoaded[asciiCode] = true;
 			}
-		} catch (IOException e) {
-			// e.printStackTrace();
-			return false;
+
+			plainWriter = charImages[asciiCode].getPixelWriter();
+			dimWriter = charDimImages[asciiCode].getPixelWriter();
+			reverseWriter = charReverseImages[asciiCode].getPixelWriter();
+			plainWriter.setPixels( 0, 0, CHAR_PIXEL_WIDTH, CHAR_PIXEL_HEIGHT, argb, plainPixels, 0, CHAR_PIXEL_WIDTH );
+			dimWriter.setPixels( 0, 0, CHAR_PIXEL_WIDTH, CHAR_PIXEL_HEIGHT, argb, dimPixels, 0, CHAR_PIXEL_WIDTH );
+			reverseWriter.setPixels( 0, 0, CHAR_PIXEL_WIDTH, CHAR_PIXEL_HEIGHT, argb, reversePixels, 0, CHAR_PIXEL_WIDTH );
+			charPixels[asciiCode] = plainPixels.clone();
+			charDimPixels[asciiCode] = dimPixels.clone();
+			charReversePixels[asciiCode] = reversePixels.clone();
+			charLoaded[asciiCode] = true;
 		}
 		loaded = true;
-		return true;
+	}
+
+	static int toArgb( Color c ) {
+		return ((int) Math.round( c.getOpacity() * 255 ) << 24) | ((int) Math.round( c.getRed() * 255 ) << 16)
+				| ((int) Math.round( c.getGreen() * 255 ) << 8) | (int) Math.round( c.getBlue() * 255 );
 	}
 
 }
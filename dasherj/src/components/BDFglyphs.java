@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The DASHER glyphs as plain bitmaps, with no GUI dependencies.
+ *
+ * Each glyph is CHAR_PIXEL_HEIGHT rows from the top down, pixel x of a row being
+ * bit (15 - x) of its short.  BDFfont builds the Crt's images from these, and the
+ * exporters render from them directly at whatever scale they need.
+ *
+ * Parsing the BDF text is the slow part of loading the font, so the parsed glyphs are
+ * cached in a compact binary file (see writeCache) in the user's ~/.dasherj directory,
+ * keyed by the CRC of the BDF.  The cache is rebuilt whenever the font changes and
+ * any problem with it just means the BDF is parsed as before.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced (BDF parsing moved out of BDFfont)
+ *         Add the binary glyph cache and preload()
+ */
+public final class BDFglyphs {
+
+    public static final int CHAR_PIXEL_WIDTH = 10;
+    public static final int CHAR_PIXEL_HEIGHT = 12;
+    public static final int CHARSET_SIZE = 128;
+
+    static final String DASHER_FONT_BDF = "/resources/D410-a-12.bdf";
+
+    static final byte[] CACHE_MAGIC = {'D', 'J', 'G', 'F'};
+    static final short CACHE_VERSION = 1;
+    static final String CACHE_DIR_PROPERTY = "dasherj.cache.dir";
+    private static final String CACHE_FILE = "D410-a-12.glyphs";
+
+    private static BDFglyphs dasherGlyphs;
+
+    private final short[][] rows = new short[CHARSET_SIZE][];
+
+    /**
+     * @return the standard D410 glyphs, loaded once and shared
+     * @throws IOException
+     */
+    public static synchronized BDFglyphs dasher() throws IOException {
+        if (dasherGlyphs == null) {
+            InputStream in = BDFglyphs.class.getResourceAsStream(DASHER_FONT_BDF);
+            if (in == null) {
+                throw new IOException("Missing font resource " + DASHER_FONT_BDF);
+            }
+            byte[] bdf;
+            try (InputStream bdfStream = in) {
+                bdf = bdfStream.readAllBytes();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bdf);
+            File cacheFile = new File(cacheDirectory(), CACHE_FILE);
+            dasherGlyphs = readCache(cacheFile, crc.getValue());
+            if (dasherGlyphs == null) {
+                dasherGlyphs = parse(new ByteArrayInputStream(bdf));
+                dasherGlyphs.writeCache(cacheFile, crc.getValue());
+            }
+        }
+        return dasherGlyphs;
+    }
+
+    /**
+     * Start loading the standard glyphs on a background thread, so that they are ready
+     * (or nearly) by the time the Crt asks for them
+     */
+    public static void preload() {
+        Thread loader = new Thread(() -> {
+            try {
+                dasher();
+            } catch (IOException e) {
+                // dasher() will fail again, and be reported, when the Crt calls it
+            }
+        }, "GlyphLoader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    static File cacheDirectory() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        return dir != null ? new File(dir) : new File(System.getProperty("user.home"), ".dasherj");
+    }
+
+    /**
+     * @return the cached glyphs, or null if there is no valid cache for this BDF
+     */
+    static BDFglyphs readCache(File cacheFile, long bdfCrc) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, CACHE_MAGIC) || in.readShort() != CACHE_VERSION || in.readLong() != bdfCrc
+                    || in.readByte() != CHAR_PIXEL_WIDTH || in.readByte() != CHAR_PIXEL_HEIGHT) {
+                return null;
+            }
+            BDFglyphs glyphs = new BDFglyphs();
+            int count = in.readUnsignedByte();
+            for (int g = 0; g < count; g++) {
+                int charCode = in.readUnsignedByte();
+                if (charCode >= CHARSET_SIZE) {
+                    return null;
+                }
+                short[] glyph = new short[CHAR_PIXEL_HEIGHT];
+                for (int y = 0; y < CHAR_PIXEL_HEIGHT; y++) {
+                    glyph[y] = in.readShort();
+                }
+                glyphs.rows[charCode] = glyph;
+            }
+            return glyphs;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cache format (big-endian): "DJGF", version (short), CRC32 of the BDF (long),
+     * glyph width (byte), height (byte), glyph count (byte), then for each glyph its
+     * character code (byte) and CHAR_PIXEL_HEIGHT rows (short).
+     *
+     * Written under a temporary name and renamed, so a half-written cache is never read.
+     */
+    void writeCache(File cacheFile, long bdfCrc) {
+        File dir = cacheFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(dir, cacheFile.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.write(CACHE_MAGIC);
+                out.writeShort(CACHE_VERSION);
+                out.writeLong(bdfCrc);
+                out.writeByte(CHAR_PIXEL_WIDTH);
+                out.writeByte(CHAR_PIXEL_HEIGHT);
+                out.writeByte(loadedCount());
+                for (int charCode = 0; charCode < CHARSET_SIZE; charCode++) {
+                    if (rows[charCode] != null) {
+                        out.writeByte(charCode);
+                        for (short row : rows[charCode]) {
+                            out.writeShort(row);
+                        }
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("BDFglyphs: Warning - could not write glyph cache " + cacheFile.getPath());
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Parse the BDF subset used by the DASHER fonts
+     *
+     * @param bdfStream
+     * @return
+     * @throws IOException if the stream is not in the expected format
+     */
+    public static BDFglyphs parse(InputStream bdfStream) throws IOException {
+        BDFglyphs glyphs = new BDFglyphs();
+        BufferedReader bfr = new BufferedReader(new InputStreamReader(bdfStream, StandardCharsets.US_ASCII));
+
+        while (!readLine(bfr).equals("ENDPROPERTIES")); // skip over header
+        String charCountLine = readLine(bfr);
+        if (!charCountLine.startsWith("CHARS")) {
+            throw new IOException("BDF: CHARS expected");
+        }
+        int charCount = Integer.parseInt(charCountLine.substring(charCountLine.indexOf(' ') + 1));
+
+        for (int cc = 0; cc < charCount; cc++) {
+            // skip to start of char
+            while (!readLine(bfr).startsWith("STARTCHAR"));
+            String encodingLine = readLine(bfr);
+            if (!encodingLine.startsWith("ENCODING")) {
+                throw new IOException("BDF: ENCODING expected");
+            }
+            int asciiCode = Integer.parseInt(encodingLine.substring(encodingLine.indexOf(' ') + 1));
+
+            // skip two lines (SWIDTH & DWIDTH)
+            readLine(bfr);
+            readLine(bfr);
+
+            // decode the BBX line
+            String bbxLine = readLine(bfr);
+            if (!bbxLine.startsWith("BBX")) {
+                throw new IOException("BDF: BBX expected");
+            }
+            String[] bbxTokens = bbxLine.split(" ");
+            int pixWidth = Integer.parseInt(bbxTokens[1]);
+            int pixHeight = Integer.parseInt(bbxTokens[2]); // rows up from base used
+            int xOffset = Integer.parseInt(bbxTokens[3]);
+            int yOffset = Integer.parseInt(bbxTokens[4]);
+
+            // skip the BITMAP line
+            readLine(bfr);
+
+            if (pixWidth > 8) {
+                throw new IOException("BDF: glyphs wider than 8 pixels are not supported");
+            }
+            int widthMask = (0xff00 >> pixWidth) & 0xff;
+
+            short[] glyph = new short[CHAR_PIXEL_HEIGHT];
+            // the bitmap comes a row at a time from the top down
+            for (int bitMapLine = pixHeight - 1; bitMapLine >= 0; bitMapLine--) {
+                int lineByte = Integer.parseInt(readLine(bfr), 16) & widthMask;
+                int y = CHAR_PIXEL_HEIGHT - (1 + bitMapLine + yOffset);
+                if (y >= 0 && y < CHAR_PIXEL_HEIGHT && xOffset >= 0) {
+                    glyph[y] = (short) ((lineByte << 8) >>> xOffset);
+                }
+            }
+            if (asciiCode >= 0 && asciiCode < CHARSET_SIZE) {
+                glyphs.rows[asciiCode] = glyph;
+            }
+        }
+        return glyphs;
+    }
+
+    private static String readLine(BufferedReader bfr) throws IOException {
+        String line = bfr.readLine();
+        if (line == null) {
+            throw new IOException("BDF: unexpected end of file");
+        }
+        return line;
+    }
+
+    public boolean isLoaded(int charCode) {
+        return charCode >= 0 && charCode < CHARSET_SIZE && rows[charCode] != null;
+    }
+
+    /**
+     * @param charCode
+     * @return the glyph's rows, or null if there is no such glyph - do not modify
+     */
+    public short[] glyph(int charCode) {
+        return isLoaded(charCode) ? rows[charCode] : null;
+    }
+
+    public boolean pixel(int charCode, int x, int y) {
+        return isLoaded(charCode) && (rows[charCode][y] & (0x8000 >>> x)) != 0;
+    }
+
+    public int loadedCount() {
+        int count = 0;
+        for (short[] glyph : rows) {
+            if (glyph != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
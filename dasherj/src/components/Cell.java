@@ -2,6 +2,8 @@ package components;
 
 public final class Cell {
 	
+	public static final int BLINK_BIT = 0x01, DIM_BIT = 0x02, REVERSE_BIT = 0x04, UNDERSCORE_BIT = 0x08, PROTECT_BIT = 0x10;
+	
 	public byte charValue;
 	public boolean blink, dim, reverse, underscore, protect;
 	
@@ -38,4 +40,20 @@ public final class Cell {
 		this.protect = fromCell.protect;
 	}
 	
+	/***
+	 * @return the attributes of this Cell packed into the low bits of a byte
+	 */
+	public final byte attributeBits() {
+		return (byte) ((blink ? BLINK_BIT : 0) | (dim ? DIM_BIT : 0) | (reverse ? REVERSE_BIT : 0) 
+				| (underscore ? UNDERSCORE_BIT : 0) | (protect ? PROTECT_BIT : 0));
+	}
+	
+	public final void setAttributeBits( final byte bits ) {
+		blink = (bits & BLINK_BIT) != 0;
+		dim = (bits & DIM_BIT) != 0;
+		reverse = (bits & REVERSE_BIT) != 0;
+		underscore = (bits & UNDERSCORE_BIT) != 0;
+		protect = (bits & PROTECT_BIT) != 0;
+	}
+	
 }
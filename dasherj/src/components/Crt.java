@@ -1,7 +1,12 @@
 package components;
 
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
 /**
@@ -15,6 +20,12 @@ import javafx.scene.paint.Color;
  * is handled by the invoking object (Dasher).
  *
  * @author steve 
+ * v. 1.3 Emit FrameEvent for JFR
+ * Keep an image of each row, shift them when the Terminal scrolls and only redraw
+ * the rows that have been edited
+ * Load the font glyphs via the shared (cached) BDFglyphs
+ * Render from the Terminal's horizontal scroll offset
+ * Share one set of glyph images between all Crts
  * v. 1.1 Change to original CRT-like green colours
  * v. 0.9 Switch to JavaFX (from Swing) Move zoom factors out
  * (into DasherJ) 
@@ -29,12 +40,12 @@ import javafx.scene.paint.Color;
  */
 public class Crt extends Canvas {
 
-    private static final String DASHER_FONT_BDF = "/resources/D410-a-12.bdf";
     private static final int MIN_VISIBLE = 32, MAX_VISIBLE = 128;
 
     private int charWidth = BDFfont.CHAR_PIXEL_WIDTH;
     private int charHeight = BDFfont.CHAR_PIXEL_HEIGHT;
-    private BDFfont bdfFont;
+    private static BDFfont sharedFont;
+    private final BDFfont bdfFont;
 
     private final Terminal terminal;
 
@@ -48,20 +59,46 @@ public class Crt extends Canvas {
     Color fgColor = DFLT_FG_COLOR;
     Color dimColor = DFLT_DIM_COLOR;
 
+    private static final PixelFormat<IntBuffer> ARGB = PixelFormat.getIntArgbInstance();
+
+    // the rows as last drawn - shifted once per frame by however many lines the
+    // Terminal has scrolled since, and redrawn only when their contents change
+    private WritableImage[] rowImages = new WritableImage[0];
+    private long[] rowRendered;    // the Terminal's getRowEdit() when each row was drawn
+    private boolean[] rowBlinks;   // row has blinking cells
+    private int[] rowPixels;
+    private int cachedCols, cachedOffset;
+    private boolean cachedBlinkHidden;
+    private long cachedScrolled;
+
     public Crt(Terminal terminal) {
 
         this.terminal = terminal;
 
-        bdfFont = new BDFfont();
-
-        if (!bdfFont.load(getClass().getResourceAsStream(DASHER_FONT_BDF))) {
-            System.out.printf("Crt: Fatal Error - Could not load custom Dasher font.%n");
-            System.exit(1);
-        }
+        bdfFont = sharedFont();
 
         g = getGraphicsContext2D();
     }
 
+    /**
+     * The glyph images are the same for every Crt, so all sessions share one set.
+     * Only called on the FX thread.
+     */
+    private static BDFfont sharedFont() {
+        if (sharedFont == null) {
+            BDFfont font = new BDFfont();
+            // usually already loaded by BDFglyphs.preload(), and from the binary cache
+            try {
+                font.load(BDFglyphs.dasher());
+            } catch (IOException e) {
+                System.out.printf("Crt: Fatal Error - Could not load custom Dasher font.%n");
+                System.exit(1);
+            }
+            sharedFont = font;
+        }
+        return sharedFont;
+    }
+
     @Override
     public boolean isResizable() {
         return true;
@@ -77,77 +114,154 @@ public class Crt extends Canvas {
     public void paintCrt() {
 
         //   	System.out.println( "Debug - paintCrt invoked" );
-        renderCharCells(g);
+        FrameEvent event = new FrameEvent();
+        event.begin();
 
-        // draw the cursor - if on-screen
-        synchronized (terminal) { // don't want cursor being moved while we are drawing it...
-            if (terminal.cursorX < terminal.visible_cols && terminal.cursorY < terminal.visible_lines) {
+        int cellsDrawn;
+        synchronized (terminal) { // don't want the cells or cursor changing while we are drawing them...
+            cellsDrawn = renderCharCells(g);
+
+            // draw the cursor - if on-screen
+            int cursorCol = terminal.cursorX - terminal.hScrollOffset;
+            if (cursorCol >= 0 && cursorCol < terminal.visible_cols && terminal.cursorY < terminal.visible_lines) {
                 g.setFill(fgColor);
-                g.fillRect(terminal.cursorX * charWidth, terminal.cursorY * charHeight, charWidth, charHeight);
+                g.fillRect(cursorCol * charWidth, terminal.cursorY * charHeight, charWidth, charHeight);
                 if (terminal.display[terminal.cursorY][terminal.cursorX].charValue != ' ') {
                     g.setFill(bgColor);
                     g.drawImage(bdfFont.charReverseImages[(int) terminal.display[terminal.cursorY][terminal.cursorX].charValue],
-                            terminal.cursorX * charWidth,
+                            cursorCol * charWidth,
                             terminal.cursorY * charHeight);
                 }
             }
         }
 
+        event.end();
+        if (event.shouldCommit()) {
+            event.cells = cellsDrawn;
+            event.commit();
+        }
     }
 
     /**
      * *
-     * Paint individual character cells onto the passed in Graphics object
-     * (usually the Crt - but may be a separate image for printing etc...)
+     * Bring the row images up to date and draw them onto the passed in Graphics object.
+     * Lines scrolled since the last frame are applied in one shift of the images, so
+     * only the rows that were exposed or edited are drawn again.
      *
-     * Called often - definitely don't waste time in here!
+     * Called often - definitely don't waste time in here! The caller holds the Terminal lock.
      *
      * @param g
+     * @return the number of cells redrawn
      */
-    private void renderCharCells(GraphicsContext g) {
+    private int renderCharCells(GraphicsContext g) {
+
+        terminal.unpack();
+        final int lines = terminal.visible_lines, cols = terminal.visible_cols;
+        final int firstCol = terminal.hScrollOffset; // horizontal scroll - pan the view, not the cells
+        final boolean blinkHidden = terminal.blinking_enabled && terminal.blinkState;
+        final long scrolled = terminal.getLinesScrolled();
+
+        if (rowImages.length != lines || cachedCols != cols) {
+            rowImages = new WritableImage[lines];
+            for (int y = 0; y < lines; y++) {
+                rowImages[y] = new WritableImage(cols * charWidth, charHeight);
+            }
+            rowRendered = new long[lines];
+            rowBlinks = new boolean[lines];
+            rowPixels = new int[cols * charWidth * charHeight];
+            cachedCols = cols;
+            Arrays.fill(rowRendered, -1);
+        } else if (cachedOffset != firstCol || scrolled - cachedScrolled >= lines) {
+            Arrays.fill(rowRendered, -1);
+        } else if (scrolled != cachedScrolled) {
+            // the Terminal has moved its rows up, move the images with them
+            int shift = (int) (scrolled - cachedScrolled);
+            rotate(rowImages, lines, shift);
+            long[] departingRendered = Arrays.copyOf(rowRendered, shift);
+            System.arraycopy(rowRendered, shift, rowRendered, 0, lines - shift);
+            System.arraycopy(departingRendered, 0, rowRendered, lines - shift, shift);
+            boolean[] departingBlinks = Arrays.copyOf(rowBlinks, shift);
+            System.arraycopy(rowBlinks, shift, rowBlinks, 0, lines - shift);
+            System.arraycopy(departingBlinks, 0, rowBlinks, lines - shift, shift);
+        }
+        if (blinkHidden != cachedBlinkHidden) {
+            for (int y = 0; y < lines; y++) {
+                if (rowBlinks[y]) {
+                    rowRendered[y] = -1;
+                }
+            }
+        }
+        cachedOffset = firstCol;
+        cachedScrolled = scrolled;
+        cachedBlinkHidden = blinkHidden;
 
+        int cellsDrawn = 0;
+        for (int y = 0; y < lines; y++) {
+            long edit = terminal.getRowEdit(y);
+            if (edit != rowRendered[y]) {
+                rowBlinks[y] = renderRow(terminal.display[y], firstCol, cols, blinkHidden);
+                rowImages[y].getPixelWriter().setPixels(0, 0, cols * charWidth, charHeight, ARGB, rowPixels, 0, cols * charWidth);
+                rowRendered[y] = edit;
+                cellsDrawn += cols;
+            }
+            g.drawImage(rowImages[y], 0, y * charHeight);
+        }
+        return cellsDrawn;
+    }
+
+    private static void rotate(WritableImage[] images, int count, int shift) {
+        WritableImage[] departing = Arrays.copyOf(images, shift);
+        System.arraycopy(images, shift, images, 0, count - shift);
+        System.arraycopy(departing, 0, images, count - shift, shift);
+    }
+
+    /**
+     * Draw cols cells of a row, starting at firstCol, into rowPixels
+     *
+     * @return true if any of the cells blink
+     */
+    private boolean renderRow(Cell[] cells, int firstCol, int cols, boolean blinkHidden) {
+
+        final int stride = cols * charWidth;
+        final int fg = BDFfont.toArgb(fgColor), bg = BDFfont.toArgb(bgColor);
+        boolean blinks = false;
         byte charVal;
+        Cell cell;
 
-        for (int y = 0; y < terminal.visible_lines; y++) {
-            for (int x = 0; x < terminal.visible_cols; x++) {
+        for (int x = 0; x < cols; x++) {
+            cell = cells[firstCol + x];
+            blinks |= cell.blink;
 
-                // first fill the cell with the background colour and set the right foreground colour
-                if (terminal.display[y][x].reverse) {
-                    g.setFill(fgColor);
-                    g.fillRect(x * charWidth, y * charHeight, charWidth, charHeight);
-                    g.setFill(bgColor);
-                    g.setStroke(bgColor);
-                } else {
-                    g.setFill(bgColor);
-                    g.fillRect(x * charWidth, y * charHeight, charWidth, charHeight);
-                    g.setFill(fgColor);
-                    g.setStroke(fgColor);
+            // the character, unless it is blinked out, otherwise just the cell's background
+            int[] glyph = null;
+            if (!(blinkHidden && cell.blink)) {
+                charVal = cell.charValue;
+                if (charVal >= MIN_VISIBLE && charVal <= MAX_VISIBLE && bdfFont.charLoaded[charVal]) {
+                    if (cell.reverse) {
+                        glyph = bdfFont.charReversePixels[charVal];
+                    } else if (cell.dim) {
+                        glyph = bdfFont.charDimPixels[charVal];
+                    } else {
+                        glyph = bdfFont.charPixels[charVal];
+                    }
                 }
-
-                // draw the character but handle blinking
-                if (terminal.blinking_enabled && terminal.blinkState && terminal.display[y][x].blink) {
-                    g.setFill(bgColor);
-                    g.fillRect(x * charWidth, (y + 1) * charHeight, charWidth, charHeight);
+            }
+            int pos = x * charWidth;
+            for (int py = 0; py < charHeight; py++, pos += stride) {
+                if (glyph == null) {
+                    Arrays.fill(rowPixels, pos, pos + charWidth, cell.reverse ? fg : bg);
                 } else {
-                    charVal = terminal.display[y][x].charValue;
-                    if (charVal >= MIN_VISIBLE && charVal <= MAX_VISIBLE && bdfFont.charLoaded[charVal]) {
-                        if (terminal.display[y][x].reverse) {
-                            g.drawImage(bdfFont.charReverseImages[(int) charVal], x * charWidth, y * charHeight);
-                        } else if (terminal.display[y][x].dim) {
-                            g.drawImage(bdfFont.charDimImages[(int) charVal], x * charWidth, y * charHeight);
-                        } else {
-                            g.drawImage(bdfFont.charImages[(int) charVal], x * charWidth, y * charHeight);
-                        }
-                    }
+                    System.arraycopy(glyph, py * charWidth, rowPixels, pos, charWidth);
                 }
+            }
 
-                // underscore
-                if (terminal.display[y][x].underscore) {
-                    g.setLineWidth(1.0);
-                    g.strokeLine(x * charWidth, (y + 1) * charHeight, (x + 1) * charWidth, (y + 1) * charHeight);
-                }
+            // underscore - along the bottom line of the cell
+            if (cell.underscore) {
+                pos = (charHeight - 1) * stride + x * charWidth;
+                Arrays.fill(rowPixels, pos, pos + charWidth, cell.reverse ? bg : fg);
             }
         }
+        return blinks;
     }
 
 }
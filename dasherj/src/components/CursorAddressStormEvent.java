@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event - a batch of host data that was dominated by cursor addressing, typically
+ * a form or screen-editor repaint.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+@Name("dasherj.CursorAddressStorm")
+@Label("Cursor Address Storm")
+@Category({"DasherJ", "Terminal"})
+@Description("A host data batch containing at least Terminal.CURSOR_STORM_THRESHOLD cursor addresses")
+@Enabled(false)
+class CursorAddressStormEvent extends Event {
+
+    @Label("Cursor Addresses")
+    int cursorAddresses;
+
+    @Label("Bytes")
+    @DataAmount
+    int bytes;
+}
@@ -21,6 +21,24 @@ package components;
  * 
  * @author steve
  * 
+ * v.1.3  Add session recording and playback
+ *        Add Emulation/Benchmark
+ *        Export runtime metrics via JMX
+ *        Print host Print Screen requests in the background, optionally to a spool directory
+ *        Local Print renders from the screen model, add File/Export Screen & History
+ *        Start font, bell and serial port loading in the background at startup
+ *        Add Emulation/Smooth Scroll, off by default
+ *        Show keystroke-to-echo latency in the status bar, add File/Export Echo Latency
+ *        Add Emulation/Horizontal Scroll
+ *        Run several sessions in tabs (File/New Session), each a DasherSession, sharing
+ *        the glyph images, one RenderScheduler and one I/O thread pool
+ *        Add Emulation/Load Triggers and Clear Triggers
+ *        Add Emulation/Tab Between Fields
+ *        Add File/Share Screen, and --view= to watch a shared screen read-only
+ *        Add --shared-screen= to keep the first session's screen in a memory-mapped file
+ *        Add --checkpoint= to save the first session's screen and history as they change
+ *        and restore them at startup
+ *        Resize without pausing the display or losing the screen contents
  * v.1.2  Add D211 emulation, fix D210 emulation now we have documentation.
  *        Add terminal history functionality
  *        Update status when logging is stopped by user
@@ -56,8 +74,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.prefs.Preferences;
 import java.util.List;
 import java.util.Optional;
@@ -70,15 +88,12 @@ import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
-import javafx.print.PageLayout;
-import javafx.print.PageOrientation;
-import javafx.print.Paper;
-import javafx.print.Printer;
 import javafx.print.PrinterJob;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
@@ -87,17 +102,18 @@ import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.RadioMenuItem;
 import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.VBox;
-import javafx.scene.transform.Scale;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
@@ -110,8 +126,6 @@ import javafx.scene.text.Font;
 
 public class DasherJ extends Application {
 
-  private static final int CRT_REFRESH_MS = 50;  // Euro screen refresh rate was 50Hz = 20ms, US was 60Hz = 17ms
-  private static final int CRT_BLINK_COUNTER = 500 / CRT_REFRESH_MS;
   public static final double DEFAULT_HORIZ_ZOOM = 1.0;
   // For an authentic DASHER look, the characters are stretched vertically, this results
   // in a close approximation of a physical DASHER display ratio
@@ -132,41 +146,40 @@ public class DasherJ extends Application {
   private boolean haveConnectHost = false;
   private String  connectHost;
   private int	  connectPort;
+  private int     viewPort;
+  private String  sharedScreenFile;
+  private String  checkpointFile;
 
-  Status status;
+  DasherSession session; // the session on show, all the menus act on this one
   Clipboard clipboard;
 
   Preferences prefs;
 
-  FKeyHandler fKeyHandler;
-  KeyboardHandler keyHandler;
   LocalPrintHandler locPrHandler;
 
   FKeyGrid fkeyGrid;
   DasherStatusBar statusBar;
-  LocalClient localClient;
-  SerialClient serialClient;
-  TelnetClient telnetClient;
-  BlockingQueue<Byte> fromHostQ, fromKbdQ, logQ;
-  Crt crt;
-  Terminal terminal;
-  File logFile;
-  BufferedWriter logBuffWriter;
 
-  Thread screenThread, localThread, loggingThread;
+  final FxPrintSink fxPrintSink = new FxPrintSink();
+  PrintSink printSink = fxPrintSink; // for every session's host Print Screen requests
 
-  Timeline updateCrtTimeline;
+  RenderScheduler renderScheduler;
 
   // GUI elements
   VBox topVboxPane;
   VBox mainVbox;
-  Scale scale;
+  TabPane sessionTabs;
   Stage mainStage;
   Scene scene;
   Menu networkMenu;
   MenuItem networkConnectMenuItem, networkDisconnectMenuItem, networkRestartMenuItem; 
   Menu serialMenu;
   MenuItem serialConnectMenuItem, serialDisconnectMenuItem;  
+  MenuItem startLoggingMenuItem, stopLoggingMenuItem, startRecordingMenuItem, stopRecordingMenuItem;
+  MenuItem playRecordingMenuItem, stopPlaybackMenuItem, closeSessionMenuItem;
+  CheckMenuItem shareScreenMenuItem;
+  final List<RadioMenuItem> emulMenuItems = new ArrayList<>();
+  final List<RadioMenuItem> baudMenuItems = new ArrayList<>();
   double initialStageWidth;
 
   @Override
@@ -174,21 +187,13 @@ public class DasherJ extends Application {
 
     this.mainStage = mainStage;
 
-    fromHostQ = new LinkedBlockingQueue<>(); // data from the host
-    fromKbdQ  = new LinkedBlockingQueue<>(); // data from the keyboard (or faked data)
-    logQ      = new LinkedBlockingQueue<>(); // data to be logged
+    // get the slow bits of initialisation going in the background straight away
+    BDFglyphs.preload();
+    FxBell.preload();
+    SerialClient.discoverPorts();
 
-    status = new Status();
     prefs = Preferences.userRoot().node( this.getClass().getName() );
 
-    terminal = new Terminal( status, fromHostQ, fromKbdQ, logQ );
-    (screenThread = new Thread( terminal )).start();
-    screenThread.setName( "ScreenThread" );
-
-    // start off in local mode
-    (localThread = new Thread(new LocalClient( fromHostQ, fromKbdQ ))).start();
-    localThread.setName( "LocalThread" );
-
     final Parameters params = getParameters();
     final List<String> parameters = params.getRaw();
     int argNum = 0;
@@ -196,10 +201,13 @@ public class DasherJ extends Application {
     while ( argNum < parameters.size() && parameters.get( argNum ).startsWith( "--" )) { 
       arg = parameters.get( argNum );
       if (arg.equals( "--help" )) {
-        System.err.println( "java -cp DasherJ DasherJ [--help] [--host=<hostname>:<port>]" );
+        System.err.println( "java -cp DasherJ DasherJ [--help] [--host=<hostname>:<port>] [--view=<port>] [--shared-screen=<file>] [--checkpoint=<file>]" );
         System.exit( 0 );
       }
       if (arg.startsWith( "--host=" )) parseHost( arg );
+      if (arg.startsWith( "--view=" )) viewPort = Integer.parseInt( arg.substring( 7 ) );
+      if (arg.startsWith( "--shared-screen=" )) sharedScreenFile = arg.substring( 16 );
+      if (arg.startsWith( "--checkpoint=" )) checkpointFile = arg.substring( 13 );
       argNum++;
     }
 
@@ -212,38 +220,48 @@ public class DasherJ extends Application {
 
     clipboard = Clipboard.getSystemClipboard();
 
+    renderScheduler = new RenderScheduler();
+
     MenuBar menuBar = createMenuBar( mainStage );
     topVboxPane.getChildren().add( menuBar );
 
     locPrHandler = new LocalPrintHandler();
 
-    fKeyHandler = new FKeyHandler( fromKbdQ, status );		
-    fkeyGrid = new FKeyGrid( status, fKeyHandler, locPrHandler, mainStage, scene );
+    // the first session, the F-keys and status bar follow whichever session is on show
+    session = new DasherSession( printSink );
+    if (checkpointFile != null) {
+      // before anything else can reach the screen
+      try {
+        session.startCheckpointing( new File( checkpointFile ) );
+      } catch (IOException e) {
+        System.err.println( "Error - Could not checkpoint to " + checkpointFile );
+        e.printStackTrace();
+      }
+    }
+    fkeyGrid = new FKeyGrid( session.status, session.fKeyHandler, locPrHandler, mainStage, scene );
     topVboxPane.getChildren().add( fkeyGrid.grid );// FIXME how to handle this changing height?
 
     //borderPane.setTop( vboxPane );
     mainVbox.getChildren().add(topVboxPane );
 
-    crt = new Crt( terminal );
-    crt.setWidth( terminal.visible_cols * BDFfont.CHAR_PIXEL_WIDTH * DEFAULT_HORIZ_ZOOM );
-    crt.setHeight( terminal.visible_lines * BDFfont.CHAR_PIXEL_HEIGHT * DEFAULT_VERT_ZOOM );
-    // System.out.printf( "DEBUG - initial CRT width: %f\n", terminal.visible_cols * BDFfont.CHAR_PIXEL_WIDTH * DEFAULT_HORIZ_ZOOM );
-    scale = new Scale( DEFAULT_HORIZ_ZOOM, DEFAULT_VERT_ZOOM );
-    crt.getTransforms().add( scale );
-    crt.setFocusTraversable( true );
-    mainVbox.getChildren().add( crt );
+    sessionTabs = new TabPane();
+    sessionTabs.getSelectionModel().selectedItemProperty().addListener( (obs, oldTab, newTab) -> {
+      if (newTab != null) showSession( (DasherSession) newTab.getUserData() );
+    });
+    mainVbox.getChildren().add( sessionTabs );
     
     // USEFUL for DEBUGGING LAYOUT: 
     //mainVbox.setStyle( "-fx-background-color: red;" ); 
 
-    // install our keyboard handler
-    keyHandler = new KeyboardHandler( fromKbdQ, status );
-    scene.addEventHandler( KeyEvent.ANY, keyHandler );
+    // install our keyboard handler - keys go to the session on show
+    scene.addEventHandler( KeyEvent.ANY, (kev) -> {
+      if (!session.isViewing()) session.keyHandler.handle( kev );
+    });
 
     // we don't want the user randomly farting around with the terminal size..
     mainStage.setResizable( false );
 
-    statusBar = new DasherStatusBar( status );
+    statusBar = new DasherStatusBar( session.status, session.metrics.getEchoLatency() );
     mainVbox.getChildren().add( statusBar );
 
     Timeline updateStatusBarTimeline = new Timeline( new KeyFrame( Duration.millis( DasherStatusBar.STATUS_REFRESH_MS ), 
@@ -252,52 +270,28 @@ public class DasherJ extends Application {
     updateStatusBarTimeline.setCycleCount( Timeline.INDEFINITE );
     updateStatusBarTimeline.play();
 
+    addSession( session );
+
     // customise icon
     mainStage.getIcons().add( new Image( DasherJ.class.getResourceAsStream( ICON )));
 
-    mainStage.setOnCloseRequest((WindowEvent we) -> {
-        if (serialClient != null && serialClient.connected) {
-            serialClient.close();
-        }
-        if (telnetClient != null && telnetClient.connected) {
-            telnetClient.close();
-        }
-        System.out.println( "DasherJ clean exit" );
-        Platform.exit();
-        System.exit( 0 );
-    });
+    mainStage.setOnCloseRequest((WindowEvent we) -> exit());
 
     if (haveConnectHost) startTelnet( connectHost, connectPort );
+    if (viewPort > 0) session.startViewing( viewPort );
+    if (sharedScreenFile != null) {
+      try {
+        session.startSharedScreen( new File( sharedScreenFile ) );
+      } catch (IOException e) {
+        System.err.println( "Error - Could not map shared screen file " + sharedScreenFile );
+        e.printStackTrace();
+      }
+    }
 
     // sort out the menu state if we are already connected
-    if (status.connection == ConnectionType.TELNET_CONNECTED) {
-      networkConnectMenuItem.setDisable( true );
-      networkDisconnectMenuItem.setDisable( false );
-      serialMenu.setDisable( true );
-      prefs.put( LAST_HOST_PREF, status.remoteHost );
-      prefs.put( LAST_PORT_PREF, status.remotePort );
-    } else if (status.connection == ConnectionType.SERIAL_CONNECTED) {
-      serialConnectMenuItem.setDisable( true );
-      serialDisconnectMenuItem.setDisable( false );
-      networkMenu.setDisable( true );
-      prefs.put( LAST_SERIAL_PREF, status.serialPort );
-    }
+    updateMenus();
 
-    /* Euro screen refresh rate was 50Hz = 20ms, US was 60Hz = 17ms */
-      updateCrtTimeline = new Timeline(new KeyFrame(Duration.millis(CRT_REFRESH_MS),
-              (ActionEvent ae) -> {
-                  status.blinkCountdown--;
-                  if (status.dirty || status.blinkCountdown == 0) {
-                      crt.paintCrt();
-                      status.dirty = false;
-                  }
-                  if (status.blinkCountdown == 0) {
-                      terminal.blinkState = !terminal.blinkState;
-                      status.blinkCountdown = CRT_BLINK_COUNTER;
-                  }
-              }));
-    updateCrtTimeline.setCycleCount( Timeline.INDEFINITE );
-    updateCrtTimeline.play();
+    renderScheduler.play();
 
     // Display the window.    
     mainStage.setScene( scene );
@@ -307,6 +301,78 @@ public class DasherJ extends Application {
     mainStage.show();
   }
 
+  /**
+   * Give a session its own tab and show it
+   */
+  private void addSession( DasherSession newSession ) {
+    Tab tab = new Tab( newSession.getTitle(), newSession.crt );
+    tab.setUserData( newSession );
+    tab.setOnCloseRequest( (ev) -> {
+      // there is always at least one session
+      if (sessionTabs.getTabs().size() == 1) ev.consume();
+    });
+    tab.setOnClosed( (ev) -> {
+      renderScheduler.remove( newSession );
+      newSession.close();
+      updateMenus();
+    });
+    renderScheduler.add( newSession );
+    sessionTabs.getTabs().add( tab );
+    sessionTabs.getSelectionModel().select( tab );
+  }
+
+  private void showSession( DasherSession shown ) {
+    session = shown;
+    fkeyGrid.setSession( session.status, session.fKeyHandler );
+    statusBar.setSession( session.status, session.metrics.getEchoLatency() );
+    renderScheduler.show( session );
+    updateMenus();
+    session.crt.requestFocus();
+    if (mainStage.isShowing()) mainStage.sizeToScene();
+  }
+
+  /**
+   * Bring the menus and the tab title into line with the state of the session on show
+   */
+  private void updateMenus() {
+    boolean telnet = session.status.connection == ConnectionType.TELNET_CONNECTED;
+    boolean serial = session.status.connection == ConnectionType.SERIAL_CONNECTED;
+    networkConnectMenuItem.setDisable( telnet );
+    networkDisconnectMenuItem.setDisable( !telnet );
+    networkRestartMenuItem.setDisable( !telnet );
+    networkMenu.setDisable( serial );
+    serialConnectMenuItem.setDisable( serial );
+    serialDisconnectMenuItem.setDisable( !serial );
+    serialMenu.setDisable( telnet );
+    startLoggingMenuItem.setDisable( session.status.logging );
+    stopLoggingMenuItem.setDisable( !session.status.logging );
+    startRecordingMenuItem.setDisable( session.sessionRecorder != null );
+    stopRecordingMenuItem.setDisable( session.sessionRecorder == null );
+    playRecordingMenuItem.setDisable( session.sessionPlayer != null );
+    stopPlaybackMenuItem.setDisable( session.sessionPlayer == null );
+    shareScreenMenuItem.setSelected( session.screenMirror != null );
+    for (RadioMenuItem mi : emulMenuItems) {
+      mi.setSelected( mi.getUserData() == session.status.emulation );
+    }
+    for (RadioMenuItem mi : baudMenuItems) {
+      mi.setSelected( mi.getUserData().equals( session.status.baudRate ) );
+    }
+    if (sessionTabs != null) {
+      closeSessionMenuItem.setDisable( sessionTabs.getTabs().size() == 1 );
+      Tab tab = sessionTabs.getSelectionModel().getSelectedItem();
+      if (tab != null) tab.setText( session.getTitle() );
+    }
+  }
+
+  private void exit() {
+    for (Tab tab : sessionTabs.getTabs()) {
+      ((DasherSession) tab.getUserData()).close();
+    }
+    System.out.println( "DasherJ clean exit" );
+    Platform.exit();
+    System.exit( 0 );
+  }
+
   public void getNewSize() {
     ObservableList<Integer> linesInts = FXCollections.observableArrayList( 24, 25, 36, 48, 66 );
     ObservableList<Integer> colsInts = FXCollections.observableArrayList( 80, 81, 120, 132, 135 );
@@ -314,11 +380,11 @@ public class DasherJ extends Application {
     ComboBox<Integer> linesCombo, colsCombo;
     ComboBox<String> zoomCombo;
     linesCombo = new ComboBox<>( linesInts );
-    linesCombo.setValue( 24 );
+    linesCombo.setValue( session.terminal.visible_lines );
     colsCombo = new ComboBox<>( colsInts );
-    colsCombo.setValue( 80 );
+    colsCombo.setValue( session.terminal.visible_cols );
     zoomCombo = new ComboBox<>( zoomStrings );
-    zoomCombo.setValue( "Normal" );
+    zoomCombo.setValue( session.scale.getX() == 0.8 ? "Smaller" : session.scale.getX() == 0.5 ? "Tiny" : "Normal" );
     Dialog<ButtonType> newSizeDialog = new Dialog<>();
     newSizeDialog.setTitle( "Resize" );
     newSizeDialog.getDialogPane().getButtonTypes().addAll( ButtonType.CANCEL, ButtonType.APPLY );
@@ -352,31 +418,31 @@ public class DasherJ extends Application {
         newHzoom = 0.5; newVzoom = 1.0;
         break;
       }
-      updateCrtTimeline.pause();
-
-      terminal.resize( newLines, newCols );
+      // the Terminal keeps its contents and the host carries on, the next frame shows the new size
+      session.terminal.resize( newLines, newCols );
       double newWidth =  (double) ( newCols * BDFfont.CHAR_PIXEL_WIDTH );
       double newHeight = (double) ( newLines * BDFfont.CHAR_PIXEL_HEIGHT * newVzoom );
-      crt.setWidth( newWidth );
-      crt.setHeight( newHeight );
+      session.crt.setWidth( newWidth );
+      session.crt.setHeight( newHeight );
 
-      scale.setX( newHzoom );
-      scale.setY( newVzoom );
+      session.scale.setX( newHzoom );
+      session.scale.setY( newVzoom );
       // System.out.printf( "DEBUG - new CRT width: %f\n", newWidth );
 
-      status.dirty = true;
+      session.status.dirty = true;
      
       mainStage.sizeToScene();
       mainStage.setWidth( (newWidth * newHzoom) + 6 );
-      
-      updateCrtTimeline.play();
     }
   }
 
   public boolean getSerialPort() {
 
     String lastSerial = prefs.get( LAST_SERIAL_PREF, "n/a" );
-    if (lastSerial.equals("n/a")) {
+    String[] knownPorts = SerialClient.listPorts();
+    if (lastSerial.equals("n/a") && knownPorts.length > 0) {
+      lastSerial = knownPorts[0];
+    } else if (lastSerial.equals("n/a")) {
       if (System.getProperty( "os.name" ).toLowerCase().contains( "win" )) {
         lastSerial = "COM1";
       } else {
@@ -389,19 +455,14 @@ public class DasherJ extends Application {
     Optional<String> rc = serialDialog.showAndWait();
     
     if (rc.isPresent()) { // OK
-      // initialise the serial port handler
-      serialClient = new SerialClient( fromHostQ, fromKbdQ );
-      if (serialClient.open( serialDialog.getEditor().getText(), status.baudRate )) {	
-        status.connection = ConnectionType.SERIAL_CONNECTED;
-        status.serialPort = serialDialog.getEditor().getText();
-        prefs.put( LAST_SERIAL_PREF, status.serialPort );
-        prefs.putInt( LAST_BAUD_PREF, status.baudRate );
+      if (session.startSerial( serialDialog.getEditor().getText(), session.status.baudRate )) {	
+        prefs.put( LAST_SERIAL_PREF, session.status.serialPort );
+        prefs.putInt( LAST_BAUD_PREF, session.status.baudRate );
         return true;
       } else {
         Alert alert = new Alert( AlertType.ERROR);
         alert.setContentText( "Could not open " + serialDialog.getEditor().getText() );
         alert.showAndWait();
-        status.connection = ConnectionType.DISCONNECTED;
         return false;
       }
     } else
@@ -439,21 +500,20 @@ public class DasherJ extends Application {
   }
 
   private boolean startTelnet( String host, int port ) {
-    // initialise the telnet session handler
-    telnetClient = new TelnetClient( fromHostQ, fromKbdQ );
-    if (telnetClient.open( host, port )) {
-      status.remoteHost = host;
-      status.remotePort = "" + port;
-      status.connection = ConnectionType.TELNET_CONNECTED;
-      prefs.put( LAST_HOST_PREF, status.remoteHost );
-      prefs.put( LAST_PORT_PREF, status.remotePort );
+    if (session.startTelnet( host, port )) {
+      prefs.put( LAST_HOST_PREF, session.status.remoteHost );
+      prefs.put( LAST_PORT_PREF, session.status.remotePort );
       return true;
     } else {
-      status.connection = ConnectionType.DISCONNECTED;
       return false;
     }
   }
 
+  private void setBaudRate( int baudRate ) {
+    session.status.baudRate = baudRate;
+    if (session.status.connection == Status.ConnectionType.SERIAL_CONNECTED) session.serialClient.changeBaudRate( baudRate );
+  }
+
   public MenuBar createMenuBar( final Stage mainStage ) {
 
     //Create the menu bar.
@@ -463,8 +523,19 @@ public class DasherJ extends Application {
     // To keep the menu structure clear only trivial actions are declared here, more involved ones below
 
     final Menu fileMenu = new Menu( "File" );     
-    final MenuItem startLoggingMenuItem = new MenuItem( "Start Logging" );
-    final MenuItem stopLoggingMenuItem = new MenuItem( "Stop Logging" );
+    final MenuItem newSessionMenuItem = new MenuItem( "New Session" );
+    closeSessionMenuItem = new MenuItem( "Close Session" );
+    startLoggingMenuItem = new MenuItem( "Start Logging" );
+    stopLoggingMenuItem = new MenuItem( "Stop Logging" );
+    startRecordingMenuItem = new MenuItem( "Start Recording" );
+    stopRecordingMenuItem = new MenuItem( "Stop Recording" );
+    playRecordingMenuItem = new MenuItem( "Play Recording" );
+    stopPlaybackMenuItem = new MenuItem( "Stop Playback" );
+    final MenuItem exportLatencyMenuItem = new MenuItem( "Export Echo Latency" );
+    final MenuItem exportScreenMenuItem = new MenuItem( "Export Screen" );
+    final MenuItem exportHistoryMenuItem = new MenuItem( "Export History" );
+    final CheckMenuItem spoolPrintsMenuItem = new CheckMenuItem( "Spool Prints to Directory" );
+    shareScreenMenuItem = new CheckMenuItem( "Share Screen" );
     final MenuItem exitMenuItem = new MenuItem( "Exit" );
 
     final Menu editMenu = new Menu( "Edit" );
@@ -477,35 +548,21 @@ public class DasherJ extends Application {
     final ToggleGroup emulGroup = new ToggleGroup();
     final MenuItem resizeMenuItem = new MenuItem( "Resize" );
     final MenuItem selfTestMenuItem = new MenuItem( "Self-Test" );
+    final MenuItem benchmarkMenuItem = new MenuItem( "Benchmark" );
     final MenuItem loadTemplateItem = new MenuItem( "Load Template" );
+    final MenuItem loadTriggersItem = new MenuItem( "Load Triggers" );
+    final MenuItem clearTriggersItem = new MenuItem( "Clear Triggers" );
 
     serialMenu = new Menu( "Serial" );
     serialConnectMenuItem = new MenuItem( "Connect" );
     serialDisconnectMenuItem = new MenuItem( "Disconnect" );  
     final ToggleGroup baudGroup = new ToggleGroup();
-    final RadioMenuItem b300MenuItem = new RadioMenuItem( "300 baud" );
-    b300MenuItem.setOnAction((ae) -> { 
-      status.baudRate = 300;
-      if (status.connection == Status.ConnectionType.SERIAL_CONNECTED) serialClient.changeBaudRate( 300 );
-    });
-    final RadioMenuItem b1200MenuItem = new RadioMenuItem( "1200 baud" );
-    b1200MenuItem.setOnAction((ae) -> { 
-      status.baudRate = 1200;
-      if (status.connection == Status.ConnectionType.SERIAL_CONNECTED) serialClient.changeBaudRate( 1200 );
-    });
-    final RadioMenuItem b9600MenuItem = new RadioMenuItem( "9600 baud" );
-    b9600MenuItem.setOnAction((ae) -> { 
-      status.baudRate = 9600;
-      if (status.connection == Status.ConnectionType.SERIAL_CONNECTED) serialClient.changeBaudRate( 9600 );
-    });
-    final RadioMenuItem b19200MenuItem = new RadioMenuItem( "19200 baud" );
-    b19200MenuItem.setOnAction((ae) -> { 
-      status.baudRate = 19200;
-      if (status.connection == Status.ConnectionType.SERIAL_CONNECTED) serialClient.changeBaudRate( 19200 );
-    });
-
-    //default
-    b9600MenuItem.setSelected( true );
+    for (int baud : new int[] { 300, 1200, 9600, 19200 }) {
+      final RadioMenuItem baudMenuItem = new RadioMenuItem( baud + " baud" );
+      baudMenuItem.setUserData( baud );
+      baudMenuItem.setOnAction( (ae) -> setBaudRate( baud ) );
+      baudMenuItems.add( baudMenuItem );
+    }
 
     networkMenu = new Menu( "Network" );
     networkConnectMenuItem = new MenuItem( "Connect" );
@@ -520,6 +577,23 @@ public class DasherJ extends Application {
 
     menuBar.getMenus().add( fileMenu ); 
 
+    newSessionMenuItem.setOnAction( (ae) -> addSession( new DasherSession( printSink ) ) );
+    closeSessionMenuItem.setOnAction( (ae) -> {
+      if (sessionTabs.getTabs().size() > 1) {
+        // removing the tab does not fire its onClosed handler
+        Tab tab = sessionTabs.getSelectionModel().getSelectedItem();
+        DasherSession closing = session;
+        sessionTabs.getTabs().remove( tab );
+        renderScheduler.remove( closing );
+        closing.close();
+        updateMenus();
+      }
+    });
+
+    fileMenu.getItems().add( newSessionMenuItem );
+    fileMenu.getItems().add( closeSessionMenuItem );
+    fileMenu.getItems().add( new SeparatorMenuItem() );
+
     startLoggingMenuItem.setOnAction( new EventHandler<ActionEvent>() {
       @Override
       public void handle( ActionEvent ae ) {
@@ -529,53 +603,129 @@ public class DasherJ extends Application {
             new FileChooser.ExtensionFilter( "Terminal Log Files", "*.txt", "*.log"  )
             );
 
-        logFile = loggingFileChooser.showSaveDialog( mainStage );
+        File logFile = loggingFileChooser.showSaveDialog( mainStage );
 
         if (logFile != null) {
-          String loggingFileName = logFile.getPath();
-          System.out.println( "DEBUG: Opening " + loggingFileName + " for logging." );
-          if (loggingFileName == null ) {
-            status.logging = false;
-          } else {
-            try {
-              logBuffWriter = new BufferedWriter( new FileWriter( logFile ));
-            } catch (IOException e) {
-              // TODO Auto-generated catch block
-              e.printStackTrace();
-            }
-            (loggingThread = new Thread( new LogWriter( logBuffWriter, logQ ))).start();
-            loggingThread.setName( "LoggingThread" );
-            startLoggingMenuItem.setDisable( true );
-            stopLoggingMenuItem.setDisable( false );
-            status.logging = true;
+          System.out.println( "DEBUG: Opening " + logFile.getPath() + " for logging." );
+          try {
+            session.startLogging( logFile );
+          } catch (IOException e) {
+            e.printStackTrace();
           }
+          updateMenus();
         }
       }
     });
 
     stopLoggingMenuItem.setOnAction( (ae) -> {
-      loggingThread.interrupt();
-      startLoggingMenuItem.setDisable( false );
-      stopLoggingMenuItem.setDisable( true );
-      status.logging = false;
+      session.stopLogging();
+      updateMenus();
     });
 
     fileMenu.getItems().add( startLoggingMenuItem );
-    stopLoggingMenuItem.setDisable( true );
     fileMenu.getItems().add( stopLoggingMenuItem );
 
-    exitMenuItem.setOnAction((ae) -> {
-      if (serialClient != null && serialClient.connected) {
-        serialClient.close();
+    startRecordingMenuItem.setOnAction( (ae) -> {
+      final FileChooser recordingFileChooser = new FileChooser();
+      recordingFileChooser.setTitle( "Record Session To" );
+      recordingFileChooser.getExtensionFilters().add( new FileChooser.ExtensionFilter( "DasherJ Recordings", "*.djr" ) );
+      File recFile = recordingFileChooser.showSaveDialog( mainStage );
+      if (recFile != null) {
+        try {
+          session.startRecording( recFile );
+          updateMenus();
+        } catch (IOException e) {
+          Alert alert = new Alert( AlertType.ERROR );
+          alert.setContentText( "Could not create " + recFile.getPath() );
+          alert.showAndWait();
+        }
+      }
+    });
+
+    stopRecordingMenuItem.setOnAction( (ae) -> {
+      session.stopRecording();
+      updateMenus();
+    });
+
+    playRecordingMenuItem.setOnAction( (ae) -> {
+      if (playRecording()) {
+        session.startPlayback( () -> Platform.runLater( () -> updateMenus() ) );
+        updateMenus();
+      }
+    });
+
+    stopPlaybackMenuItem.setOnAction( (ae) -> session.stopPlayback() );
+
+    fileMenu.getItems().add( new SeparatorMenuItem() );
+    fileMenu.getItems().add( startRecordingMenuItem );
+    fileMenu.getItems().add( stopRecordingMenuItem );
+    fileMenu.getItems().add( playRecordingMenuItem );
+    fileMenu.getItems().add( stopPlaybackMenuItem );
+
+    exportLatencyMenuItem.setOnAction( (ae) -> {
+      final FileChooser latencyFileChooser = new FileChooser();
+      latencyFileChooser.setTitle( "Export Echo Latency To" );
+      latencyFileChooser.getExtensionFilters().add( new FileChooser.ExtensionFilter( "CSV Files", "*.csv" ) );
+      File latencyFile = latencyFileChooser.showSaveDialog( mainStage );
+      if (latencyFile != null) {
+        try (PrintWriter pw = new PrintWriter( new BufferedWriter( new FileWriter( latencyFile ) ) )) {
+          session.metrics.getEchoLatency().export( pw );
+        } catch (IOException e) {
+          Alert alert = new Alert( AlertType.ERROR );
+          alert.setContentText( "Could not write " + latencyFile.getPath() );
+          alert.showAndWait();
+        }
+      }
+    });
+
+    spoolPrintsMenuItem.setOnAction( (ae) -> {
+      if (spoolPrintsMenuItem.isSelected()) {
+        final DirectoryChooser spoolDirChooser = new DirectoryChooser();
+        spoolDirChooser.setTitle( "Spool Host Prints To" );
+        File spoolDir = spoolDirChooser.showDialog( mainStage );
+        if (spoolDir == null) {
+          spoolPrintsMenuItem.setSelected( false );
+        } else {
+          printSink = new FileSpoolSink( spoolDir );
+        }
+      } else {
+        printSink = fxPrintSink;
       }
-      if (telnetClient != null && telnetClient.connected) {
-        telnetClient.close();
+      // applies to every session
+      for (Tab tab : sessionTabs.getTabs()) {
+        ((DasherSession) tab.getUserData()).printSpooler.setSink( printSink );
       }
-      System.out.println( "DasherJ clean exit" );
-      Platform.exit();
-      System.exit( 0 );
     });
 
+    exportScreenMenuItem.setOnAction( (ae) -> exportScreen( false ) );
+    exportHistoryMenuItem.setOnAction( (ae) -> exportScreen( true ) );
+
+    fileMenu.getItems().add( new SeparatorMenuItem() );
+    fileMenu.getItems().add( exportScreenMenuItem );
+    fileMenu.getItems().add( exportHistoryMenuItem );
+    fileMenu.getItems().add( spoolPrintsMenuItem );
+    fileMenu.getItems().add( exportLatencyMenuItem );
+    fileMenu.getItems().add( shareScreenMenuItem );
+    shareScreenMenuItem.setOnAction( (ae) -> {
+      if (shareScreenMenuItem.isSelected()) {
+        try {
+          int port = session.startSharing();
+          Alert alert = new Alert( AlertType.INFORMATION );
+          alert.setContentText( "Viewers on this machine can connect to port " + port + "\neg. DasherJ --view=" + port );
+          alert.showAndWait();
+        } catch (IOException e) {
+          shareScreenMenuItem.setSelected( false );
+          Alert alert = new Alert( AlertType.ERROR );
+          alert.setContentText( "Could not share the screen\n" + e.getMessage() );
+          alert.showAndWait();
+        }
+      } else {
+        session.stopSharing();
+      }
+    });
+
+    exitMenuItem.setOnAction( (ae) -> exit() );
+
     fileMenu.getItems().add( new SeparatorMenuItem() );
     fileMenu.getItems().add( exitMenuItem );
 
@@ -588,7 +738,7 @@ public class DasherJ extends Application {
       if (clipboard.hasString()) {
         String s = clipboard.getString();
         for (int ix = 0; ix < s.length(); ix++) {
-          fromKbdQ.offer( (byte) s.charAt( ix ) );
+          session.fromKbdQ.offer( (byte) s.charAt( ix ) );
         }
       }
     });    	
@@ -605,98 +755,92 @@ public class DasherJ extends Application {
 
     menuBar.getMenus().add( emulMenu );
 
-    boolean firstEmul = true;
     for ( final Status.EmulationType em : Status.EmulationType.values() ) {
       RadioMenuItem mi = new RadioMenuItem( em.toString() );
-      mi.setOnAction( (ae) -> status.emulation = em );
+      mi.setUserData( em );
+      mi.setOnAction( (ae) -> session.status.emulation = em );
       emulGroup.getToggles().add( mi );
       emulMenu.getItems().add( mi );
-      if (firstEmul) {
-        mi.setSelected( true );
-        firstEmul = false;
-      }
+      emulMenuItems.add( mi );
     }
 
+    // Smooth Scroll stalls the screen thread for up to 100ms per scrolled line waiting
+    // for a frame (Terminal.SMOOTH_SCROLL_MAX_WAIT_MS), so it is off by default
+    final CheckMenuItem smoothScrollMenuItem = new CheckMenuItem( "Smooth Scroll" );
+    smoothScrollMenuItem.setOnAction( (ae) -> session.status.smoothScroll = smoothScrollMenuItem.isSelected() );
+    final CheckMenuItem hScrollMenuItem = new CheckMenuItem( "Horizontal Scroll (Alt-Left/Right to pan)" );
+    hScrollMenuItem.setOnAction( (ae) -> session.terminal.setHorizontalScroll( hScrollMenuItem.isSelected() ) );
+    final CheckMenuItem fieldTabbingMenuItem = new CheckMenuItem( "Tab Between Fields" );
+    fieldTabbingMenuItem.setOnAction( (ae) -> session.status.fieldTabbing = fieldTabbingMenuItem.isSelected() );
+    // the host may change these in D400 mode and up
+    emulMenu.setOnShowing( (ev) -> {
+        smoothScrollMenuItem.setSelected( session.status.smoothScroll );
+        hScrollMenuItem.setSelected( session.terminal.hScroll_enabled );
+        fieldTabbingMenuItem.setSelected( session.status.fieldTabbing );
+    });
     emulMenu.getItems().add( new SeparatorMenuItem() );
+    emulMenu.getItems().add( smoothScrollMenuItem );
+    emulMenu.getItems().add( hScrollMenuItem );
+    emulMenu.getItems().add( fieldTabbingMenuItem );
     emulMenu.getItems().add( resizeMenuItem );
     resizeMenuItem.setOnAction( (ae) -> getNewSize() );
     emulMenu.getItems().add( new SeparatorMenuItem() );
     emulMenu.getItems().add( selfTestMenuItem );
-    selfTestMenuItem.setOnAction( (ae) -> fromKbdQ.offer( Terminal.SELF_TEST ) );
+    selfTestMenuItem.setOnAction( (ae) -> session.fromKbdQ.offer( Terminal.SELF_TEST ) );
+    emulMenu.getItems().add( benchmarkMenuItem );
+    benchmarkMenuItem.setOnAction( (ae) -> {
+      if (session.benchmark == null) runBenchmark();
+    });
     emulMenu.getItems().add( new SeparatorMenuItem() );
     emulMenu.getItems().add( loadTemplateItem );
     loadTemplateItem.setOnAction( (ae) -> fkeyGrid.loadTemplate() );
+    emulMenu.getItems().add( loadTriggersItem );
+    loadTriggersItem.setOnAction( (ae) -> loadTriggers() );
+    emulMenu.getItems().add( clearTriggersItem );
+    clearTriggersItem.setOnAction( (ae) -> session.terminal.setTriggers( null ) );
 
     // serial i/o
     menuBar.getMenus().add(serialMenu);
     serialConnectMenuItem.setOnAction((ae) -> {
       if (getSerialPort()) {
-        // ask the local echo client to stop
-        fromKbdQ.offer( LocalClient.GO_ONLINE );
-        serialConnectMenuItem.setDisable(serialClient.connected );
-        networkMenu.setDisable(serialClient.connected );
-        serialDisconnectMenuItem.setDisable (!serialClient.connected );
+        updateMenus();
       }
     });
     serialMenu.getItems().add( serialConnectMenuItem );
 
     serialDisconnectMenuItem.setOnAction((ae) -> {
-      serialClient.close();
-      serialConnectMenuItem.setDisable(serialClient.connected );
-      networkMenu.setDisable(serialClient.connected );
-      serialDisconnectMenuItem.setDisable (!serialClient.connected );
-      status.connection = Status.ConnectionType.DISCONNECTED;
-      // restart local echo thread
-      (localThread = new Thread(new LocalClient( fromHostQ, fromKbdQ ))).start();
+      session.disconnect();
+      updateMenus();
     });
-    serialDisconnectMenuItem.setDisable( true );
     serialMenu.getItems().add( serialDisconnectMenuItem );
 
     serialMenu.getItems().add( new SeparatorMenuItem() );
 
-    b300MenuItem.setToggleGroup( baudGroup );
-    serialMenu.getItems().add( b300MenuItem );
-    b1200MenuItem.setToggleGroup( baudGroup );
-    serialMenu.getItems().add( b1200MenuItem );
-    //b9600MenuItem.setSelected( true ); // default to 9600 baud
-    b9600MenuItem.setToggleGroup( baudGroup ); 
-    serialMenu.getItems().add( b9600MenuItem );
-    b19200MenuItem.setToggleGroup( baudGroup );
-    serialMenu.getItems().add( b19200MenuItem );
+    for (RadioMenuItem baudMenuItem : baudMenuItems) {
+      baudMenuItem.setToggleGroup( baudGroup );
+      serialMenu.getItems().add( baudMenuItem );
+    }
 
     // network (tcp/ip) i/o
     menuBar.getMenus().add(networkMenu);
     networkConnectMenuItem.setOnAction((ae) -> {
       if (getTargetHost()) {
-        // ask the local echo client to stop
-        fromKbdQ.offer( LocalClient.GO_ONLINE );
-        networkConnectMenuItem.setDisable(telnetClient.connected );
-        serialMenu.setDisable(telnetClient.connected );
-        networkDisconnectMenuItem.setDisable(!telnetClient.connected );
-        networkRestartMenuItem.setDisable( !telnetClient.connected );
+        updateMenus();
       }
     });
     networkMenu.getItems().add( networkConnectMenuItem );
 
     networkDisconnectMenuItem.setOnAction((ae) -> {
-      telnetClient.close();
-      networkConnectMenuItem.setDisable(telnetClient.connected );
-      serialMenu.setDisable(telnetClient.connected );
-      networkDisconnectMenuItem.setDisable(!telnetClient.connected );
-      networkRestartMenuItem.setDisable( true );
-      status.connection = Status.ConnectionType.DISCONNECTED;
-      // restart local echo thread
-      (localThread = new Thread(new LocalClient( fromHostQ, fromKbdQ ))).start();
+      session.disconnect();
+      updateMenus();
     });
-    networkDisconnectMenuItem.setDisable( true );
     networkMenu.getItems().add( networkDisconnectMenuItem );
     
     networkMenu.getItems().add( new SeparatorMenuItem() );
     
     networkMenu.getItems().add( networkRestartMenuItem );
-    networkRestartMenuItem.setDisable( true );
     networkRestartMenuItem.setOnAction( (ae) -> {
-        telnetClient.restart();
+        session.telnetClient.restart();
     });
 
     // Help etc.
@@ -737,12 +881,162 @@ public class DasherJ extends Application {
     haveConnectHost = true;   	
   }
 
+  /**
+   * Ask for a trigger file and run its triggers over the current session's output
+   */
+  private void loadTriggers() {
+    final FileChooser triggerFileChooser = new FileChooser();
+    triggerFileChooser.setTitle( "Load Triggers" );
+    triggerFileChooser.getExtensionFilters().add( new FileChooser.ExtensionFilter( "DasherJ Triggers", "*.txt" ) );
+    File triggerFile = triggerFileChooser.showOpenDialog( mainStage );
+    if (triggerFile == null) return;
+    try {
+      session.terminal.setTriggers( TriggerEngine.load( triggerFile ) );
+    } catch (IOException e) {
+      Alert alert = new Alert( AlertType.ERROR );
+      alert.setContentText( "Could not load triggers from " + triggerFile.getPath() + "\n" + e.getMessage() );
+      alert.showAndWait();
+    }
+  }
+
+  /**
+   * Ask for a recording, playback speed and start position, then prepare the player.
+   * Playback is only offered while off-line so that the host is not confused by
+   * the replayed screen.
+   * 
+   * @return true if the session's player is ready to be started
+   */
+  private boolean playRecording() {
+    if (session.status.connection != ConnectionType.DISCONNECTED) {
+      Alert alert = new Alert( AlertType.ERROR );
+      alert.setContentText( "Please disconnect before playing a recording" );
+      alert.showAndWait();
+      return false;
+    }
+    final FileChooser playFileChooser = new FileChooser();
+    playFileChooser.setTitle( "Play Recorded Session" );
+    playFileChooser.getExtensionFilters().add( new FileChooser.ExtensionFilter( "DasherJ Recordings", "*.djr" ) );
+    File playFile = playFileChooser.showOpenDialog( mainStage );
+    if (playFile == null) return false;
+    SessionPlayer sessionPlayer;
+    try {
+      sessionPlayer = new SessionPlayer( playFile, session.terminal, session.status );
+    } catch (IOException e) {
+      Alert alert = new Alert( AlertType.ERROR );
+      alert.setContentText( "Could not play " + playFile.getPath() + "\n" + e.getMessage() );
+      alert.showAndWait();
+      return false;
+    }
+    ObservableList<String> speedStrings = FXCollections.observableArrayList( "1x", "2x", "5x", "10x", "Maximum" );
+    ComboBox<String> speedCombo = new ComboBox<>( speedStrings );
+    speedCombo.setValue( "1x" );
+    long durationSecs = sessionPlayer.getDurationMicros() / 1_000_000;
+    TextField startField = new TextField( "0" );
+    Dialog<ButtonType> playDialog = new Dialog<>();
+    playDialog.setTitle( "Play Recording" );
+    playDialog.getDialogPane().getButtonTypes().addAll( ButtonType.CANCEL, ButtonType.OK );
+    GridPane grid = new GridPane();
+    grid.setHgap( 10 );
+    grid.setVgap( 10 );
+    grid.setPadding( new Insets( 20, 20, 10, 10 ) );
+    grid.add( new Label( "Speed" ), 0, 0 );
+    grid.add( speedCombo, 1, 0 );
+    grid.add( new Label( "Start at (0-" + durationSecs + "s)" ), 0, 1 );
+    grid.add( startField, 1, 1 );
+    playDialog.getDialogPane().setContent( grid );
+    Optional<ButtonType> rc = playDialog.showAndWait();
+    if (!rc.isPresent() || rc.get() != ButtonType.OK) {
+      sessionPlayer.close();
+      return false;
+    }
+    if (speedCombo.getValue().equals( "Maximum" )) {
+      sessionPlayer.setSpeed( SessionPlayer.MAX_SPEED );
+    } else {
+      sessionPlayer.setSpeed( Double.parseDouble( speedCombo.getValue().replace( "x", "" ) ) );
+    }
+    try {
+      sessionPlayer.seek( Long.parseLong( startField.getText().trim() ) * 1_000_000 );
+    } catch (IOException | NumberFormatException e) {
+      Alert alert = new Alert( AlertType.ERROR );
+      alert.setContentText( "Could not start playback - " + e.getMessage() );
+      alert.showAndWait();
+      sessionPlayer.close();
+      return false;
+    }
+    session.sessionPlayer = sessionPlayer;
+    return true;
+  }
+
+  /**
+   * Ask for a synthetic load pattern, rate and duration, then run it through the
+   * off-line path and report how the emulator coped.
+   */
+  private void runBenchmark() {
+    if (session.status.connection != ConnectionType.DISCONNECTED) {
+      Alert alert = new Alert( AlertType.ERROR );
+      alert.setContentText( "The benchmark can only be run off-line" );
+      alert.showAndWait();
+      return;
+    }
+    ComboBox<HostStreamSynth.Pattern> patternCombo = new ComboBox<>( FXCollections.observableArrayList( HostStreamSynth.Pattern.values() ) );
+    patternCombo.setValue( HostStreamSynth.Pattern.MIXED );
+    ObservableList<String> rateStrings = FXCollections.observableArrayList( "9600 baud", "19200 baud", "100 KB/s", "1 MB/s", "Unlimited" );
+    final int[] rates = { 960, 1920, 100 * 1024, 1024 * 1024, HostStreamSynth.UNLIMITED };
+    ComboBox<String> rateCombo = new ComboBox<>( rateStrings );
+    rateCombo.setValue( "Unlimited" );
+    ObservableList<Integer> durationInts = FXCollections.observableArrayList( 5, 10, 30, 60 );
+    ComboBox<Integer> durationCombo = new ComboBox<>( durationInts );
+    durationCombo.setValue( 10 );
+    Dialog<ButtonType> benchDialog = new Dialog<>();
+    benchDialog.setTitle( "Benchmark" );
+    benchDialog.getDialogPane().getButtonTypes().addAll( ButtonType.CANCEL, ButtonType.OK );
+    GridPane grid = new GridPane();
+    grid.setHgap( 10 );
+    grid.setVgap( 10 );
+    grid.setPadding( new Insets( 20, 20, 10, 10 ) );
+    grid.add( new Label( "Host output" ), 0, 0 );
+    grid.add( patternCombo, 1, 0 );
+    grid.add( new Label( "Rate" ), 0, 1 );
+    grid.add( rateCombo, 1, 1 );
+    grid.add( new Label( "Seconds" ), 0, 2 );
+    grid.add( durationCombo, 1, 2 );
+    benchDialog.getDialogPane().setContent( grid );
+    Optional<ButtonType> rc = benchDialog.showAndWait();
+    if (!rc.isPresent() || rc.get() != ButtonType.OK) return;
+
+    HostStreamSynth synth = new HostStreamSynth( patternCombo.getValue(), 
+                                                 rates[rateStrings.indexOf( rateCombo.getValue() )],
+                                                 durationCombo.getValue() * 1000L,
+                                                 session.terminal.visible_lines, session.terminal.visible_cols,
+                                                 session.fromKbdQ, session.fromHostQ );
+    final DasherSession benchSession = session;
+    final ThroughputBenchmark benchmark = new ThroughputBenchmark( session.terminal, patternCombo.getValue() + " at " + rateCombo.getValue() );
+    benchSession.benchmark = benchmark;
+    Thread synthThread = new Thread( () -> {
+      synth.run();
+      Platform.runLater( () -> {
+        String report = benchmark.finish();
+        benchSession.benchmark = null;
+        Alert alert = new Alert( AlertType.INFORMATION );
+        alert.setTitle( "Benchmark Results" );
+        alert.setHeaderText( null );
+        alert.setContentText( report );
+        alert.getDialogPane().setMinWidth( 480 );
+        alert.show();
+      });
+    });
+    synthThread.setName( "SynthThread-" + benchSession.number );
+    benchmark.start();
+    synthThread.start();
+  }
+
     private void showHistoryDialog() {
         Dialog historyDialog = new Dialog();
         historyDialog.setTitle( "DasherJ Terminal History" );
         ButtonType closeButtonType = new ButtonType( "Close", ButtonData.CANCEL_CLOSE );
         historyDialog.getDialogPane().getButtonTypes().add( closeButtonType );
         historyDialog.setResizable( true );
+        Terminal terminal = session.terminal;
         TextArea historyArea = new TextArea( terminal.history.fetchAllAsString() + terminal.fetchDisplayAsString() );
         historyArea.setPrefColumnCount( terminal.visible_cols );
         historyArea.setPrefRowCount( terminal.visible_lines );
@@ -752,23 +1046,50 @@ public class DasherJ extends Application {
         historyDialog.showAndWait();
     }
 
+  /**
+   * Export the screen, or the history and screen, in the format chosen in the file dialog.
+   * The file is written on a background thread.
+   */
+  private void exportScreen( boolean withHistory ) {
+    final ScreenSnapshot screen = withHistory ? session.terminal.historySnapshot() : session.terminal.snapshot();
+    final FileChooser exportChooser = new FileChooser();
+    exportChooser.setTitle( withHistory ? "Export History To" : "Export Screen To" );
+    for (ScreenExporter.Format fmt : ScreenExporter.Format.values()) {
+      exportChooser.getExtensionFilters().add( new FileChooser.ExtensionFilter( fmt.toString(), fmt.getPattern() ) );
+    }
+    final File exportFile = exportChooser.showSaveDialog( mainStage );
+    if (exportFile == null) {
+      return;
+    }
+    int fmtIx = exportChooser.getExtensionFilters().indexOf( exportChooser.getSelectedExtensionFilter() );
+    final ScreenExporter.Format format = ScreenExporter.Format.values()[ Math.max( fmtIx, 0 ) ];
+    Thread exportThread = new Thread( () -> {
+      try {
+        ScreenExporter.export( screen, format, exportFile );
+      } catch (IOException e) {
+        Platform.runLater( () -> {
+          Alert alert = new Alert( AlertType.ERROR );
+          alert.setContentText( "Could not export to " + exportFile.getPath() + " - " + e.getMessage() );
+          alert.showAndWait();
+        });
+      }
+    });
+    exportThread.setName( "ExportThread" );
+    exportThread.start();
+  }
+
   public class LocalPrintHandler implements EventHandler<ActionEvent> {
     @Override
     public void handle( ActionEvent arg0 ) {
-      WritableImage wImage = crt.snapshot( null, null );
-      ImageView imageView = new ImageView( wImage );
-      Printer printer = Printer.getDefaultPrinter();
-      PageLayout pageLayout = printer.createPageLayout(Paper.A4, PageOrientation.LANDSCAPE, Printer.MarginType.DEFAULT);
-      double scaleX = pageLayout.getPrintableWidth() / imageView.getBoundsInParent().getWidth();
-      double scaleY = pageLayout.getPrintableHeight() / imageView.getBoundsInParent().getHeight();
-      imageView.getTransforms().add(new Scale(scaleX, scaleY));
+      // print from the screen model at the printer's resolution, not a scaled-up bitmap
+      ScreenSnapshot screen = session.terminal.snapshot();
       PrinterJob job = PrinterJob.createPrinterJob();
       if (job != null) {
         if (job.showPrintDialog( mainStage )) {
-          boolean ok = job.printPage( pageLayout, imageView );
+          boolean ok = ScreenPrintLayout.print( job, screen );
           if (ok) job.endJob();
         }
-      }		
+      }
     }
   }
 
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Runtime counters and gauges for a DasherJ session, exported over JMX.
+ *
+ * Counters are LongAdders so that the Terminal, listener and FX threads never contend
+ * when updating them; maxima and 'last' values are single-writer volatiles.
+ * Keystroke-to-echo latency is timed stage by stage in EchoLatency.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class DasherMetrics implements DasherMetricsMBean {
+
+    public static final String OBJECT_NAME = "DasherJ:type=Metrics";
+
+    private static final BlockingQueue<Byte> NO_QUEUE = new LinkedBlockingQueue<>();
+
+    private final LongAdder hostBytesReceived = new LongAdder();
+    private final LongAdder hostBytesProcessed = new LongAdder();
+    private final LongAdder scrolls = new LongAdder();
+    private final LongAdder framesPainted = new LongAdder();
+    private final LongAdder framesSkipped = new LongAdder();
+    private final LongAdder paintNanos = new LongAdder();
+    private final LongAdder keystrokes = new LongAdder();
+
+    private volatile long lastPaint, maxPaint;   // written on the FX thread only
+
+    final EchoLatency echoLatency = new EchoLatency();
+
+    private BlockingQueue<Byte> fromHostQ = NO_QUEUE, fromKbdQ = NO_QUEUE, logQ = NO_QUEUE;
+
+    public void setQueues(BlockingQueue<Byte> pFromHostQ, BlockingQueue<Byte> pFromKbdQ, BlockingQueue<Byte> pLogQ) {
+        fromHostQ = pFromHostQ;
+        fromKbdQ = pFromKbdQ;
+        logQ = pLogQ;
+    }
+
+    private ObjectName objectName;
+
+    /**
+     * Make the metrics visible to JMX clients
+     *
+     * @param session the session number, each session has its own MBean
+     */
+    public void register(int session) {
+        try {
+            objectName = new ObjectName(OBJECT_NAME + ",session=" + session);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        objectName = null;
+    }
+
+    // updates - these are called on the hot paths, keep them cheap
+
+    void hostBytesReceived(int count) {
+        hostBytesReceived.add(count);
+        echoLatency.hostReceived();
+    }
+
+    void hostBytesProcessed(int count) {
+        hostBytesProcessed.add(count);
+    }
+
+    void scrolled(int lines) {
+        scrolls.add(lines);
+    }
+
+    void framePainted(long nanos) {
+        framesPainted.increment();
+        paintNanos.add(nanos);
+        lastPaint = nanos;
+        if (nanos > maxPaint) {
+            maxPaint = nanos;
+        }
+        echoLatency.painted(System.nanoTime() - nanos);
+    }
+
+    void frameSkipped() {
+        framesSkipped.increment();
+    }
+
+    void keySent() {
+        keystrokes.increment();
+        echoLatency.keySent();
+    }
+
+    /**
+     * Called by Terminal after it has processed each byte from the host
+     */
+    void hostByteApplied() {
+        echoLatency.hostApplied();
+    }
+
+    public EchoLatency getEchoLatency() {
+        return echoLatency;
+    }
+
+    // JMX
+
+    @Override
+    public long getHostBytesReceived() {
+        return hostBytesReceived.sum();
+    }
+
+    @Override
+    public long getHostBytesProcessed() {
+        return hostBytesProcessed.sum();
+    }
+
+    @Override
+    public int getFromHostQueueDepth() {
+        return fromHostQ.size();
+    }
+
+    @Override
+    public int getFromKeyboardQueueDepth() {
+        return fromKbdQ.size();
+    }
+
+    @Override
+    public int getLogQueueDepth() {
+        return logQ.size();
+    }
+
+    @Override
+    public long getScrollCount() {
+        return scrolls.sum();
+    }
+
+    @Override
+    public long getFramesPainted() {
+        return framesPainted.sum();
+    }
+
+    @Override
+    public long getFramesSkipped() {
+        return framesSkipped.sum();
+    }
+
+    @Override
+    public double getLastPaintMillis() {
+        return lastPaint / 1e6;
+    }
+
+    @Override
+    public double getMeanPaintMillis() {
+        long frames = framesPainted.sum();
+        return frames == 0 ? 0.0 : paintNanos.sum() / 1e6 / frames;
+    }
+
+    @Override
+    public double getMaxPaintMillis() {
+        return maxPaint / 1e6;
+    }
+
+    @Override
+    public long getKeystrokes() {
+        return keystrokes.sum();
+    }
+
+    @Override
+    public long getEchoCount() {
+        return echoLatency.total.getCount();
+    }
+
+    @Override
+    public double getLastEchoMillis() {
+        return echoLatency.getLastNanos() / 1e6;
+    }
+
+    @Override
+    public double getMeanEchoMillis() {
+        return echoLatency.total.getMeanNanos() / 1e6;
+    }
+
+    @Override
+    public double getMaxEchoMillis() {
+        return echoLatency.total.getMaxNanos() / 1e6;
+    }
+
+    @Override
+    public double getP50EchoMillis() {
+        return echoLatency.total.getPercentileNanos(50.0) / 1e6;
+    }
+
+    @Override
+    public double getP99EchoMillis() {
+        return echoLatency.total.getPercentileNanos(99.0) / 1e6;
+    }
+
+    @Override
+    public double getP50EchoNetworkMillis() {
+        return echoLatency.network.getPercentileNanos(50.0) / 1e6;
+    }
+
+    @Override
+    public double getP50EchoEmulatorMillis() {
+        return echoLatency.emulator.getPercentileNanos(50.0) / 1e6;
+    }
+
+    @Override
+    public double getP50EchoRenderMillis() {
+        return echoLatency.render.getPercentileNanos(50.0) / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        hostBytesReceived.reset();
+        hostBytesProcessed.reset();
+        scrolls.reset();
+        framesPainted.reset();
+        framesSkipped.reset();
+        paintNanos.reset();
+        keystrokes.reset();
+        lastPaint = 0;
+        maxPaint = 0;
+        echoLatency.reset();
+    }
+}
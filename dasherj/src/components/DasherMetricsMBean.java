@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+/**
+ * The JMX view of DasherMetrics - visible in jconsole etc. under DasherJ:type=Metrics,session=n
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Interface introduced
+ */
+public interface DasherMetricsMBean {
+
+    long getHostBytesReceived();
+
+    long getHostBytesProcessed();
+
+    int getFromHostQueueDepth();
+
+    int getFromKeyboardQueueDepth();
+
+    int getLogQueueDepth();
+
+    long getScrollCount();
+
+    long getFramesPainted();
+
+    long getFramesSkipped();
+
+    double getLastPaintMillis();
+
+    double getMeanPaintMillis();
+
+    double getMaxPaintMillis();
+
+    long getKeystrokes();
+
+    long getEchoCount();
+
+    double getLastEchoMillis();
+
+    double getMeanEchoMillis();
+
+    double getMaxEchoMillis();
+
+    double getP50EchoMillis();
+
+    double getP99EchoMillis();
+
+    double getP50EchoNetworkMillis();
+
+    double getP50EchoEmulatorMillis();
+
+    double getP50EchoRenderMillis();
+
+    /**
+     * Zero all the counters and maxima
+     */
+    void reset();
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.scene.transform.Scale;
+import components.Status.ConnectionType;
+
+/**
+ * One terminal session - a Terminal with its own queues, Crt, keyboard handlers,
+ * transport and print spooler.  Several sessions can run in one DasherJ window; they
+ * share the Crt glyph images, the RenderScheduler and SessionLifecycle.IO_POOL.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced, the per-connection state moved here from DasherJ
+ *         Start and stop all tasks through a SessionLifecycle, keep one LocalClient
+ *         Share the screen through a ScreenMirror, or view another's with a MirrorViewer
+ *         Optionally keep the screen in a memory-mapped SharedScreen file
+ *         Optionally checkpoint the screen and History, restoring them on startup
+ */
+public class DasherSession {
+
+    private static final AtomicInteger sessionNumbers = new AtomicInteger();
+
+    final int number;
+    final Status status = new Status();
+    final DasherMetrics metrics = new DasherMetrics();
+    final BlockingQueue<Byte> fromHostQ = new LinkedBlockingQueue<>(); // data from the host
+    final BlockingQueue<Byte> fromKbdQ = new LinkedBlockingQueue<>();  // data from the keyboard (or faked data)
+    final BlockingQueue<Byte> logQ = new LinkedBlockingQueue<>();      // data to be logged
+    final Terminal terminal;
+    final Crt crt;
+    final Scale scale;
+    final KeyboardHandler keyHandler;
+    final FKeyHandler fKeyHandler;
+    final PrintSpooler printSpooler;
+    final SessionLifecycle lifecycle;
+    private final LocalClient localClient;
+
+    SerialClient serialClient;
+    TelnetClient telnetClient;
+    SessionRecorder sessionRecorder;
+    ScreenMirror screenMirror;
+    private MirrorViewer mirrorViewer;
+    private SharedScreen sharedScreen;
+    private SessionCheckpoint checkpoint;
+    volatile SessionPlayer sessionPlayer;
+    ThroughputBenchmark benchmark;
+
+    private SessionLifecycle.Task loggingTask, playbackTask;
+
+    /**
+     * Start a session, off-line
+     *
+     * @param printSink where host Print Screen requests go
+     */
+    public DasherSession(PrintSink printSink) {
+        number = sessionNumbers.incrementAndGet();
+        lifecycle = new SessionLifecycle(number);
+
+        metrics.setQueues(fromHostQ, fromKbdQ, logQ);
+        metrics.register(number);
+
+        terminal = new Terminal(status, fromHostQ, fromKbdQ, logQ);
+        terminal.setMetrics(metrics);
+        terminal.setBellSink(new FxBell());
+        terminal.setTriggerSink((trigger, text, row) -> status.triggerNotice = text);
+        printSpooler = new PrintSpooler(printSink, fromKbdQ);
+        terminal.setPrintSpooler(printSpooler);
+
+        crt = new Crt(terminal);
+        fitCrt();
+        scale = new Scale(DasherJ.DEFAULT_HORIZ_ZOOM, DasherJ.DEFAULT_VERT_ZOOM);
+        crt.getTransforms().add(scale);
+        crt.setFocusTraversable(true);
+
+        keyHandler = new KeyboardHandler(fromKbdQ, status, metrics, terminal);
+        fKeyHandler = new FKeyHandler(fromKbdQ, status, metrics);
+
+        lifecycle.start("ScreenThread", terminal);
+        lifecycle.start("PrintSpoolerThread", printSpooler);
+        // start off in local mode
+        localClient = new LocalClient(fromHostQ, fromKbdQ);
+        lifecycle.start("LocalThread", localClient);
+    }
+
+    /**
+     * @return a short name for the session's tab
+     */
+    public String getTitle() {
+        if (mirrorViewer != null) {
+            return "Viewing " + number;
+        }
+        switch (status.connection) {
+            case TELNET_CONNECTED:
+                return status.remoteHost;
+            case SERIAL_CONNECTED:
+                return status.serialPort;
+            default:
+                return "Local " + number;
+        }
+    }
+
+    public boolean startTelnet(String host, int port) {
+        goOnline();
+        // initialise the telnet session handler
+        telnetClient = new TelnetClient(lifecycle, fromHostQ, fromKbdQ, metrics);
+        terminal.resetTelnet();
+        if (telnetClient.open(host, port)) {
+            status.remoteHost = host;
+            status.remotePort = "" + port;
+            status.connection = ConnectionType.TELNET_CONNECTED;
+            return true;
+        } else {
+            status.connection = ConnectionType.DISCONNECTED;
+            localClient.resume();
+            return false;
+        }
+    }
+
+    public boolean startSerial(String port, int baudRate) {
+        goOnline();
+        // initialise the serial port handler
+        serialClient = new SerialClient(lifecycle, fromHostQ, fromKbdQ, metrics);
+        if (serialClient.open(port, baudRate)) {
+            status.connection = ConnectionType.SERIAL_CONNECTED;
+            status.serialPort = port;
+            return true;
+        } else {
+            status.connection = ConnectionType.DISCONNECTED;
+            localClient.resume();
+            return false;
+        }
+    }
+
+    public void disconnect() {
+        if (serialClient != null && serialClient.connected) {
+            serialClient.close();
+        }
+        if (telnetClient != null && telnetClient.connected) {
+            telnetClient.close();
+        }
+        if (status.connection != ConnectionType.DISCONNECTED) {
+            status.connection = ConnectionType.DISCONNECTED;
+            // the transport's writer has stopped, so local echo can have the keyboard back
+            localClient.resume();
+        }
+    }
+
+    private void goOnline() {
+        // park the local echo client before the transport's writer starts reading the keyboard
+        try {
+            localClient.pause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Let local viewers watch this session's screen
+     *
+     * @return the loopback port they should connect to
+     */
+    public int startSharing() throws IOException {
+        if (screenMirror == null) {
+            screenMirror = new ScreenMirror(terminal, lifecycle, 0);
+        }
+        return screenMirror.getPort();
+    }
+
+    public void stopSharing() {
+        if (screenMirror != null) {
+            screenMirror.close();
+            screenMirror = null;
+        }
+    }
+
+    /**
+     * Show the screen another session is sharing, instead of ever going on-line.
+     * The keyboard is ignored from now on.
+     *
+     * @param port the loopback port of the other session's ScreenMirror
+     */
+    public void startViewing(int port) {
+        goOnline();
+        mirrorViewer = new MirrorViewer(terminal, port);
+        lifecycle.start("MirrorViewerThread", mirrorViewer);
+    }
+
+    public boolean isViewing() {
+        return mirrorViewer != null;
+    }
+
+    /**
+     * Restore the screen and History from a checkpoint file if there is one, then keep
+     * checkpointing to it
+     */
+    public void startCheckpointing(File file) throws IOException {
+        stopCheckpointing();
+        try {
+            if (SessionCheckpoint.restore(file, terminal)) {
+                fitCrt();
+            }
+        } catch (IOException e) {
+            // start afresh rather than keep a checkpoint we cannot use
+            System.out.println("DasherSession: Could not restore " + file.getPath() + " - " + e.getMessage());
+        }
+        checkpoint = new SessionCheckpoint(terminal, lifecycle, file);
+    }
+
+    public void stopCheckpointing() {
+        if (checkpoint != null) {
+            checkpoint.close();
+            checkpoint = null;
+        }
+    }
+
+    /**
+     * Size the Crt to the Terminal's screen, at the default zoom
+     */
+    private void fitCrt() {
+        crt.setWidth(terminal.visible_cols * BDFfont.CHAR_PIXEL_WIDTH * DasherJ.DEFAULT_HORIZ_ZOOM);
+        crt.setHeight(terminal.visible_lines * BDFfont.CHAR_PIXEL_HEIGHT * DasherJ.DEFAULT_VERT_ZOOM);
+    }
+
+    /**
+     * Keep a copy of the screen in a memory-mapped file for other processes to read,
+     * see SharedScreen for the layout
+     */
+    public void startSharedScreen(File file) throws IOException {
+        stopSharedScreen();
+        sharedScreen = new SharedScreen(terminal, lifecycle, file);
+    }
+
+    public void stopSharedScreen() {
+        if (sharedScreen != null) {
+            sharedScreen.close();
+            sharedScreen = null;
+        }
+    }
+
+    public void startLogging(File logFile) throws IOException {
+        BufferedWriter logBuffWriter = new BufferedWriter(new FileWriter(logFile));
+        loggingTask = lifecycle.start("LoggingThread", new LogWriter(logBuffWriter, logQ));
+        status.logging = true;
+    }
+
+    public void stopLogging() {
+        status.logging = false;
+        // LogWriter flushes and closes the file when it is stopped
+        lifecycle.stop(loggingTask);
+        loggingTask = null;
+    }
+
+    public void startRecording(File recFile) throws IOException {
+        sessionRecorder = new SessionRecorder(recFile, terminal, status);
+        terminal.setRecorder(sessionRecorder);
+    }
+
+    public void stopRecording() {
+        if (sessionRecorder != null) {
+            terminal.setRecorder(null);
+            sessionRecorder.close();
+            sessionRecorder = null;
+        }
+    }
+
+    /**
+     * Run the prepared sessionPlayer
+     *
+     * @param onFinished run on the playback thread once the recording ends or is stopped
+     */
+    public void startPlayback(Runnable onFinished) {
+        final SessionPlayer player = sessionPlayer;
+        playbackTask = lifecycle.start("PlaybackThread", () -> {
+            player.run();
+            sessionPlayer = null;
+            onFinished.run();
+        });
+    }
+
+    public void stopPlayback() {
+        if (sessionPlayer != null) {
+            sessionPlayer.stop();
+        }
+        if (playbackTask != null) {
+            // wake it if it is waiting for the next record's time
+            playbackTask.stop();
+            playbackTask = null;
+        }
+    }
+
+    /**
+     * Disconnect, finish any logging, recording or playback and stop the session's tasks
+     */
+    public void close() {
+        stopSharing();
+        stopSharedScreen();
+        stopCheckpointing();
+        if (mirrorViewer != null) {
+            mirrorViewer.close();
+        }
+        disconnect();
+        stopLogging();
+        stopRecording();
+        stopPlayback();
+        lifecycle.stopAll();
+        metrics.unregister();
+    }
+}
@@ -18,6 +18,9 @@
 /* The status bar updates itself independently based on the state of the Status object,
  * there is no need to update it explicitly from anywhere else.
  * 
+ * v.1.3 - Add keystroke-to-echo latency, with a per-stage breakdown as its tooltip
+ *         Show the latest trigger notification
+ *         Add setSession() - one status bar follows whichever session is on show
  * v.1.1 - Add background-color property
  * v.0.9 - Add baud rate to connection indicator
  * v.0.8 - Add lines/cols to emulation status
@@ -27,6 +30,7 @@
 package components;
 
 import javafx.scene.control.Label;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 
@@ -36,6 +40,9 @@ public class DasherStatusBar extends HBox {
 	private final Label loggingStatus = new Label();
 	private final Label connection = new Label();
 	private final Label emulation = new Label();
+	private final Label echo = new Label();
+	private final Label notice = new Label();
+	private final Tooltip echoBreakdown = new Tooltip();
 	
     private final String etchedStyle = "-fx-border-insets: 0; "
             + "-fx-border-width: 2px; "
@@ -45,10 +52,12 @@ public class DasherStatusBar extends HBox {
 	public static final int STATUS_REFRESH_MS = 500;
 	
 	private Status status;
+	private EchoLatency echoLatency;
 	
-	public DasherStatusBar( Status pStatus ) {
+	public DasherStatusBar( Status pStatus, EchoLatency pEchoLatency ) {
 		
 		status = pStatus;
+		echoLatency = pEchoLatency;
 		
 		//Container c = super.getContentPane();
 		// setLayout( new GridLayout( 1, 4 ) );
@@ -60,10 +69,22 @@ public class DasherStatusBar extends HBox {
 		connection.setMaxWidth( Double.MAX_VALUE );
 		HBox.setHgrow( connection, Priority.ALWAYS );
 		emulation.setStyle( etchedStyle );
-		getChildren().addAll( onlineStatus, loggingStatus, connection, emulation );
+		echo.setStyle( etchedStyle );
+		echoBreakdown.setStyle( "-fx-font-family: monospace;" );
+		echo.setTooltip( echoBreakdown );
+		notice.setStyle( etchedStyle );
+		getChildren().addAll( onlineStatus, loggingStatus, connection, notice, echo, emulation );
 		
 	}
 	
+	/**
+	 * Show a different session's state from the next update
+	 */
+	public void setSession( Status pStatus, EchoLatency pEchoLatency ) {
+		status = pStatus;
+		echoLatency = pEchoLatency;
+	}
+	
 	public void updateStatus() {
 		
 		switch (status.connection) {
@@ -92,6 +113,11 @@ public class DasherStatusBar extends HBox {
 		}
 		
 		emulation.setText( status.emulation.toString() + " (" + status.visLines + "x" + status.visCols +")" );
+		
+		echo.setText( echoLatency.summary() );
+		echoBreakdown.setText( echoLatency.breakdown() );
+		
+		notice.setText( status.triggerNotice == null ? " " : status.triggerNotice );
 
 	}
 	
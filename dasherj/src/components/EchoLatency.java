@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.PrintWriter;
+import java.util.Date;
+
+/**
+ * EchoLatency times each keystroke through to its echo appearing on the Crt, split
+ * into stages so that network delay can be told apart from our own...
+ *
+ *   network  - key sent by KeyboardHandler/FKeyHandler to the first host data read
+ *              by TelnetListener/SerialListener
+ *   emulator - host data read to the first byte applied by Terminal
+ *   render   - byte applied to the end of the first Crt paint that started after it
+ *   total    - key sent to echo painted
+ *
+ * Only one keystroke is timed at a time, keys typed while it is outstanding are not
+ * timed.  With no host connection the local echo has no network stage and the whole
+ * wait counts as emulator time.  Host output that was not an echo (eg. after typing a
+ * password) is measured as though it were - a keystroke left waiting for longer than
+ * STALE_NANOS is abandoned when the next key is sent.
+ *
+ * The hostReceived/hostApplied/painted calls are on hot paths, they only take a lock
+ * when a keystroke is actually being timed.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class EchoLatency {
+
+    static final long STALE_NANOS = 10_000_000_000L;
+
+    private static final int IDLE = 0, AWAITING_HOST = 1, AWAITING_APPLY = 2, AWAITING_PAINT = 3;
+
+    final LatencyHistogram network = new LatencyHistogram();
+    final LatencyHistogram emulator = new LatencyHistogram();
+    final LatencyHistogram render = new LatencyHistogram();
+    final LatencyHistogram total = new LatencyHistogram();
+
+    private volatile int stage = IDLE;
+    private long sentAt, receivedAt, appliedAt;
+    private volatile long lastTotal;
+
+    synchronized void keySent() {
+        long now = System.nanoTime();
+        if (stage == IDLE || now - sentAt > STALE_NANOS) {
+            sentAt = now;
+            stage = AWAITING_HOST;
+        }
+    }
+
+    /**
+     * Called by the transport listeners as each read from the host completes
+     */
+    void hostReceived() {
+        if (stage != AWAITING_HOST) {
+            return;
+        }
+        synchronized (this) {
+            if (stage == AWAITING_HOST) {
+                receivedAt = System.nanoTime();
+                network.record(receivedAt - sentAt);
+                stage = AWAITING_APPLY;
+            }
+        }
+    }
+
+    /**
+     * Called by Terminal after each host byte has been processed
+     */
+    void hostApplied() {
+        int s = stage;
+        if (s != AWAITING_HOST && s != AWAITING_APPLY) {
+            return;
+        }
+        synchronized (this) {
+            if (stage == AWAITING_HOST) {
+                // local echo, nothing came over the wire
+                receivedAt = sentAt;
+                stage = AWAITING_APPLY;
+            }
+            if (stage == AWAITING_APPLY) {
+                appliedAt = System.nanoTime();
+                emulator.record(appliedAt - receivedAt);
+                stage = AWAITING_PAINT;
+            }
+        }
+    }
+
+    /**
+     * Called on the FX thread after each Crt paint
+     *
+     * @param paintStart System.nanoTime() when the paint began
+     */
+    void painted(long paintStart) {
+        if (stage != AWAITING_PAINT) {
+            return;
+        }
+        synchronized (this) {
+            if (stage == AWAITING_PAINT && paintStart >= appliedAt) {
+                long now = System.nanoTime();
+                render.record(now - appliedAt);
+                total.record(now - sentAt);
+                lastTotal = now - sentAt;
+                stage = IDLE;
+            }
+        }
+    }
+
+    public long getLastNanos() {
+        return lastTotal;
+    }
+
+    /**
+     * @return a one-line p50/p99/max summary suitable for the status bar
+     */
+    public String summary() {
+        if (total.getCount() == 0) {
+            return "Echo -";
+        }
+        return String.format("Echo %.1f/%.1f/%.1fms",
+                total.getPercentileNanos(50.0) / 1e6, total.getPercentileNanos(99.0) / 1e6, total.getMaxNanos() / 1e6);
+    }
+
+    /**
+     * @return a multi-line per-stage breakdown
+     */
+    public String breakdown() {
+        StringBuilder sb = new StringBuilder("Keystroke-to-echo latency (ms)\n        p50 / p99 / max");
+        appendStage(sb, "Total", total);
+        appendStage(sb, "Network", network);
+        appendStage(sb, "Emulator", emulator);
+        appendStage(sb, "Render", render);
+        return sb.toString();
+    }
+
+    private static void appendStage(StringBuilder sb, String label, LatencyHistogram h) {
+        sb.append(String.format("%n%-9s%.2f / %.2f / %.2f  (%d)", label,
+                h.getPercentileNanos(50.0) / 1e6, h.getPercentileNanos(99.0) / 1e6, h.getMaxNanos() / 1e6, h.getCount()));
+    }
+
+    /**
+     * Write a CSV summary of every stage followed by the full bucket counts
+     *
+     * @param pw
+     */
+    public void export(PrintWriter pw) {
+        pw.printf("# DasherJ keystroke-to-echo latency exported %s%n", new Date());
+        pw.println("stage,count,mean_ms,p50_ms,p90_ms,p99_ms,p99.9_ms,max_ms");
+        exportStage(pw, "total", total);
+        exportStage(pw, "network", network);
+        exportStage(pw, "emulator", emulator);
+        exportStage(pw, "render", render);
+        pw.println();
+        pw.println("stage,from_ms,to_ms,count");
+        total.writeBuckets("total", pw);
+        network.writeBuckets("network", pw);
+        emulator.writeBuckets("emulator", pw);
+        render.writeBuckets("render", pw);
+    }
+
+    private static void exportStage(PrintWriter pw, String label, LatencyHistogram h) {
+        pw.printf("%s,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f%n", label, h.getCount(), h.getMeanNanos() / 1e6,
+                h.getPercentileNanos(50.0) / 1e6, h.getPercentileNanos(90.0) / 1e6, h.getPercentileNanos(99.0) / 1e6,
+                h.getPercentileNanos(99.9) / 1e6, h.getMaxNanos() / 1e6);
+    }
+
+    public synchronized void reset() {
+        network.reset();
+        emulator.reset();
+        render.reset();
+        total.reset();
+        lastTotal = 0;
+        stage = IDLE;
+    }
+}
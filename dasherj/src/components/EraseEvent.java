@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event - part of the Terminal screen was erased.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+@Name("dasherj.Erase")
+@Label("Erase")
+@Category({"DasherJ", "Terminal"})
+@Enabled(false)
+class EraseEvent extends Event {
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Row")
+    int row;
+
+    @Label("Cells")
+    int cells;
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expect drives a Terminal from a script - wait for the host to paint something,
+ * then type, press DASHER function keys and read fields off the screen...
+ *
+ *   Expect ex = farmSession.expect();
+ *   ex.waitFor("USERNAME:", 5000);
+ *   ex.send("OP\r");
+ *   ex.sendKey("F3", false, true);   // Ctrl-F3
+ *   String balance = ex.readField(10, 40, 12);
+ *
+ * Matching is incremental.  The Terminal records which rows change, and each check
+ * only looks again at rows damaged since the previous one, copying their characters
+ * straight from the display - the screen is never rebuilt as a string.  Waiters are
+ * woken by the Terminal as soon as a row changes.  Matches do not span rows.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ *         Add submitFields() and extractFields()
+ */
+public class Expect {
+
+    /**
+     * A rectangle of the screen, rows top..bottom and columns left..right inclusive
+     */
+    public static final class Region {
+        public final int top, left, bottom, right;
+
+        public Region(int top, int left, int bottom, int right) {
+            this.top = top;
+            this.left = left;
+            this.bottom = bottom;
+            this.right = right;
+        }
+
+        /**
+         * the whole of the visible screen, whatever its size
+         */
+        public static final Region SCREEN = new Region(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        public static Region row(int row) {
+            return new Region(row, 0, row, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Where a waitFor() matched
+     */
+    public static final class Match {
+        public final int row, col;
+        public final String text;
+        private final MatchResult result;
+
+        Match(int row, int col, MatchResult result) {
+            this.row = row;
+            this.col = col;
+            this.text = result.group();
+            this.result = result;
+        }
+
+        /**
+         * @return a capturing group of the regular expression
+         */
+        public String group(int group) {
+            return result.group(group);
+        }
+
+        @Override
+        public String toString() {
+            return "'" + text + "' at " + row + "," + col;
+        }
+    }
+
+    private final Terminal terminal;
+    private final BlockingQueue<Byte> toHostQ;
+    private final StringBuilder rowText = new StringBuilder(Terminal.TOTAL_COLS); // guarded by this
+
+    /**
+     * @param terminal
+     * @param toHostQ where keystrokes go, the Terminal's keyboard queue
+     */
+    public Expect(Terminal terminal, BlockingQueue<Byte> toHostQ) {
+        this.terminal = terminal;
+        this.toHostQ = toHostQ;
+    }
+
+    /**
+     * Wait for text to appear anywhere on the screen
+     *
+     * @return the match, or null on timeout
+     */
+    public Match waitFor(String text, long timeoutMs) throws InterruptedException {
+        return waitFor(Pattern.compile(Pattern.quote(text)), Region.SCREEN, timeoutMs);
+    }
+
+    public Match waitFor(String text, Region region, long timeoutMs) throws InterruptedException {
+        return waitFor(Pattern.compile(Pattern.quote(text)), region, timeoutMs);
+    }
+
+    /**
+     * Wait for a regular expression to match within one row of the region.  The
+     * whole region is checked first, then only the rows that change.
+     *
+     * @return the first match (top to bottom), or null on timeout
+     */
+    public synchronized Match waitFor(Pattern pattern, Region region, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        Matcher matcher = pattern.matcher(rowText);
+        long checked = -1; // nothing checked yet
+        synchronized (terminal) {
+            while (true) {
+                long serial = terminal.getDamageSerial();
+                int bottom = Math.min(region.bottom, terminal.visible_lines - 1);
+                int right = Math.min(region.right, terminal.visible_cols - 1);
+                for (int row = region.top; row <= bottom; row++) {
+                    if (checked >= 0 && terminal.getRowDamage(row) <= checked) {
+                        continue; // unchanged since the last look
+                    }
+                    copyRow(rowText, row, region.left, right);
+                    matcher.reset(rowText);
+                    if (matcher.find()) {
+                        return new Match(row, region.left + matcher.start(), matcher.toMatchResult());
+                    }
+                }
+                checked = serial;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                terminal.awaitDamage(checked, remaining);
+            }
+        }
+    }
+
+    /**
+     * @return len characters of the screen starting at row, col - cut short at the
+     * edge of the screen
+     */
+    public String readField(int row, int col, int len) {
+        StringBuilder field = new StringBuilder(len);
+        synchronized (terminal) {
+            int right = Math.min(col + len, terminal.visible_cols) - 1;
+            copyRow(field, row, col, right);
+        }
+        return field.toString();
+    }
+
+    /**
+     * Type some text, as if at the keyboard
+     */
+    public void send(String text) {
+        send(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public void send(byte[] data) {
+        for (byte b : data) {
+            toHostQ.offer(b);
+        }
+    }
+
+    /**
+     * Fill in a form - each value goes in the next unprotected field from the cursor,
+     * ended by a New Line
+     */
+    public void submitFields(String... values) {
+        submitFields(Arrays.asList(values), new byte[] { Terminal.NL });
+    }
+
+    /**
+     * @param separator the keys that end a field for the host program, see
+     * FieldIndex.submission()
+     */
+    public void submitFields(List<String> values, byte[] separator) {
+        send(terminal.fields.submission(values, separator));
+    }
+
+    /**
+     * @return the contents of the unprotected fields, in screen order
+     */
+    public List<String> extractFields() {
+        return terminal.fields.extract();
+    }
+
+    /**
+     * Press one of the FKeyGrid keys
+     *
+     * @param key eg. "F1", "Er Pg" - see FKeyHandler.keyBytes()
+     */
+    public void sendKey(String key, boolean shift, boolean control) {
+        byte[] bytes = FKeyHandler.keyBytes(key, shift, control);
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Not a DASHER key: " + key);
+        }
+        send(bytes);
+    }
+
+    /**
+     * @return the cursor as {column, row}, taken together
+     */
+    public int[] getCursor() {
+        synchronized (terminal) {
+            return new int[] { terminal.cursorX, terminal.cursorY };
+        }
+    }
+
+    /**
+     * Copy columns left..right of a row into sb, the caller holds the Terminal's lock
+     */
+    private void copyRow(StringBuilder sb, int row, int left, int right) {
+        sb.setLength(0);
+        terminal.unpack();
+        Cell[] cells = terminal.display[row];
+        for (int col = left; col <= right; col++) {
+            sb.append((char) (cells[col].charValue & 0xff));
+        }
+    }
+}
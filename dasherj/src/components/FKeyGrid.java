@@ -28,6 +28,7 @@ import javafx.stage.Stage;
  * 
  * @author steve
  * 
+ * v. 1.3  - Add setSession() so that one grid can serve several sessions
  * v. 1.1  - Reduce MIN_LABEL_HEIGHT to save space
  *           Introduce MAX_LABEL_HEIGHT
  * v. 0.9  - Move to JavaFX from Swing
@@ -152,13 +153,22 @@ public class FKeyGrid extends GridPane  {
 		return button;
 	}
 
+	/**
+	 * Direct the keys to a different session
+	 */
+	public void setSession( Status pStatus, FKeyHandler pHandler ) {
+		status = pStatus;
+		handler = pHandler;
+	}
+
 	protected Button makeFKeyButton( String label ) {
 		Button button = new Button( label );
 		button.setFont( Font.font( "Arial", FontWeight.BOLD, 9 ) );
 		button.setMinWidth( MIN_BTN_WIDTH );
 		button.setMinHeight( MIN_BTN_HEIGHT );
 		button.setMaxWidth( Double.MAX_VALUE );
-		button.addEventHandler( ActionEvent.ANY, handler );
+		// go via the field, the handler changes with the session on show
+		button.addEventHandler( ActionEvent.ANY, (ae) -> handler.handle( ae ) );
 		// We don't want focus on these keys or they will fire with <space> press
 		button.setFocusTraversable( false );
 
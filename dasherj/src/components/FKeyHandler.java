@@ -3,6 +3,8 @@ package components;
 /**
  * Handle real and simulated events from the FKeyGrid
  * 
+ * v1.3   Tell DasherMetrics when keys are sent
+ *        Add keyBytes() for headless users
  * v0.9   Initial version (for JavaFX conversion)
  */
 import java.util.concurrent.BlockingQueue;
@@ -14,103 +16,79 @@ public class FKeyHandler implements EventHandler<ActionEvent> {
 
 	BlockingQueue<Byte> lFromKbdQ;
 	Status status;
+	DasherMetrics metrics;
+	private boolean sent;
 	
-	public FKeyHandler(BlockingQueue<Byte> pFromKbdQ, Status pStatus) {
+	public FKeyHandler(BlockingQueue<Byte> pFromKbdQ, Status pStatus, DasherMetrics pMetrics) {
 		lFromKbdQ = pFromKbdQ;
 		status = pStatus;
+		metrics = pMetrics;
 	}
 	
 	@Override
 	public void handle( ActionEvent ae ) {
 			
-		int modifier = 0;
+		sent = false;
 		
-		if (status.control_pressed && status.shift_pressed) { modifier = -80; }  // Ctrl-Shift
-		if (status.control_pressed && !status.shift_pressed) { modifier = -64; } // Ctrl
-		if (!status.control_pressed && status.shift_pressed) { modifier = -16; } // Shift
-
 		String fk = ((Button) ae.getSource()).getText();
 		switch(fk) {
-		case "Brk":
-			lFromKbdQ.offer( (byte) 2 ); // special CMD_BREAK indicator
-			break;
-		case "Er Pg":
-			lFromKbdQ.offer( (byte) 12 );
-			break;
-		case "CR":
-			lFromKbdQ.offer( (byte) 13 );
-			break;	
-		case "ErEOL":
-			lFromKbdQ.offer( (byte) 11 );
-			break;
 		case "Loc Pr": // TODO Loc Pr
 			break;
 		case "Hold":
 			status.holding = !status.holding;
 			break;
-		case "F1":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (113 + modifier) );
-			break;
-		case "F2":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (114 + modifier) );
-			break;
-		case "F3":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (115 + modifier) );
-			break;
-		case "F4":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (116 + modifier) );
-			break;
-		case "F5":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (117 + modifier) );
-			break;
-		case "F6":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (118 + modifier) );
-			break;
-		case "F7":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (119 + modifier) );
-			break;
-		case "F8":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (120 + modifier) );
-			break;
-		case "F9":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (121 + modifier) );
-			break;
-		case "F10":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (122 + modifier) );
-			break;
-		case "F11":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (123 + modifier) );
-			break;
-		case "F12":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (124 + modifier) );
-			break;
-		case "F13":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (125 + modifier) );
-			break;
-		case "F14":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (126 + modifier) );
-			break;
-		case "F15":
-			lFromKbdQ.offer( (byte) 30 );
-			lFromKbdQ.offer( (byte) (112 + modifier) );
-			break;
-
+		default:
+			for (byte b : keyBytes( fk, status.shift_pressed, status.control_pressed )) {
+				send( b );
+			}
+		}
+		if (sent) {
+			metrics.keySent();
 		}
 		ae.consume();
 	}
+	
+	/**
+	 * The bytes a DASHER sends to the host for one of the FKeyGrid keys, so that
+	 * headless users (eg. Expect) send exactly what the GUI does
+	 * 
+	 * @param fk the key's label - "F1" to "F15", "Brk", "Er Pg", "CR" or "ErEOL"
+	 * @param shift
+	 * @param control
+	 * @return the bytes, empty for keys that send nothing
+	 */
+	public static byte[] keyBytes( String fk, boolean shift, boolean control ) {
+		
+		int modifier = 0;
+		
+		if (control && shift) { modifier = -80; }  // Ctrl-Shift
+		if (control && !shift) { modifier = -64; } // Ctrl
+		if (!control && shift) { modifier = -16; } // Shift
+
+		switch(fk) {
+		case "Brk":
+			return new byte[] { (byte) 2 }; // special CMD_BREAK indicator
+		case "Er Pg":
+			return new byte[] { (byte) 12 };
+		case "CR":
+			return new byte[] { (byte) 13 };
+		case "ErEOL":
+			return new byte[] { (byte) 11 };
+		case "F15":
+			return new byte[] { (byte) 30, (byte) (112 + modifier) };
+		default:
+			if (fk.matches( "F([1-9]|1[0-4])" )) {
+				// F1 to F14 are consecutive
+				int n = Integer.parseInt( fk.substring( 1 ) );
+				return new byte[] { (byte) 30, (byte) (112 + n + modifier) };
+			}
+			return new byte[0];
+		}
+	}
+
+	private void send( byte b ) {
+		lFromKbdQ.offer( b );
+		sent = true;
+	}
 
 }
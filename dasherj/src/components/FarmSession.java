@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * One headless telnet session of a ScreenFarm - a Terminal with a line buffer just
+ * the size of its screen, fed by a TelnetClient, its tasks on the farm's pool.
+ *
+ * The screen accessors may be called from any thread; they take a consistent copy
+ * of the screen under the Terminal's lock.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ *         Add expect()
+ *         Take the field layout from the Terminal's FieldIndex, add extractFields()
+ *         Pack the Terminal's cells while the host is quiet
+ */
+public class FarmSession {
+
+    private final ScreenFarm farm;
+    private final int number;
+    private final Status status = new Status();
+    private final DasherMetrics metrics = new DasherMetrics();
+    private final BlockingQueue<Byte> fromHostQ = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Byte> toHostQ = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Byte> logQ = new LinkedBlockingQueue<>();
+    private final Terminal terminal;
+    private final SessionLifecycle lifecycle;
+    private TelnetClient telnetClient;
+    private Expect expect;
+    private boolean closed;
+
+    FarmSession(ScreenFarm farm, int number, int lines, int cols, Status.EmulationType emulation, ExecutorService pool) {
+        this.farm = farm;
+        this.number = number;
+        status.emulation = emulation;
+        status.visLines = lines;
+        status.visCols = cols;
+        terminal = new Terminal(status, fromHostQ, toHostQ, logQ, lines, cols);
+        terminal.setMetrics(metrics);
+        terminal.setPackWhenIdle(ScreenFarm.PACK_AFTER_IDLE_MS);
+        lifecycle = new SessionLifecycle(number, pool);
+    }
+
+    /**
+     * @return true if the connection was made
+     */
+    boolean connect(String host, int port) {
+        lifecycle.start("ScreenThread", terminal);
+        telnetClient = new TelnetClient(lifecycle, fromHostQ, toHostQ, metrics);
+        if (!telnetClient.open(host, port)) {
+            return false;
+        }
+        status.remoteHost = host;
+        status.remotePort = "" + port;
+        status.connection = Status.ConnectionType.TELNET_CONNECTED;
+        return true;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return false once the host has closed the connection, or the session has been closed
+     */
+    public boolean isConnected() {
+        TelnetClient client = telnetClient;
+        return client != null && client.connected && client.telnetListener.isRunning();
+    }
+
+    /**
+     * Send data to the host as if typed
+     */
+    public void send(byte[] data) {
+        for (byte b : data) {
+            toHostQ.offer(b);
+        }
+    }
+
+    public void send(String text) {
+        send(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return a copy of the screen, attributes and cursor
+     */
+    public ScreenSnapshot snapshot() {
+        return terminal.snapshot();
+    }
+
+    public String screenText() {
+        return snapshot().toText();
+    }
+
+    /**
+     * @return the cursor as {column, row}, taken together
+     */
+    public int[] getCursor() {
+        ScreenSnapshot screen = snapshot();
+        return new int[] { screen.getCursorX(), screen.getCursorY() };
+    }
+
+    /**
+     * @return the protected and unprotected runs of the screen, see FieldIndex.layout()
+     */
+    public List<ScreenSnapshot.Field> fieldLayout() {
+        return terminal.fields.layout();
+    }
+
+    /**
+     * @return the contents of the unprotected fields, see FieldIndex.extract()
+     */
+    public List<String> extractFields() {
+        return terminal.fields.extract();
+    }
+
+    /**
+     * @return the session's Expect, for scripting it
+     */
+    public synchronized Expect expect() {
+        if (expect == null) {
+            expect = new Expect(terminal, toHostQ);
+        }
+        return expect;
+    }
+
+    public Terminal getTerminal() {
+        return terminal;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Disconnect, stop the session's tasks and give its slot back to the farm
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (telnetClient != null) {
+            telnetClient.close();
+        }
+        status.connection = Status.ConnectionType.DISCONNECTED;
+        lifecycle.stopAll();
+        farm.released(this);
+    }
+}
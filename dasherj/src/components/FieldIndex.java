@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * FieldIndex keeps the screen's protected and unprotected runs (see
+ * ScreenSnapshot.Field) up to date as the Terminal changes it, so that forms can be
+ * navigated, read and filled in without scanning every cell each time.
+ *
+ * Each row's runs are kept with the row and move with it when the screen scrolls.
+ * A row is only rescanned when something may have changed its protection - a
+ * character printed with a different protect attribute, a partial erase or an
+ * insert/delete on a row that has protected cells.  Erase Unprotected, the usual way
+ * a form is cleared for the next record, leaves the index alone.
+ *
+ * The Terminal updates the index with its lock held, the queries take the same lock.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public final class FieldIndex {
+
+    /**
+     * The runs of one row - (start column << 1) | protect, left to right
+     */
+    private static final class Row {
+        int[] runs = new int[4];
+        int count;
+        int cols;            // the width the row was indexed at
+        boolean stale = true;
+    }
+
+    private final Terminal terminal;
+    private final Row[] rows, spare;
+    private long rescans;
+
+    FieldIndex(Terminal terminal, int lines) {
+        this.terminal = terminal;
+        rows = new Row[lines];
+        spare = new Row[lines];
+        for (int r = 0; r < lines; r++) {
+            rows[r] = new Row();
+        }
+    }
+
+    // Updates from the Terminal - all with the Terminal locked
+
+    /**
+     * A cell on the row has changed its protect attribute
+     */
+    void protectChanged(int row) {
+        rows[row].stale = true;
+    }
+
+    /**
+     * Cells on the row have been erased or shifted, which only matters if it has
+     * protected cells
+     */
+    void rowEdited(int row) {
+        Row r = rows[row];
+        if (!r.stale && r.count == 1 && (r.runs[0] & 1) == 0) {
+            return;
+        }
+        r.stale = true;
+    }
+
+    /**
+     * The first cols cells of the row are now unprotected spaces
+     */
+    void rowCleared(int row, int cols) {
+        Row r = rows[row];
+        r.runs[0] = 0;
+        r.count = 1;
+        r.cols = cols;
+        r.stale = false;
+    }
+
+    /**
+     * Rows top to bottom-1 have moved just as in Terminal.moveRows(), the
+     * uncovered ones will be cleared by the Terminal
+     */
+    void moveRows(int top, int bottom, int n) {
+        int height = bottom - top;
+        int count = Math.min(Math.abs(n), height);
+        if (count <= 0) {
+            return;
+        }
+        if (n > 0) {
+            System.arraycopy(rows, top, spare, 0, count);
+            System.arraycopy(rows, top + count, rows, top, height - count);
+            System.arraycopy(spare, 0, rows, bottom - count, count);
+        } else {
+            System.arraycopy(rows, bottom - count, spare, 0, count);
+            System.arraycopy(rows, top, rows, top + count, height - count);
+            System.arraycopy(spare, 0, rows, top, count);
+        }
+    }
+
+    /**
+     * The whole screen may have changed, eg. a restored snapshot
+     */
+    void invalidateAll() {
+        for (Row r : rows) {
+            r.stale = true;
+        }
+    }
+
+    // Queries
+
+    /**
+     * @return the visible screen divided into protected and unprotected runs, row by
+     * row, left to right - as ScreenSnapshot.fieldLayout() but without copying the screen
+     */
+    public List<ScreenSnapshot.Field> layout() {
+        synchronized (terminal) {
+            List<ScreenSnapshot.Field> fields = new ArrayList<>();
+            for (int row = 0; row < terminal.visible_lines; row++) {
+                Row r = indexed(row);
+                for (int ix = 0; ix < r.count; ix++) {
+                    fields.add(field(row, r, ix));
+                }
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * @return the unprotected runs, where a form expects input, in screen order
+     */
+    public List<ScreenSnapshot.Field> unprotectedFields() {
+        synchronized (terminal) {
+            List<ScreenSnapshot.Field> fields = new ArrayList<>();
+            for (int row = 0; row < terminal.visible_lines; row++) {
+                Row r = indexed(row);
+                for (int ix = 0; ix < r.count; ix++) {
+                    if ((r.runs[ix] & 1) == 0) {
+                        fields.add(field(row, r, ix));
+                    }
+                }
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * @return whether any of the visible screen is protected, ie. a form is showing
+     */
+    public boolean hasProtected() {
+        synchronized (terminal) {
+            for (int row = 0; row < terminal.visible_lines; row++) {
+                Row r = indexed(row);
+                if (r.count > 1 || (r.runs[0] & 1) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return the run containing row, col
+     */
+    public ScreenSnapshot.Field fieldAt(int row, int col) {
+        synchronized (terminal) {
+            Row r = indexed(row);
+            return field(row, r, runIndex(r, col));
+        }
+    }
+
+    /**
+     * @return the first unprotected field starting after row, col, wrapping round to
+     * the top of the screen, or null if there is none
+     */
+    public ScreenSnapshot.Field nextUnprotected(int row, int col) {
+        synchronized (terminal) {
+            int lines = terminal.visible_lines;
+            for (int n = 0; n <= lines; n++) {
+                int y = (row + n) % lines;
+                Row r = indexed(y);
+                for (int ix = 0; ix < r.count; ix++) {
+                    int start = r.runs[ix] >>> 1;
+                    if ((r.runs[ix] & 1) == 0 && (n > 0 || start > col) && (n < lines || start <= col)) {
+                        return field(y, r, ix);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the last unprotected field starting before row, col, wrapping round to
+     * the bottom of the screen, or null if there is none
+     */
+    public ScreenSnapshot.Field previousUnprotected(int row, int col) {
+        synchronized (terminal) {
+            int lines = terminal.visible_lines;
+            for (int n = 0; n <= lines; n++) {
+                int y = ((row - n) % lines + lines) % lines;
+                Row r = indexed(y);
+                for (int ix = r.count - 1; ix >= 0; ix--) {
+                    int start = r.runs[ix] >>> 1;
+                    if ((r.runs[ix] & 1) == 0 && (n > 0 || start < col) && (n < lines || start >= col)) {
+                        return field(y, r, ix);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the characters of the field as they are now on the screen
+     */
+    public String text(ScreenSnapshot.Field field) {
+        synchronized (terminal) {
+            terminal.unpack();
+            Cell[] cells = terminal.display[field.row];
+            int end = Math.min(field.col + field.length, terminal.columns());
+            StringBuilder sb = new StringBuilder(field.length);
+            for (int col = field.col; col < end; col++) {
+                sb.append((char) (cells[col].charValue & 0xff));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @return the contents of every unprotected field, in screen order, without
+     * trailing spaces
+     */
+    public List<String> extract() {
+        synchronized (terminal) {
+            List<ScreenSnapshot.Field> fields = unprotectedFields();
+            List<String> values = new ArrayList<>(fields.size());
+            for (ScreenSnapshot.Field field : fields) {
+                String text = text(field);
+                int end = text.length();
+                while (end > 0 && text.charAt(end - 1) == ' ') {
+                    end--;
+                }
+                values.add(text.substring(0, end));
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Build the keystrokes that fill in a form in one go - each value, cut to the length
+     * of its field, followed by the separator (eg. NL or Tab, whatever the host program
+     * takes as the end of a field).
+     *
+     * @param values for the unprotected fields at and after the cursor, in screen order
+     * @return the bytes to send to the host
+     */
+    public byte[] submission(List<String> values, byte[] separator) {
+        synchronized (terminal) {
+            List<ScreenSnapshot.Field> fields = unprotectedFields();
+            // start with the field the cursor is in, or the next one
+            int first = 0;
+            while (first < fields.size() && before(fields.get(first), terminal.cursorY, terminal.cursorX)) {
+                first++;
+            }
+            ByteArrayOutputStream keys = new ByteArrayOutputStream();
+            for (int ix = 0; ix < values.size(); ix++) {
+                byte[] value = values.get(ix).getBytes(StandardCharsets.ISO_8859_1);
+                int length = first + ix < fields.size() ? fields.get(first + ix).length : value.length;
+                keys.write(value, 0, Math.min(value.length, length));
+                keys.write(separator, 0, separator.length);
+            }
+            return keys.toByteArray();
+        }
+    }
+
+    /**
+     * @return the DASHER cursor keys that take the cursor from where it is now to
+     * row, col - which is how Tab moves between fields
+     */
+    public byte[] cursorKeysTo(int row, int col) {
+        synchronized (terminal) {
+            int dy = row - terminal.cursorY, dx = col - terminal.cursorX;
+            byte[] keys = new byte[Math.abs(dy) + Math.abs(dx)];
+            Arrays.fill(keys, 0, Math.abs(dy), dy < 0 ? Terminal.CURSOR_UP : Terminal.CURSOR_DOWN);
+            Arrays.fill(keys, Math.abs(dy), keys.length, dx < 0 ? Terminal.CURSOR_LEFT : Terminal.CURSOR_RIGHT);
+            return keys;
+        }
+    }
+
+    /**
+     * @return how many times a row has been rescanned, for tests and benchmarks
+     */
+    public long getRescans() {
+        synchronized (terminal) {
+            return rescans;
+        }
+    }
+
+    private static boolean before(ScreenSnapshot.Field field, int row, int col) {
+        return field.row < row || (field.row == row && field.col + field.length <= col);
+    }
+
+    private ScreenSnapshot.Field field(int row, Row r, int ix) {
+        int start = r.runs[ix] >>> 1;
+        int end = ix + 1 < r.count ? r.runs[ix + 1] >>> 1 : r.cols;
+        return new ScreenSnapshot.Field(row, start, end - start, (r.runs[ix] & 1) != 0);
+    }
+
+    private static int runIndex(Row r, int col) {
+        int lo = 0, hi = r.count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (r.runs[mid] >>> 1 <= col) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the row's runs, rescanning it if they may be out of date
+     */
+    private Row indexed(int row) {
+        Row r = rows[row];
+        int cols = terminal.columns();
+        if (!r.stale && r.cols == cols) {
+            return r;
+        }
+        terminal.unpack();
+        Cell[] cells = terminal.display[row];
+        r.count = 0;
+        boolean protect = false;
+        for (int col = 0; col < cols; col++) {
+            if (col == 0 || cells[col].protect != protect) {
+                protect = cells[col].protect;
+                if (r.count == r.runs.length) {
+                    r.runs = Arrays.copyOf(r.runs, r.count * 2);
+                }
+                r.runs[r.count++] = (col << 1) | (protect ? 1 : 0);
+            }
+        }
+        r.cols = cols;
+        r.stale = false;
+        rescans++;
+        return r;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Writes each printed screen as a text file in a spool directory, for collection by
+ * another program or a real print queue.
+ *
+ * Files are named print-yyyyMMdd-HHmmss-n.txt and appear atomically - they are written
+ * under a .tmp name and then renamed.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class FileSpoolSink implements PrintSink {
+
+    private final File spoolDir;
+    private final SimpleDateFormat stampFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+    private int sequence;
+
+    public FileSpoolSink(File spoolDir) {
+        this.spoolDir = spoolDir;
+    }
+
+    public File getSpoolDirectory() {
+        return spoolDir;
+    }
+
+    @Override
+    public boolean printScreen(ScreenSnapshot screen) {
+        String name = "print-" + stampFormat.format(new Date(screen.getTakenAt())) + "-" + (++sequence);
+        Path tmp = new File(spoolDir, name + ".tmp").toPath();
+        try {
+            Files.write(tmp, screen.toText().getBytes(StandardCharsets.ISO_8859_1));
+            Files.move(tmp, new File(spoolDir, name + ".txt").toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
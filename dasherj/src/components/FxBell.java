@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import javafx.scene.media.AudioClip;
+
+/**
+ * The JavaFX bell - plays the short beep sound.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced (beep moved out of Terminal)
+ *         Load the clip on a background thread so it does not hold up startup
+ *         Load it only once, all sessions share it
+ */
+public class FxBell implements BellSink {
+
+    private static final String BEEP_WAV = "/resources/ShortBeep.wav";
+
+    private static volatile AudioClip beepAudioClip;
+    private static boolean loading;
+
+    public FxBell() {
+        preload();
+    }
+
+    /**
+     * Start loading the beep on a background thread, the first call only - every
+     * session's FxBell plays the same clip
+     */
+    public static synchronized void preload() {
+        if (!loading) {
+            loading = true;
+            Thread loader = new Thread(() -> beepAudioClip = new AudioClip(FxBell.class.getResource(BEEP_WAV).toString()), "BellLoader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    @Override
+    public void bell() {
+        AudioClip clip = beepAudioClip;
+        if (clip != null) { // a bell in the first moments after startup is silent
+            clip.play();
+        }
+    }
+}
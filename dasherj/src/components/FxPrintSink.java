@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import javafx.print.PrinterJob;
+
+/**
+ * The JavaFX printer for host-initiated Print Screen - prints the screen as vector text,
+ * with its attributes, on the default printer.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced (printing moved out of Terminal)
+ *         Print via ScreenPrintLayout
+ */
+public class FxPrintSink implements PrintSink {
+
+    @Override
+    public boolean printScreen(ScreenSnapshot screen) {
+        PrinterJob job = PrinterJob.createPrinterJob();
+        if (job == null) {
+            return false;
+        }
+        boolean ok = ScreenPrintLayout.print(job, screen);
+        if (ok) {
+            job.endJob();
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * HeadlessTerminal runs the DASHER emulation without any GUI, in a plain JVM with
+ * no JavaFX toolkit - for benchmarks, batch screen scraping and server-side use.
+ *
+ * Host data is fed in directly with process(), anything the emulator would send back
+ * to the host (eg. Read Model ID responses) appears on getToHostQ().
+ *
+ * Run from the command line it feeds a session recording (.djr) or a raw capture of
+ * host output through the emulator as fast as possible and prints the final screen...
+ *
+ *   java -cp dasherj.jar components.HeadlessTerminal [--lines=n] [--cols=n] file
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ *         Add expect()
+ */
+public class HeadlessTerminal {
+
+    private final Status status;
+    private final Terminal terminal;
+    private final BlockingQueue<Byte> fromHostQ, toHostQ, logQ;
+
+    public HeadlessTerminal(int lines, int cols, Status.EmulationType emulation) {
+        status = new Status();
+        status.emulation = emulation;
+        fromHostQ = new LinkedBlockingQueue<>();
+        toHostQ = new LinkedBlockingQueue<>();
+        logQ = new LinkedBlockingQueue<>();
+        terminal = new Terminal(status, fromHostQ, toHostQ, logQ);
+        terminal.resize(lines, cols);
+        terminal.clearScreen();
+    }
+
+    /**
+     * Process data from the host, on the caller's thread.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     */
+    public void process(byte[] buffer, int offset, int length) {
+        terminal.processHostBytes(buffer, offset, length, false);
+    }
+
+    /**
+     * Start a PrintSpooler writing host Print Screen requests to the given directory
+     *
+     * @param dir
+     */
+    public void spoolPrintsTo(File dir) {
+        PrintSpooler spooler = new PrintSpooler(new FileSpoolSink(dir), toHostQ);
+        Thread spoolerThread = new Thread(spooler, "PrintSpoolerThread");
+        spoolerThread.setDaemon(true);
+        spoolerThread.start();
+        terminal.setPrintSpooler(spooler);
+    }
+
+    public String screenText() {
+        return terminal.fetchDisplayAsString();
+    }
+
+    public int getCursorX() {
+        return terminal.cursorX;
+    }
+
+    public int getCursorY() {
+        return terminal.cursorY;
+    }
+
+    /**
+     * @return an Expect for scripting the terminal, keystrokes go to getToHostQ()
+     */
+    public Expect expect() {
+        return new Expect(terminal, toHostQ);
+    }
+
+    public Terminal getTerminal() {
+        return terminal;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the queue of responses the emulator has generated for the host
+     */
+    public BlockingQueue<Byte> getToHostQ() {
+        return toHostQ;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int lines = Terminal.DEFAULT_LINES, cols = Terminal.DEFAULT_COLS;
+        String fileName = null;
+        for (String arg : args) {
+            if (arg.startsWith("--lines=")) {
+                lines = Integer.parseInt(arg.substring(8));
+            } else if (arg.startsWith("--cols=")) {
+                cols = Integer.parseInt(arg.substring(7));
+            } else {
+                fileName = arg;
+            }
+        }
+        if (fileName == null) {
+            System.err.println("java -cp dasherj.jar components.HeadlessTerminal [--lines=n] [--cols=n] <recording.djr|raw capture>");
+            System.exit(1);
+        }
+
+        HeadlessTerminal ht = new HeadlessTerminal(lines, cols, Status.EmulationType.D210);
+        long bytes;
+        long start = System.nanoTime();
+        if (fileName.endsWith(".djr")) {
+            SessionPlayer player = new SessionPlayer(new File(fileName), ht.terminal, ht.status);
+            player.setSpeed(SessionPlayer.MAX_SPEED);
+            player.run();
+            bytes = new File(fileName).length();
+        } else {
+            byte[] data = Files.readAllBytes(new File(fileName).toPath());
+            ht.process(data, 0, data.length);
+            bytes = data.length;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.print(ht.screenText());
+        System.err.printf("HeadlessTerminal: %d bytes in %.1fms (%.1f MB/s)%n",
+                bytes, elapsed / 1e6, bytes / (elapsed / 1e9) / 1e6);
+    }
+}
@@ -16,7 +16,11 @@
  */
 package components;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * This class represents the terminal history which is used for scroll-back purposes.
@@ -25,44 +29,113 @@ import java.util.LinkedList;
  * 
  * v.1.2 - Class introduced
  *       - Remove unused import, increase history to 2000 lines
+ * v.1.3 - Iterate rather than index the LinkedList in fetchAllAsString()
+ *       - Add snapshot() for exporting
+ *       - Store lines packed, without their trailing blanks, and only allocate the
+ *         buffer when the first line arrives
+ *       - Count the lines added and hand out the latest packed lines, for
+ *         SessionCheckpoint, and take packed lines back when restoring
  */
 public class History {
     
     public static final int MAX_HISTORY_LINES = 2000;
     
     /**
-     * the buffer is a list of arrays of Cells...
+     * the buffer is a queue of packed lines, each the characters followed by their
+     * attributes (as per Cell.attributeBits()), trailing blank cells dropped...
      */
-    private final LinkedList<Cell[]> buffer;
+    private ArrayDeque<byte[]> buffer;
+    
+    /**
+     * how wide the lines were, blanks are put back to this width
+     */
+    private int width;
+    
+    /**
+     * every line ever added, including those since dropped off the top
+     */
+    private long linesAdded;
 
     public History() {
-        buffer = new LinkedList<>();
     }
     
     public void addLine( Cell[] cells ) {
+        if (buffer == null) {
+            buffer = new ArrayDeque<>();
+        }
         if (buffer.size() == MAX_HISTORY_LINES) {
-            buffer.remove();
+            buffer.poll();
+        }
+        width = cells.length;
+        int len = cells.length;
+        // cells beyond the visible columns that were never written hold NULs, they are blank too
+        while (len > 0 && (cells[len - 1].charValue == ' ' || cells[len - 1].charValue == 0) && cells[len - 1].attributeBits() == 0) {
+            len--;
         }
-        Cell[] cellLine = new Cell[Terminal.TOTAL_COLS];
-        for ( int c = 0; c < cells.length; c++ ) {
-            cellLine[c] = new Cell();
-            cellLine[c].copy(  cells[c] );
+        byte[] packed = new byte[len * 2];
+        for ( int c = 0; c < len; c++ ) {
+            packed[c] = cells[c].charValue;
+            packed[len + c] = cells[c].attributeBits();
         }
-        buffer.add( cellLine ); 
+        buffer.add( packed ); 
+        linesAdded++;
+    }
+    
+    /**
+     * Add a line as packed by addLine(), eg. from a SessionCheckpoint
+     * 
+     * @param lineWidth the width of the screen it came from
+     */
+    public void addPacked( byte[] packed, int lineWidth ) {
+        if (buffer == null) {
+            buffer = new ArrayDeque<>();
+        }
+        if (buffer.size() == MAX_HISTORY_LINES) {
+            buffer.poll();
+        }
+        width = lineWidth;
+        buffer.add( packed );
+        linesAdded++;
+    }
+    
+    public long getLinesAdded() {
+        return linesAdded;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @param since an earlier getLinesAdded()
+     * @return the packed lines added since then, oldest first - as many as are still
+     * held.  The arrays are shared, they are never changed once added.
+     */
+    public List<byte[]> linesSince( long since ) {
+        int count = (int) Math.min( linesAdded - since, lineCount() );
+        List<byte[]> lines = new ArrayList<>( count );
+        if (count > 0) {
+            Iterator<byte[]> newest = buffer.descendingIterator();
+            for (int ix = 0; ix < count; ix++) {
+                lines.add( newest.next() );
+            }
+            Collections.reverse( lines );
+        }
+        return lines;
     }
     
     public int lineCount() {
-        return buffer.size();
+        return buffer == null ? 0 : buffer.size();
     }
     
     public String fetchAllAsString() {
         String text = "(History Empty)";
+        if (buffer == null) return text;
         StringBuilder builder = new StringBuilder( 1000 );
-        Cell[] lineOfCells;
-        for (int l = 0; l < buffer.size(); l++) {
-            lineOfCells = buffer.get( l );
-            for( Cell cell : lineOfCells ) {
-                builder.append( (char) cell.charValue );
+        for (byte[] packed : buffer) {
+            int len = packed.length / 2;
+            for (int c = 0; c < width; c++) {
+                builder.append( c < len ? (char) packed[c] : ' ' );
             }
             builder.append( "\n" );
         }
@@ -70,4 +143,25 @@ public class History {
         return text;
     }
     
+    /**
+     * @param cols how many columns of each line to include
+     * @return an immutable copy of the history, oldest line first
+     */
+    public ScreenSnapshot snapshot( int cols ) {
+        int lines = lineCount();
+        byte[] chars = new byte[lines * cols];
+        byte[] attrs = new byte[lines * cols];
+        if (buffer != null) {
+            int ix = 0;
+            for (byte[] packed : buffer) {
+                int len = packed.length / 2;
+                for (int c = 0; c < cols; c++) {
+                    chars[ix] = c < len ? packed[c] : (byte) ' ';
+                    attrs[ix++] = c < len ? packed[len + c] : 0;
+                }
+            }
+        }
+        return new ScreenSnapshot( lines, cols, 0, 0, chars, attrs );
+    }
+    
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * HostStreamSynth generates realistic DASHER host output for load testing.
+ *
+ * A few seconds' worth of output is synthesised up-front (from a fixed seed, so every
+ * run is identical) and then streamed repeatedly at the requested rate through the
+ * off-line LocalClient path - ie. into fromKbdQ, exactly as the self-test does.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class HostStreamSynth implements Runnable {
+
+    public enum Pattern {
+        SCROLLING_LISTING("Scrolling listing"),
+        FORM_REPAINT("Form repaint"),
+        ATTRIBUTE_TOGGLING("Attribute toggling"),
+        ERASE_EOL_STORM("Erase EOL storm"),
+        MIXED("Mixed");
+
+        private final String description;
+
+        Pattern(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    public static final int UNLIMITED = 0;
+
+    private static final int STREAM_SIZE = 1024 * 1024;
+    /**
+     * don't let the emulator fall more than this far behind, or the queues would grow
+     * without limit at UNLIMITED rate
+     */
+    private static final int MAX_BACKLOG = 64 * 1024;
+    private static final int SLICE_MS = 10;
+
+    private final byte[] stream;
+    private final int bytesPerSecond;
+    private final long durationMs;
+    private final BlockingQueue<Byte> fromKbdQ, fromHostQ;
+
+    private volatile boolean stopped;
+    private volatile long bytesSent;
+
+    /**
+     * @param pattern
+     * @param bytesPerSecond or UNLIMITED
+     * @param durationMs how long to run for
+     * @param lines the visible screen size
+     * @param cols
+     * @param fromKbdQ where the data is sent (LocalClient echoes it to fromHostQ)
+     * @param fromHostQ only used to monitor the emulator's backlog
+     */
+    public HostStreamSynth(Pattern pattern, int bytesPerSecond, long durationMs, int lines, int cols,
+            BlockingQueue<Byte> fromKbdQ, BlockingQueue<Byte> fromHostQ) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.durationMs = durationMs;
+        this.fromKbdQ = fromKbdQ;
+        this.fromHostQ = fromHostQ;
+        stream = generate(pattern, STREAM_SIZE, lines, cols);
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        long sent = 0;
+        int pos = 0;
+        int sliceBytes = bytesPerSecond == UNLIMITED ? 4096 : Math.max(1, bytesPerSecond * SLICE_MS / 1000);
+        try {
+            while (!stopped) {
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed >= durationMs) {
+                    break;
+                }
+                if (bytesPerSecond != UNLIMITED) {
+                    long due = (long) bytesPerSecond * elapsed / 1000;
+                    if (sent >= due) {
+                        Thread.sleep(SLICE_MS);
+                        continue;
+                    }
+                }
+                if (fromHostQ.size() + fromKbdQ.size() > MAX_BACKLOG) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                for (int ix = 0; ix < sliceBytes; ix++) {
+                    fromKbdQ.offer(stream[pos]);
+                    if (++pos == stream.length) {
+                        pos = 0;
+                    }
+                }
+                sent += sliceBytes;
+                bytesSent = sent;
+            }
+        } catch (InterruptedException ie) {
+            // stopped
+        }
+    }
+
+    /**
+     * Synthesise host output
+     *
+     * @param pattern
+     * @param size number of bytes required
+     * @param lines visible screen size
+     * @param cols
+     * @return exactly size bytes of DASHER output
+     */
+    public static byte[] generate(Pattern pattern, int size, int lines, int cols) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 1024);
+        Random rnd = new Random(1949); // fixed seed - every run sees the same stream
+        int unit = 0;
+        while (out.size() < size) {
+            Pattern p = pattern == Pattern.MIXED ? Pattern.values()[rnd.nextInt(Pattern.MIXED.ordinal())] : pattern;
+            switch (p) {
+                case SCROLLING_LISTING:
+                    text(out, String.format("%-12s %-8s %10d  %02d-%s-16 %02d:%02d:%02d",
+                            "FILE" + rnd.nextInt(10000), rnd.nextBoolean() ? ".CLI" : ".PR", rnd.nextInt(10000000),
+                            1 + rnd.nextInt(28), MONTHS[rnd.nextInt(12)], rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(60)));
+                    out.write(Terminal.NL);
+                    break;
+                case FORM_REPAINT:
+                    int row = 1 + unit % (lines - 2);
+                    if (row == 1) {
+                        out.write(Terminal.ERASE_WINDOW);
+                    }
+                    address(out, 2, row);
+                    out.write(Terminal.DIM_ON);
+                    text(out, String.format("%-16s", "Field " + row + ":"));
+                    out.write(Terminal.DIM_OFF);
+                    // values are painted a few characters at a time, as screen editors do
+                    for (int col = 20; col < Math.min(cols - 8, 60); col += 8) {
+                        address(out, col, row);
+                        out.write(Terminal.UNDERSCORE_ON);
+                        text(out, String.format("%-8s", Integer.toString(rnd.nextInt(100000000), 36)));
+                        out.write(Terminal.UNDERSCORE_OFF);
+                    }
+                    break;
+                case ATTRIBUTE_TOGGLING:
+                    for (int word = 0; word < 8; word++) {
+                        byte[] on = ATTRIBUTES_ON[rnd.nextInt(ATTRIBUTES_ON.length)];
+                        out.write(on, 0, on.length);
+                        text(out, WORDS[rnd.nextInt(WORDS.length)]);
+                        byte[] off = ATTRIBUTES_OFF[rnd.nextInt(ATTRIBUTES_OFF.length)];
+                        out.write(off, 0, off.length);
+                        out.write(Terminal.SPACE);
+                    }
+                    out.write(Terminal.NL);
+                    break;
+                case ERASE_EOL_STORM:
+                    address(out, rnd.nextInt(cols / 2), rnd.nextInt(lines));
+                    text(out, WORDS[rnd.nextInt(WORDS.length)]);
+                    out.write(Terminal.ERASE_EOL);
+                    break;
+                default:
+                    break;
+            }
+            unit++;
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(out.toByteArray(), 0, result, 0, size);
+        return result;
+    }
+
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] WORDS = {"AOS/VS", "ECLIPSE", "MV/8000", "DASHER", "CLI", "SED", "BROWSE",
+        "ERROR", "WARNING", "OK", "READY", "PID", "QUEUE", "PRINTER", "TERMINAL"};
+    private static final byte[][] ATTRIBUTES_ON = {{Terminal.DIM_ON}, {Terminal.UNDERSCORE_ON}, {Terminal.BLINK_ON},
+        {Terminal.CMD, 'D'}, {}};
+    private static final byte[][] ATTRIBUTES_OFF = {{Terminal.DIM_OFF}, {Terminal.UNDERSCORE_OFF}, {Terminal.BLINK_OFF},
+        {Terminal.CMD, 'E'}, {}};
+
+    private static void address(ByteArrayOutputStream out, int col, int row) {
+        out.write(Terminal.WRITE_WINDOW_ADDR);
+        out.write(col);
+        out.write(row);
+    }
+
+    private static void text(ByteArrayOutputStream out, String s) {
+        for (int ix = 0; ix < s.length(); ix++) {
+            out.write(s.charAt(ix));
+        }
+    }
+}
@@ -14,6 +14,9 @@ import javafx.scene.input.KeyEvent;
  *
  * @author steve
  *
+ * v. 1.3 - Tell DasherMetrics when keys are sent
+ *          Alt-Left/Right/Home pan the view when horizontal scrolling is enabled
+ *          Tab/Shift-Tab move between unprotected fields if Status.fieldTabbing is set
  * v. 0.9 - Map PC Alt-Gr to DASHER CMD 
  *          Refix sending of NewLines 
  * v. 0.7 - Handle real function keys 
@@ -22,13 +25,23 @@ import javafx.scene.input.KeyEvent;
  */
 public class KeyboardHandler implements EventHandler<KeyEvent> {
 
+    /**
+     * columns panned by each Alt-Left or Alt-Right
+     */
+    static final int PAN_COLS = 8;
+
     BlockingQueue<Byte> lFromKbdQ;
     Status status;
+    DasherMetrics metrics;
+    Terminal terminal;
     private int modifier;
+    private boolean sent;
 
-    public KeyboardHandler(BlockingQueue<Byte> fromKbdQ, Status pStatus) {
+    public KeyboardHandler(BlockingQueue<Byte> fromKbdQ, Status pStatus, DasherMetrics pMetrics, Terminal pTerminal) {
         lFromKbdQ = fromKbdQ;
         status = pStatus;
+        metrics = pMetrics;
+        terminal = pTerminal;
         modifier = 0;
     }
 
@@ -36,6 +49,7 @@ public class KeyboardHandler implements EventHandler<KeyEvent> {
     public void handle(KeyEvent kev) {
 
         // System.out.println( "Debug - KeyboardHandler triggered" );
+        sent = false;
         if (kev.getEventType() == KeyEvent.KEY_PRESSED) {
             keyPressed(kev);
         } else if (kev.getEventType() == KeyEvent.KEY_RELEASED) {
@@ -44,10 +58,19 @@ public class KeyboardHandler implements EventHandler<KeyEvent> {
             keyTyped(kev);
         }
 
+        if (sent) {
+            metrics.keySent();
+        }
+
         kev.consume();
         // return true;  // no further action required
     }
 
+    private void send(byte b) {
+        lFromKbdQ.offer(b);
+        sent = true;
+    }
+
     private void keyPressed(KeyEvent kEv) {
 
         if (kEv.isControlDown()) {
@@ -71,50 +94,61 @@ public class KeyboardHandler implements EventHandler<KeyEvent> {
     private void keyReleased(KeyEvent ke) {
 
         KeyCode kc = ke.getCode();
+
+        // Alt-cursor keys pan the view locally, nothing goes to the host
+        if (ke.isAltDown() && (kc == KeyCode.LEFT || kc == KeyCode.RIGHT || kc == KeyCode.HOME)) {
+            if (kc == KeyCode.HOME) {
+                terminal.panHorizontally(-Terminal.TOTAL_COLS);
+            } else {
+                terminal.panHorizontally(kc == KeyCode.LEFT ? -PAN_COLS : PAN_COLS);
+            }
+            return;
+        }
+
         switch (kc) {
             /*case ESCAPE:
-			lFromKbdQ.offer( (byte) 30 );
+			send( (byte) 30 );
 			break;*/
             // cursor keys
             case DOWN:
                 if (status.shift_pressed) {
-                    lFromKbdQ.offer((byte) 30);
+                    send((byte) 30);
                 }
-                lFromKbdQ.offer((byte) 26);
+                send((byte) 26);
                 break;
             case END:
-                lFromKbdQ.offer((byte) 30);	// Shift C3 on Dasher
-                lFromKbdQ.offer((byte) 90);
+                send((byte) 30);	// Shift C3 on Dasher
+                send((byte) 90);
                 break;
             case HOME:
-                lFromKbdQ.offer((byte) 30);	// Shift C1 on Dasher
-                lFromKbdQ.offer((byte) 88);
+                send((byte) 30);	// Shift C1 on Dasher
+                send((byte) 88);
                 break;
             case LEFT:
                 if (status.shift_pressed) {
-                    lFromKbdQ.offer((byte) 30);
+                    send((byte) 30);
                 }
-                lFromKbdQ.offer((byte) 25);
+                send((byte) 25);
                 break;
             case PAGE_DOWN:
-                lFromKbdQ.offer((byte) 30);	// Shift C4 on Dasher
-                lFromKbdQ.offer((byte) 91);
+                send((byte) 30);	// Shift C4 on Dasher
+                send((byte) 91);
                 break;
             case PAGE_UP:
-                lFromKbdQ.offer((byte) 30);	// Shift C2 on Dasher
-                lFromKbdQ.offer((byte) 89);
+                send((byte) 30);	// Shift C2 on Dasher
+                send((byte) 89);
                 break;
             case RIGHT:
                 if (status.shift_pressed) {
-                    lFromKbdQ.offer((byte) 30);
+                    send((byte) 30);
                 }
-                lFromKbdQ.offer((byte) 24);
+                send((byte) 24);
                 break;
             case UP:
                 if (status.shift_pressed) {
-                    lFromKbdQ.offer((byte) 30);
+                    send((byte) 30);
                 }
-                lFromKbdQ.offer((byte) 23);
+                send((byte) 23);
                 break;
             // modifiers
             case CONTROL:
@@ -125,12 +159,12 @@ public class KeyboardHandler implements EventHandler<KeyEvent> {
                 break;
             // ENTER also results in a KeyTyped event, ignore it here
 //		case ENTER:
-//			lFromKbdQ.offer( (byte) 10 );
+//			send( (byte) 10 );
 //			break;
 
             // Function and emulated keys...	
             case CLEAR:
-                lFromKbdQ.offer((byte) 12);
+                send((byte) 12);
                 break;
             case PAUSE:  // Dasher: HOLD
                 status.holding = !status.holding;
@@ -142,76 +176,76 @@ public class KeyboardHandler implements EventHandler<KeyEvent> {
                 }
                 break;
             case ALT_GRAPH: // We are mapping Alt Gr to DASHER CMD
-                lFromKbdQ.offer((byte) 30);
+                send((byte) 30);
                 break;
             case F16: // Dummy value for Break button
-                lFromKbdQ.offer((byte) 2); // special CMD_BREAK indicator
+                send((byte) 2); // special CMD_BREAK indicator
                 break;
             case F24: // Dummy value for CR button
-                lFromKbdQ.offer((byte) 13);
+                send((byte) 13);
                 break;
             case F23: // Dummy value for Er EOL button
-                lFromKbdQ.offer((byte) 11);
+                send((byte) 11);
                 break;
             case F1:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (113 + modifier));
+                send((byte) 30);
+                send((byte) (113 + modifier));
                 break;
             case F2:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (114 + modifier));
+                send((byte) 30);
+                send((byte) (114 + modifier));
                 break;
             case F3:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (115 + modifier));
+                send((byte) 30);
+                send((byte) (115 + modifier));
                 break;
             case F4:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (116 + modifier));
+                send((byte) 30);
+                send((byte) (116 + modifier));
                 break;
             case F5:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (117 + modifier));
+                send((byte) 30);
+                send((byte) (117 + modifier));
                 break;
             case F6:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (118 + modifier));
+                send((byte) 30);
+                send((byte) (118 + modifier));
                 break;
             case F7:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (119 + modifier));
+                send((byte) 30);
+                send((byte) (119 + modifier));
                 break;
             case F8:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (120 + modifier));
+                send((byte) 30);
+                send((byte) (120 + modifier));
                 break;
             case F9:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (121 + modifier));
+                send((byte) 30);
+                send((byte) (121 + modifier));
                 break;
             case F10:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (122 + modifier));
+                send((byte) 30);
+                send((byte) (122 + modifier));
                 break;
             case F11:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (123 + modifier));
+                send((byte) 30);
+                send((byte) (123 + modifier));
                 break;
             case F12:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (124 + modifier));
+                send((byte) 30);
+                send((byte) (124 + modifier));
                 break;
             case F13:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (125 + modifier));
+                send((byte) 30);
+                send((byte) (125 + modifier));
                 break;
             case F14:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (126 + modifier));
+                send((byte) 30);
+                send((byte) (126 + modifier));
                 break;
             case F15:
-                lFromKbdQ.offer((byte) 30);
-                lFromKbdQ.offer((byte) (112 + modifier));
+                send((byte) 30);
+                send((byte) (112 + modifier));
                 break;
 
             default:
@@ -222,7 +256,36 @@ public class KeyboardHandler implements EventHandler<KeyEvent> {
 
     private void keyTyped(KeyEvent ke) {
         char c = ke.getCharacter().charAt(0);
-        lFromKbdQ.offer((byte) c);
+        if (c == '\t' && status.fieldTabbing && tabToField(!ke.isShiftDown())) {
+            return;
+        }
+        send((byte) c);
+    }
+
+    /**
+     * Move the cursor to the next (or previous) unprotected field with the cursor keys,
+     * as a DASHER operator would
+     *
+     * @return false if there is no form on the screen, so Tab should go to the host
+     */
+    private boolean tabToField(boolean forward) {
+        FieldIndex fields = terminal.fields;
+        if (!fields.hasProtected()) {
+            return false;
+        }
+        int[] cursor;
+        synchronized (terminal) {
+            cursor = new int[] { terminal.cursorX, terminal.cursorY };
+        }
+        ScreenSnapshot.Field field = forward ? fields.nextUnprotected(cursor[1], cursor[0])
+                                             : fields.previousUnprotected(cursor[1], cursor[0]);
+        if (field == null) {
+            return false;
+        }
+        for (byte b : fields.cursorKeysTo(field.row, field.col)) {
+            send(b);
+        }
+        return true;
     }
 
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * A fixed-size, log-linear histogram of latencies in nanoseconds.
+ *
+ * Values below SUB_BUCKETS are counted exactly, above that each power of two is split
+ * into SUB_BUCKETS/2 equal buckets, so any recorded value is reported to within 1%.
+ * Values over MAX_NANOS (about 18 minutes) are counted in the top bucket.  The buckets
+ * are only allocated by the first recording, after that recording never allocates.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ *         Allocate the buckets lazily, most sessions of a ScreenFarm never record
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF_BUCKETS = SUB_BUCKETS / 2;
+    static final long MAX_NANOS = (1L << 40) - 1;
+
+    private static final int BUCKETS = indexOf(MAX_NANOS) + 1;
+
+    private long[] counts;
+    private long count, sum, max;
+
+    private static int indexOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - (SUB_BITS - 1);
+        return shift * HALF_BUCKETS + (int) (nanos >>> shift);
+    }
+
+    private static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_BUCKETS - 1;
+        return (long) (index - shift * HALF_BUCKETS) << shift;
+    }
+
+    private static long highestValueAt(int index) {
+        return lowestValueAt(index + 1) - 1;
+    }
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        } else if (nanos > MAX_NANOS) {
+            nanos = MAX_NANOS;
+        }
+        if (counts == null) {
+            counts = new long[BUCKETS];
+        }
+        counts[indexOf(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMaxNanos() {
+        return max;
+    }
+
+    public synchronized double getMeanNanos() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile 0.0 - 100.0
+     * @return the highest value equivalent to the recorded value at the given
+     * percentile, or 0 if nothing has been recorded
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int ix = 0; ix < counts.length; ix++) {
+            seen += counts[ix];
+            if (seen >= target) {
+                return Math.min(highestValueAt(ix), max);
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        if (counts != null) {
+            Arrays.fill(counts, 0);
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Write one CSV line per non-empty bucket - label, from (ms), to (ms), count
+     *
+     * @param label
+     * @param pw
+     */
+    public synchronized void writeBuckets(String label, PrintWriter pw) {
+        if (counts == null) {
+            return;
+        }
+        for (int ix = 0; ix < counts.length; ix++) {
+            if (counts[ix] != 0) {
+                pw.printf("%s,%.4f,%.4f,%d%n", label, lowestValueAt(ix) / 1e6, highestValueAt(ix) / 1e6, counts[ix]);
+            }
+        }
+    }
+}
@@ -2,6 +2,14 @@ package components;
 
 import java.util.concurrent.BlockingQueue;
 
+/**
+ * LocalClient echoes keyboard data back to the Terminal while the session is off-line.
+ * 
+ * It runs for the life of the session; going on-line parks it rather than ending it,
+ * so that disconnecting does not need a new thread.
+ * 
+ * v.1.3 Add pause() and resume() in place of restarting the client
+ */
 public class LocalClient implements Runnable {
 	
 	public static final byte GO_ONLINE = (byte) -1;
@@ -9,11 +17,34 @@ public class LocalClient implements Runnable {
 	// the shared queues
 	private BlockingQueue<Byte> fromHostQ, fromKeybdQ;
 	
+	private boolean online, parked;
+	
 	public LocalClient( BlockingQueue<Byte> fromHostQ, BlockingQueue<Byte> fromKeybdQ ) {
 		this.fromHostQ = fromHostQ;
 		this.fromKeybdQ = fromKeybdQ;
 	}
-
+	
+	/**
+	 * Stop echoing and wait until the client has let go of the keyboard queue, so
+	 * that the transport's writer is the only reader of it.
+	 */
+	public synchronized void pause() throws InterruptedException {
+		if (online) return;
+		online = true;
+		fromKeybdQ.offer( GO_ONLINE );
+		long deadline = System.currentTimeMillis() + SessionLifecycle.JOIN_MS;
+		while (!parked && System.currentTimeMillis() < deadline) {
+			wait( SessionLifecycle.JOIN_MS );
+		}
+	}
+	
+	/**
+	 * Start echoing again, the transport's writer must already have stopped
+	 */
+	public synchronized void resume() {
+		online = false;
+		notifyAll();
+	}
 	
 	@Override
 	public void run() {
@@ -25,13 +56,28 @@ public class LocalClient implements Runnable {
 				b = fromKeybdQ.take();
 				//fromHostQ.offer( fromKeybdQ.take() );
 				if (b == GO_ONLINE) {
-					System.out.printf( "LocalClient (Off-line) stopping at request\n");
-					return;
+					synchronized (this) {
+						if (online) {
+							System.out.printf( "LocalClient (Off-line) pausing at request\n");
+							parked = true;
+							notifyAll();
+							while (online) {
+								wait();
+							}
+							parked = false;
+							System.out.printf( "LocalClient (Off-line) resuming\n");
+						}
+					}
 				} else {
 					fromHostQ.offer( b );
 				}
 			} catch (InterruptedException e) {
 				System.out.printf( "LocalClient (Off-line) thread closing,\n" );
+				synchronized (this) {
+					// don't leave pause() waiting for us
+					parked = true;
+					notifyAll();
+				}
 				return;
 			}
 		}
@@ -5,14 +5,20 @@ package components;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 /**
  * @author Stephen Merrony
  *
+ * v.1.3 - Emit LogWriteEvent and LogFlushEvent for JFR
+ *         Append whatever has queued up in one batch
  */
 public class LogWriter implements Runnable {
 	
+	static final int BATCH_SIZE = 4096;
+	
 	BufferedWriter logWriter;
 	BlockingQueue<Byte> logQ;
 	
@@ -24,26 +30,41 @@ public class LogWriter implements Runnable {
 	@Override
 	public void run() {
 		
-		Byte ch = 0;
+		List<Byte> batch = new ArrayList<>( BATCH_SIZE );
 		
 		while(true) {
 			try {
-				ch = logQ.take();
+				batch.add( logQ.take() );
 			} catch (InterruptedException e) {
 				try {
+					LogFlushEvent flushEvent = new LogFlushEvent();
+					flushEvent.begin();
 					logWriter.flush();
+					flushEvent.end();
+					flushEvent.commit();
 					logWriter.close();
 				} catch (IOException e1) {
 					e1.printStackTrace();
 				}
 				return;
 			}
+			logQ.drainTo( batch, BATCH_SIZE - 1 );
 			
 			try {
-				logWriter.append( (char) (ch & 0xff) );
+				LogWriteEvent writeEvent = new LogWriteEvent();
+				writeEvent.begin();
+				for (Byte ch : batch) {
+					logWriter.append( (char) (ch & 0xff) );
+				}
+				writeEvent.end();
+				if (writeEvent.shouldCommit()) {
+					writeEvent.bytes = batch.size();
+					writeEvent.commit();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			batch.clear();
 		}
 		
 	}
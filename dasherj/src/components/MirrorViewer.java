@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * MirrorViewer shows the screen of another session served by a ScreenMirror in a
+ * local Terminal, read-only.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class MirrorViewer implements Runnable {
+
+    private final Terminal terminal;
+    private final int port;
+    private volatile Socket sock;
+    private volatile boolean closed;
+    private long framesReceived;
+
+    private byte[] payload = new byte[0];
+    private int[] rows = new int[0];
+
+    /**
+     * @param terminal where the mirrored screen is shown, nothing else should be feeding it
+     * @param port the loopback port of the ScreenMirror
+     */
+    public MirrorViewer(Terminal terminal, int port) {
+        this.terminal = terminal;
+        this.port = port;
+    }
+
+    public synchronized long getFramesReceived() {
+        return framesReceived;
+    }
+
+    @Override
+    public void run() {
+        try {
+            sock = new Socket(InetAddress.getLoopbackAddress(), port);
+            if (closed) {
+                sock.close();
+                return;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(sock.getInputStream(), 16 * 1024));
+            while (true) {
+                byte type = in.readByte();
+                int length = in.readInt();
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+                apply(type, length);
+                synchronized (this) {
+                    framesReceived++;
+                }
+            }
+        } catch (EOFException eof) {
+            System.out.println("MirrorViewer: Mirror closed");
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            if (sock != null) {
+                sock.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void apply(byte type, int length) throws IOException {
+        switch (type) {
+            case ScreenMirror.MSG_SCREEN: {
+                int lines = getShort(0), cols = getShort(2);
+                terminal.mirror(lines, cols, (short) getShort(4), getShort(6), null, lines, payload, 8, cols * 2);
+                break;
+            }
+            case ScreenMirror.MSG_ROWS: {
+                int count = getShort(4);
+                if (count == 0) {
+                    terminal.mirror(-1, -1, (short) getShort(0), getShort(2), null, 0, payload, 6, 0);
+                    break;
+                }
+                int cols = ((length - 6) / count - 2) / 2;
+                if (rows.length < count) {
+                    rows = new int[count];
+                }
+                // the row numbers are interleaved with the rows, pull them out
+                for (int ix = 0; ix < count; ix++) {
+                    rows[ix] = getShort(6 + ix * (2 + cols * 2));
+                }
+                terminal.mirror(-1, cols, (short) getShort(0), getShort(2), rows, count, payload, 6 + 2, 2 + cols * 2);
+                break;
+            }
+            default:
+                throw new IOException("Unknown screen mirror message " + type);
+        }
+    }
+
+    /**
+     * @return an unsigned short from the payload, cast it for the signed cursor column
+     * (negative when the mirrored view is panned right of the cursor)
+     */
+    private int getShort(int offset) {
+        return ((payload[offset] & 0xff) << 8) | (payload[offset + 1] & 0xff);
+    }
+}
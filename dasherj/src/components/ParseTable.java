@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+/**
+ * The DASHER host data parser as a set of tables.  For every parser state and every
+ * byte the host might send there is one packed entry giving the action to take, the
+ * state to move to and whether the byte goes to the session log - so Terminal does a
+ * single array lookup per byte and a switch on the action, with no tests of emulation
+ * level or half-way-through-a-command flags.
+ *
+ * One table is built for each emulation level when the class is loaded, adding a
+ * level's commands is a matter of adding entries in build().
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced, replacing the chain of flags and level checks in
+ *         Terminal.processHostByte()
+ *         Add D210 Protect On/Off
+ */
+final class ParseTable {
+
+    /**
+     * Parser states - a table has 256 entries per state
+     */
+    static final int GROUND = 0,
+            WINDOW_ADDR_X = 1, // WRITE_WINDOW_ADDR seen, column next
+            WINDOW_ADDR_Y = 2, // column seen, row next
+            CMD = 3,           // CMD seen
+            CMD_F = 4,         // CMD F seen - D210 and up extended commands
+            SCROLL_RATE = 5,   // CMD F T seen, rate next - D400 and up
+            SCROLL_LEFT = 6,   // CMD F C seen, column count next - D400 and up
+            SCROLL_RIGHT = 7,  // CMD F D seen, column count next - D400 and up
+            STATES = 8;
+
+    /**
+     * Actions - kept dense so that Terminal's switch compiles to a jump table
+     */
+    static final int PRINT = 0,
+            IGNORE = 1,
+            UNPRINTABLE = 2,
+            NEW_LINE = 3,
+            CARRIAGE_RETURN = 4,
+            BELL = 5,
+            BLINK_ENABLE = 6,
+            BLINK_DISABLE = 7,
+            BLINK_ON = 8,
+            BLINK_OFF = 9,
+            CURSOR_UP = 10,
+            CURSOR_DOWN = 11,
+            CURSOR_RIGHT = 12,
+            CURSOR_LEFT = 13,
+            DIM_ON = 14,
+            DIM_OFF = 15,
+            HOME = 16,
+            ERASE_EOL = 17,
+            ERASE_WINDOW = 18,
+            PRINT_SCREEN = 19,
+            REVERSE_VIDEO_ON = 20,
+            REVERSE_VIDEO_OFF = 21,
+            ROLL_ENABLE = 22,
+            ROLL_DISABLE = 23,
+            READ_WINDOW_ADDR = 24,
+            UNDERSCORE_ON = 25,
+            UNDERSCORE_OFF = 26,
+            WINDOW_ADDR_X_VALUE = 27,
+            WINDOW_ADDR_Y_VALUE = 28,
+            READ_MODEL_ID = 29,
+            ERASE_UNPROTECTED = 30,
+            SCROLL_UP = 31,
+            SCROLL_DOWN = 32,
+            INSERT_CHAR = 33,
+            DELETE_CHAR = 34,
+            INSERT_LINE = 35,
+            DELETE_LINE = 36,
+            HSCROLL_ENABLE = 37,
+            HSCROLL_DISABLE = 38,
+            READ_HSCROLL_OFFSET = 39,
+            SCROLL_RATE_VALUE = 40,
+            SCROLL_LEFT_VALUE = 41,
+            SCROLL_RIGHT_VALUE = 42,
+            PROTECT_ON = 43,
+            PROTECT_OFF = 44;
+
+    /**
+     * Entry layout - action in the low byte, next state in the second, LOGGED flag above
+     */
+    static final int ACTION_MASK = 0xff, STATE_SHIFT = 8, STATE_MASK = 0xff, LOGGED = 1 << 16;
+
+    private static final int[][] TABLES = new int[Status.EmulationType.values().length][];
+
+    static {
+        for (Status.EmulationType em : Status.EmulationType.values()) {
+            TABLES[em.ordinal()] = build(em.getLevel());
+        }
+    }
+
+    private ParseTable() {
+    }
+
+    /**
+     * @param emulation
+     * @return the table for the emulation, indexed by (state << 8) | (byte & 0xff)
+     */
+    static int[] forEmulation(Status.EmulationType emulation) {
+        return TABLES[emulation.ordinal()];
+    }
+
+    private static int[] build(int level) {
+        int[] table = new int[STATES << 8];
+
+        // printable characters, anything unexpected in the middle of a command ends it
+        for (int ch = 0; ch < 256; ch++) {
+            set(table, GROUND, ch, ch < 128 ? PRINT : UNPRINTABLE, GROUND, true);
+            set(table, WINDOW_ADDR_X, ch, WINDOW_ADDR_X_VALUE, WINDOW_ADDR_Y, false);
+            set(table, WINDOW_ADDR_Y, ch, WINDOW_ADDR_Y_VALUE, GROUND, false);
+            set(table, CMD, ch, IGNORE, GROUND, true);
+            set(table, CMD_F, ch, IGNORE, GROUND, true);
+            set(table, SCROLL_RATE, ch, SCROLL_RATE_VALUE, GROUND, false);
+            set(table, SCROLL_LEFT, ch, SCROLL_LEFT_VALUE, GROUND, false);
+            set(table, SCROLL_RIGHT, ch, SCROLL_RIGHT_VALUE, GROUND, false);
+        }
+
+        // D200 single-byte controls - the rest (PRINT_FORM, TAB etc.) are displayed as they come
+        control(table, Terminal.NULL, IGNORE);
+        control(table, Terminal.NL, NEW_LINE);
+        control(table, Terminal.CR, CARRIAGE_RETURN);
+        control(table, Terminal.BELL, BELL);
+        control(table, Terminal.BLINK_ENABLE, BLINK_ENABLE);
+        control(table, Terminal.BLINK_DISABLE, BLINK_DISABLE);
+        control(table, Terminal.BLINK_ON, BLINK_ON);
+        control(table, Terminal.BLINK_OFF, BLINK_OFF);
+        control(table, Terminal.CURSOR_UP, CURSOR_UP);
+        control(table, Terminal.CURSOR_DOWN, CURSOR_DOWN);
+        control(table, Terminal.CURSOR_RIGHT, CURSOR_RIGHT);
+        control(table, Terminal.CURSOR_LEFT, CURSOR_LEFT);
+        control(table, Terminal.DIM_ON, DIM_ON);
+        control(table, Terminal.DIM_OFF, DIM_OFF);
+        control(table, Terminal.HOME, HOME);
+        control(table, Terminal.ERASE_EOL, ERASE_EOL);
+        control(table, Terminal.ERASE_WINDOW, ERASE_WINDOW);
+        // not supported on the D210
+        control(table, Terminal.PRINT_SCREEN, level == 210 ? IGNORE : PRINT_SCREEN);
+        control(table, Terminal.ROLL_ENABLE, ROLL_ENABLE);
+        control(table, Terminal.ROLL_DISABLE, ROLL_DISABLE);
+        control(table, Terminal.READ_WINDOW_ADDR, READ_WINDOW_ADDR);
+        control(table, Terminal.UNDERSCORE_ON, UNDERSCORE_ON);
+        control(table, Terminal.UNDERSCORE_OFF, UNDERSCORE_OFF);
+        set(table, GROUND, Terminal.WRITE_WINDOW_ADDR, IGNORE, WINDOW_ADDR_X, true);
+        set(table, GROUND, Terminal.CMD, IGNORE, CMD, true);
+
+        // D200 CMD commands
+        command(table, CMD, 'C', READ_MODEL_ID);
+        command(table, CMD, 'D', REVERSE_VIDEO_ON);
+        command(table, CMD, 'E', REVERSE_VIDEO_OFF);
+
+        if (level >= 210) {
+            control(table, Terminal.REVERSE_VIDEO_ON, REVERSE_VIDEO_ON);
+            control(table, Terminal.REVERSE_VIDEO_OFF, REVERSE_VIDEO_OFF);
+            // extended commands
+            set(table, CMD, 'F', IGNORE, CMD_F, true);
+            command(table, CMD_F, 'F', ERASE_UNPROTECTED);
+            command(table, CMD_F, 'L', PROTECT_ON);
+            command(table, CMD_F, 'M', PROTECT_OFF);
+        }
+
+        if (level >= 400) {
+            command(table, CMD, 'H', SCROLL_UP);
+            command(table, CMD, 'I', SCROLL_DOWN);
+            command(table, CMD, 'J', INSERT_CHAR);
+            command(table, CMD, 'K', DELETE_CHAR);
+            // margins are always the full line width, so the between-margins
+            // variants ('[' and '\\') are the same operations
+            command(table, CMD_F, 'H', INSERT_LINE);
+            command(table, CMD_F, '[', INSERT_LINE);
+            command(table, CMD_F, 'I', DELETE_LINE);
+            command(table, CMD_F, '\\', DELETE_LINE);
+            command(table, CMD_F, 'E', ERASE_WINDOW); // Erase screen
+            command(table, CMD_F, 'G', HOME);         // Screen home
+            command(table, CMD_F, '^', HSCROLL_ENABLE);
+            command(table, CMD_F, ']', HSCROLL_DISABLE);
+            command(table, CMD_F, 'O', READ_HSCROLL_OFFSET);
+            set(table, CMD_F, 'T', IGNORE, SCROLL_RATE, true);
+            set(table, CMD_F, 'C', IGNORE, SCROLL_LEFT, true);
+            set(table, CMD_F, 'D', IGNORE, SCROLL_RIGHT, true);
+        }
+
+        return table;
+    }
+
+    private static void control(int[] table, byte ch, int action) {
+        set(table, GROUND, ch & 0xff, action, GROUND, true);
+    }
+
+    private static void command(int[] table, int state, char ch, int action) {
+        set(table, state, ch, action, GROUND, true);
+    }
+
+    private static void set(int[] table, int state, int ch, int action, int nextState, boolean logged) {
+        table[(state << 8) | ch] = action | (nextState << STATE_SHIFT) | (logged ? LOGGED : 0);
+    }
+}
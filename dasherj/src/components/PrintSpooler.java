@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * PrintSpooler takes host-initiated Print Screen requests off the Terminal thread.
+ *
+ * Terminal hands over an immutable ScreenSnapshot and carries on with the host data,
+ * the spooler thread passes each snapshot to the current PrintSink in turn and sends
+ * the host an ACK once it has been printed.
+ *
+ * Run it on its own (daemon) thread.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class PrintSpooler implements Runnable {
+
+    /**
+     * requests beyond this many waiting are refused - no ACK will be sent for them
+     */
+    static final int MAX_PENDING = 16;
+
+    private final BlockingQueue<ScreenSnapshot> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+    private final BlockingQueue<Byte> toHostQ;
+    private volatile PrintSink sink;
+
+    public PrintSpooler(PrintSink sink, BlockingQueue<Byte> toHostQ) {
+        this.sink = sink;
+        this.toHostQ = toHostQ;
+    }
+
+    /**
+     * Change where subsequent prints go, eg. to a FileSpoolSink
+     *
+     * @param newSink
+     */
+    public void setSink(PrintSink newSink) {
+        sink = newSink;
+    }
+
+    /**
+     * Queue a screen for printing, never blocks
+     *
+     * @param screen
+     * @return false if the spooler is full
+     */
+    boolean submit(ScreenSnapshot screen) {
+        if (!pending.offer(screen)) {
+            System.out.println("PrintSpooler: Warning - too many prints pending, request ignored");
+            return false;
+        }
+        return true;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                ScreenSnapshot screen = pending.take();
+                boolean printed;
+                try {
+                    printed = sink.printScreen(screen);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    printed = false;
+                }
+                if (printed) {
+                    toHostQ.offer(Terminal.ACK);
+                }
+            }
+        } catch (InterruptedException ie) {
+            System.out.println("PrintSpooler stopping");
+        }
+    }
+}
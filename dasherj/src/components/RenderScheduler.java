@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.event.ActionEvent;
+import javafx.util.Duration;
+
+/**
+ * One Timeline drives the Crts of every session.  Only the session on show is
+ * painted; the others just have their frames acknowledged (so that smooth scrolling
+ * keeps moving) and stay dirty until they are shown.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced, the Crt Timeline moved here from DasherJ
+ */
+public class RenderScheduler {
+
+    static final int CRT_REFRESH_MS = 50;  // Euro screen refresh rate was 50Hz = 20ms, US was 60Hz = 17ms
+    static final int CRT_BLINK_COUNTER = 500 / CRT_REFRESH_MS;
+
+    // only touched on the FX thread
+    private final List<DasherSession> sessions = new ArrayList<>();
+    private DasherSession shown;
+
+    private final Timeline timeline;
+
+    public RenderScheduler() {
+        timeline = new Timeline(new KeyFrame(Duration.millis(CRT_REFRESH_MS), (ActionEvent ae) -> tick()));
+        timeline.setCycleCount(Timeline.INDEFINITE);
+    }
+
+    public void add(DasherSession session) {
+        sessions.add(session);
+    }
+
+    public void remove(DasherSession session) {
+        sessions.remove(session);
+        if (shown == session) {
+            shown = null;
+        }
+    }
+
+    /**
+     * @param session the session whose Crt is visible, it is repainted in full
+     */
+    public void show(DasherSession session) {
+        shown = session;
+        session.status.dirty = true;
+    }
+
+    public void play() {
+        timeline.play();
+    }
+
+    public void pause() {
+        timeline.pause();
+    }
+
+    private void tick() {
+        for (DasherSession session : sessions) {
+            Status status = session.status;
+            status.blinkCountdown--;
+            if (session == shown && (status.dirty || status.blinkCountdown == 0)) {
+                long paintStart = System.nanoTime();
+                session.crt.paintCrt();
+                status.dirty = false;
+                session.terminal.framePainted();
+                long paintNanos = System.nanoTime() - paintStart;
+                session.metrics.framePainted(paintNanos);
+                if (session.benchmark != null) {
+                    session.benchmark.recordFrame(paintNanos);
+                }
+            } else {
+                if (status.dirty) {
+                    // not on show - don't hold up a smooth scroll waiting for a paint
+                    session.terminal.framePainted();
+                }
+                session.metrics.frameSkipped();
+            }
+            if (status.blinkCountdown == 0) {
+                session.terminal.blinkState = !session.terminal.blinkState;
+                status.blinkCountdown = CRT_BLINK_COUNTER;
+            }
+        }
+    }
+}
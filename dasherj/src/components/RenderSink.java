@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+/**
+ * Notified by Terminal whenever the screen or cursor changes.
+ *
+ * The GUI does not need this, Crt is repainted by a timeline whenever status.dirty
+ * is set, but headless users of Terminal can use it to know when to look at the screen.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Interface introduced
+ */
+public interface RenderSink {
+
+    RenderSink NONE = () -> { };
+
+    /**
+     * Called on the Terminal thread (with the Terminal locked) for every change, so
+     * implementations must be very cheap.
+     */
+    void screenChanged();
+}
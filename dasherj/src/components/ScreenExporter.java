@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import javax.imageio.ImageIO;
+
+/**
+ * ScreenExporter writes a ScreenSnapshot (the screen, or the history followed by the
+ * screen) to a file, rendering from the screen model rather than from the Crt.
+ *
+ * Text and HTML are streamed out row by row.  Images are drawn glyph by glyph from
+ * BDFglyphs at an integer scale, so they stay sharp at any size, into a 2-bit indexed
+ * image - a full history at print resolution is a few tens of MB rather than hundreds.
+ *
+ * Nothing here needs JavaFX, exports can run on any thread.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class ScreenExporter {
+
+    public enum Palette {
+        SCREEN(0x000000, 0x7CFC00, 0x006400), // as the Crt - black, lawngreen, darkgreen
+        PAPER(0xFFFFFF, 0x000000, 0x808080);  // for printing or PDFs
+
+        final int bg, fg, dim;
+
+        Palette(int bg, int fg, int dim) {
+            this.bg = bg;
+            this.fg = fg;
+            this.dim = dim;
+        }
+    }
+
+    public enum Format {
+        TEXT("Plain Text", "*.txt"),
+        HTML("HTML", "*.html"),
+        PNG("PNG Image", "*.png"),
+        PRINT_PNG("PNG Image for Printing/PDF (300dpi)", "*.png");
+
+        private final String description, pattern;
+
+        Format(String description, String pattern) {
+            this.description = description;
+            this.pattern = pattern;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * PRINT_PNG images are sized for the width of landscape A4 at this resolution
+     */
+    public static final int PRINT_DPI = 300;
+    private static final double A4_LANDSCAPE_INCHES = 11.0; // allowing for margins
+
+    // image colour indices
+    private static final byte BG = 0, FG = 1, DIM = 2;
+
+    public static void export(ScreenSnapshot screen, Format format, File file) throws IOException {
+        switch (format) {
+            case TEXT:
+                try (Writer w = openWriter(file)) {
+                    writeText(screen, w);
+                }
+                break;
+            case HTML:
+                try (Writer w = openWriter(file)) {
+                    writeHtml(screen, w);
+                }
+                break;
+            case PNG:
+                writePng(screen, 1, Palette.SCREEN, file);
+                break;
+            case PRINT_PNG:
+                int scale = Math.max(1, (int) (A4_LANDSCAPE_INCHES * PRINT_DPI / (screen.getCols() * BDFglyphs.CHAR_PIXEL_WIDTH)));
+                writePng(screen, scale, Palette.PAPER, file);
+                break;
+        }
+    }
+
+    private static Writer openWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    public static void writeText(ScreenSnapshot screen, Writer w) throws IOException {
+        for (int row = 0; row < screen.getLines(); row++) {
+            for (int col = 0; col < screen.getCols(); col++) {
+                w.write(screen.charAt(row, col) & 0xff);
+            }
+            w.write('\n');
+        }
+    }
+
+    /**
+     * Write the screen as a standalone HTML page, one span per run of characters with
+     * the same attributes
+     */
+    public static void writeHtml(ScreenSnapshot screen, Writer w) throws IOException {
+        w.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>DasherJ Screen</title>\n<style>\n"
+                + "pre { background: #000000; color: #7CFC00; font-family: monospace; }\n"
+                + ".d { color: #006400; }\n"
+                + ".r { background: #7CFC00; color: #000000; }\n"
+                + ".u { text-decoration: underline; }\n"
+                + ".b { animation: blink 1s step-end infinite; }\n"
+                + "@keyframes blink { 50% { visibility: hidden; } }\n"
+                + "</style>\n</head>\n<body>\n<pre>");
+        for (int row = 0; row < screen.getLines(); row++) {
+            int runAttrs = 0;
+            for (int col = 0; col < screen.getCols(); col++) {
+                int attrs = screen.attributesAt(row, col) & ~Cell.PROTECT_BIT;
+                if (col == 0 || attrs != runAttrs) {
+                    if (col != 0 && runAttrs != 0) {
+                        w.write("</span>");
+                    }
+                    if (attrs != 0) {
+                        w.write("<span class=\"");
+                        w.write(htmlClasses(attrs));
+                        w.write("\">");
+                    }
+                    runAttrs = attrs;
+                }
+                char ch = (char) (screen.charAt(row, col) & 0xff);
+                switch (ch) {
+                    case '<':
+                        w.write("&lt;");
+                        break;
+                    case '>':
+                        w.write("&gt;");
+                        break;
+                    case '&':
+                        w.write("&amp;");
+                        break;
+                    default:
+                        w.write(ch < ' ' || ch == 0x7f ? ' ' : ch);
+                }
+            }
+            if (runAttrs != 0) {
+                w.write("</span>");
+            }
+            w.write('\n');
+        }
+        w.write("</pre>\n</body>\n</html>\n");
+    }
+
+    private static String htmlClasses(int attrs) {
+        StringBuilder sb = new StringBuilder();
+        if ((attrs & Cell.DIM_BIT) != 0) {
+            sb.append("d ");
+        }
+        if ((attrs & Cell.REVERSE_BIT) != 0) {
+            sb.append("r ");
+        }
+        if ((attrs & Cell.UNDERSCORE_BIT) != 0) {
+            sb.append("u ");
+        }
+        if ((attrs & Cell.BLINK_BIT) != 0) {
+            sb.append("b ");
+        }
+        return sb.toString().trim();
+    }
+
+    public static void writePng(ScreenSnapshot screen, int scale, Palette palette, File file) throws IOException {
+        if (!ImageIO.write(render(screen, BDFglyphs.dasher(), scale, palette), "png", file)) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    /**
+     * Draw the screen from its glyphs, each font pixel becoming a scale x scale block.
+     * Blinking characters are drawn in their visible phase.
+     *
+     * @return a 2-bit indexed image
+     */
+    public static BufferedImage render(ScreenSnapshot screen, BDFglyphs glyphs, int scale, Palette palette) {
+        int cellWidth = BDFglyphs.CHAR_PIXEL_WIDTH * scale;
+        int cellHeight = BDFglyphs.CHAR_PIXEL_HEIGHT * scale;
+        int width = screen.getCols() * cellWidth;
+        int height = screen.getLines() * cellHeight;
+
+        byte[] r = {(byte) (palette.bg >> 16), (byte) (palette.fg >> 16), (byte) (palette.dim >> 16), 0};
+        byte[] g = {(byte) (palette.bg >> 8), (byte) (palette.fg >> 8), (byte) (palette.dim >> 8), 0};
+        byte[] b = {(byte) palette.bg, (byte) palette.fg, (byte) palette.dim, 0};
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, new IndexColorModel(2, 4, r, g, b));
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = (width + 3) / 4;
+        byte[] pixelRow = new byte[width]; // colour indices for one row of pixels
+
+        for (int row = 0; row < screen.getLines(); row++) {
+            for (int fontY = 0; fontY < BDFglyphs.CHAR_PIXEL_HEIGHT; fontY++) {
+                // build one pixel row at font resolution, scaled horizontally
+                for (int col = 0; col < screen.getCols(); col++) {
+                    int attrs = screen.attributesAt(row, col);
+                    boolean reverse = (attrs & Cell.REVERSE_BIT) != 0;
+                    byte ink = reverse ? BG : ((attrs & Cell.DIM_BIT) != 0 ? DIM : FG);
+                    byte paper = reverse ? FG : BG;
+                    short bits = 0;
+                    if (fontY == BDFglyphs.CHAR_PIXEL_HEIGHT - 1 && (attrs & Cell.UNDERSCORE_BIT) != 0) {
+                        bits = (short) 0xffff;
+                    } else {
+                        short[] glyph = glyphs.glyph(screen.charAt(row, col));
+                        if (glyph != null) {
+                            bits = glyph[fontY];
+                        }
+                    }
+                    int px = col * cellWidth;
+                    for (int fontX = 0; fontX < BDFglyphs.CHAR_PIXEL_WIDTH; fontX++) {
+                        byte colour = (bits & (0x8000 >>> fontX)) != 0 ? ink : paper;
+                        for (int s = 0; s < scale; s++) {
+                            pixelRow[px++] = colour;
+                        }
+                    }
+                }
+                // pack it four pixels to a byte and repeat it for the vertical scale
+                int firstLine = (row * BDFglyphs.CHAR_PIXEL_HEIGHT + fontY) * scale;
+                int base = firstLine * stride;
+                for (int x = 0; x < width; x++) {
+                    data[base + (x >> 2)] |= pixelRow[x] << (6 - ((x & 3) << 1));
+                }
+                for (int s = 1; s < scale; s++) {
+                    System.arraycopy(data, base, data, base + s * stride, stride);
+                }
+            }
+        }
+        return image;
+    }
+}
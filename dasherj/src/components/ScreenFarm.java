@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ScreenFarm runs many headless telnet sessions for screen-scraping robots, in a
+ * plain JVM with no JavaFX toolkit.
+ *
+ * At most maxSessions are open at once, open() waits for a free slot, and all their
+ * tasks (THREADS_PER_SESSION each) run on one bounded pool of small-stack threads
+ * that shrinks when sessions close.  Each session's Terminal has a line buffer only
+ * as big as its screen, allocates history on the first scroll, and packs its cells
+ * into two bytes each once the host has been quiet for PACK_AFTER_IDLE_MS, so an idle
+ * 24x80 session keeps tens of KB of screen rather than the desktop Terminal's half a MB.
+ *
+ *   ScreenFarm farm = new ScreenFarm(200, 24, 80, Status.EmulationType.D210);
+ *   FarmSession s = farm.open("aosvs", 23);
+ *   s.send("USERNAME\r");
+ *   System.out.print(s.screenText());
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class ScreenFarm {
+
+    /**
+     * the Terminal, the telnet listener and the telnet writer
+     */
+    public static final int THREADS_PER_SESSION = 3;
+
+    static final long IDLE_THREAD_SECS = 30;
+
+    /**
+     * how long a session's host must be quiet before its Terminal packs its cells
+     */
+    public static final long PACK_AFTER_IDLE_MS = 2000;
+
+    private final int maxSessions, lines, cols;
+    private final Status.EmulationType emulation;
+    private final Semaphore slots;
+    private final ThreadPoolExecutor pool;
+    private final List<FarmSession> sessions = new ArrayList<>();
+    private final AtomicInteger sessionNumbers = new AtomicInteger();
+
+    public ScreenFarm(int maxSessions, int lines, int cols, Status.EmulationType emulation) {
+        this.maxSessions = maxSessions;
+        this.lines = lines;
+        this.cols = cols;
+        this.emulation = emulation;
+        slots = new Semaphore(maxSessions, true);
+        int threads = maxSessions * THREADS_PER_SESSION;
+        pool = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_SECS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), SessionLifecycle.threadFactory("ScreenFarm-"));
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Connect a new session, waiting for a slot if the farm is full
+     *
+     * @throws IOException if the host could not be reached
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public FarmSession open(String host, int port) throws IOException, InterruptedException {
+        slots.acquire();
+        FarmSession session = new FarmSession(this, sessionNumbers.incrementAndGet(), lines, cols, emulation, pool);
+        synchronized (sessions) {
+            sessions.add(session);
+        }
+        if (!session.connect(host, port)) {
+            session.close();
+            throw new IOException("Could not connect to " + host + ":" + port);
+        }
+        return session;
+    }
+
+    /**
+     * @return the open sessions
+     */
+    public List<FarmSession> getSessions() {
+        synchronized (sessions) {
+            return new ArrayList<>(sessions);
+        }
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * @return the number of pool threads, busy or idle
+     */
+    public int getThreadCount() {
+        return pool.getPoolSize();
+    }
+
+    void released(FarmSession session) {
+        boolean removed;
+        synchronized (sessions) {
+            removed = sessions.remove(session);
+        }
+        if (removed) {
+            slots.release();
+        }
+    }
+
+    /**
+     * Close every session and stop the pool
+     */
+    public void shutdown() {
+        for (FarmSession session : getSessions()) {
+            session.close();
+        }
+        pool.shutdown();
+    }
+}
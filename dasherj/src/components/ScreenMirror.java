@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ScreenMirror lets other programs on this machine watch a Terminal - a read-only
+ * DasherJ (see MirrorViewer) or a test harness.  Viewers connect to a loopback
+ * port and receive a stream of messages, each a type byte, a 4-byte length and
+ * the payload (all numbers big-endian)...
+ *
+ *   'S' whole screen:  lines, cols, cursorX, cursorY (shorts), then every row
+ *   'R' changed rows:  cursorX, cursorY, row count (shorts), then each row's number
+ *                      (short) and the row
+ *
+ * where a row is its cols characters followed by their cols attribute bytes (see
+ * Cell.attributeBits()).  A viewer always starts with a whole screen, and gets
+ * another whenever the screen is resized or panned.
+ *
+ * One publisher thread wakes when the Terminal's damage tracking shows a change,
+ * at most once a frame, and encodes just the rows damaged since the last frame -
+ * the encoded frame is then shared by every viewer, each of which has a writer
+ * thread and a queue of frames.  A viewer that falls too far behind has its queue
+ * emptied and is sent a fresh whole screen instead.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class ScreenMirror {
+
+    public static final byte MSG_SCREEN = 'S', MSG_ROWS = 'R';
+    public static final int HEADER_SIZE = 5;
+
+    static final long FRAME_MS = 20;
+    /**
+     * how long the publisher waits for damage before checking the cursor
+     */
+    static final long IDLE_MS = 200;
+    /**
+     * frames queued for a viewer before it is resynchronised with a whole screen
+     */
+    static final int VIEWER_BACKLOG = 32;
+
+    private final Terminal terminal;
+    private final SessionLifecycle lifecycle;
+    private final ServerSocket server;
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+    private final SessionLifecycle.Task acceptTask, publishTask;
+
+    // what the viewers have been sent - publisher thread only
+    private long sentSerial = -1;
+    private int sentLines, sentCols, sentOffset, sentX, sentY;
+    private byte[] buffer = new byte[0];
+    private int length;
+    private long framesPublished;
+
+    /**
+     * Start serving the Terminal's screen
+     *
+     * @param port the loopback port to listen on, 0 for any free one (see getPort())
+     */
+    public ScreenMirror(Terminal terminal, SessionLifecycle lifecycle, int port) throws IOException {
+        this.terminal = terminal;
+        this.lifecycle = lifecycle;
+        server = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+        acceptTask = lifecycle.start("MirrorAcceptThread", this::acceptViewers);
+        publishTask = lifecycle.start("MirrorPublishThread", this::publish);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getViewerCount() {
+        return viewers.size();
+    }
+
+    /**
+     * @return the number of frames encoded, however many viewers shared them
+     */
+    public synchronized long getFramesPublished() {
+        return framesPublished;
+    }
+
+    /**
+     * Stop serving, disconnecting every viewer
+     */
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        lifecycle.stop(acceptTask);
+        lifecycle.stop(publishTask);
+        for (Viewer viewer : viewers) {
+            viewer.close();
+            lifecycle.stop(viewer.task);
+        }
+    }
+
+    private void acceptViewers() {
+        try {
+            while (true) {
+                Socket sock = server.accept();
+                sock.setTcpNoDelay(true);
+                Viewer viewer = new Viewer(sock);
+                viewers.add(viewer);
+                viewer.task = lifecycle.start("MirrorViewerThread", viewer);
+            }
+        } catch (SocketException se) {
+            // closed
+        } catch (IOException | IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void publish() {
+        long lastFrame = 0;
+        try {
+            while (true) {
+                if (!anyNeedScreen()) {
+                    terminal.awaitDamage(sentSerial, IDLE_MS);
+                }
+                long wait = lastFrame + FRAME_MS - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);  // let the changes of a busy screen pile up into one frame
+                }
+                lastFrame = System.currentTimeMillis();
+                byte[] rows = null, screen = null;
+                synchronized (terminal) {
+                    boolean reshaped = terminal.visible_lines != sentLines || terminal.visible_cols != sentCols
+                            || terminal.hScrollOffset != sentOffset;
+                    if (reshaped) {
+                        screen = encodeScreen();
+                        rows = screen;
+                    } else {
+                        rows = encodeRows();
+                        if (anyNeedScreen()) {
+                            screen = encodeScreen();
+                        }
+                    }
+                    sentSerial = terminal.getDamageSerial();
+                    sentLines = terminal.visible_lines;
+                    sentCols = terminal.visible_cols;
+                    sentOffset = terminal.hScrollOffset;
+                    sentX = terminal.cursorX;
+                    sentY = terminal.cursorY;
+                }
+                for (Viewer viewer : viewers) {
+                    if (viewer.needsScreen) {
+                        if (screen != null) { // else it joined after the encoding, next frame
+                            viewer.resync(screen);
+                        }
+                    } else if (rows != null) {
+                        viewer.offer(rows);
+                    }
+                }
+                if (rows != null) {
+                    synchronized (this) {
+                        framesPublished++;
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            // stopped
+        }
+    }
+
+    private boolean anyNeedScreen() {
+        for (Viewer viewer : viewers) {
+            if (viewer.needsScreen) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the whole visible screen as an 'S' message, Terminal locked
+     */
+    private byte[] encodeScreen() {
+        int lines = terminal.visible_lines, cols = terminal.visible_cols;
+        start(MSG_SCREEN, 8 + lines * cols * 2);
+        putShort(lines);
+        putShort(cols);
+        putShort(terminal.cursorX - terminal.hScrollOffset);
+        putShort(terminal.cursorY);
+        for (int row = 0; row < lines; row++) {
+            putRow(row, cols);
+        }
+        return finish();
+    }
+
+    /**
+     * @return the rows damaged since the last frame as an 'R' message, or null if
+     * nothing has changed, Terminal locked
+     */
+    private byte[] encodeRows() {
+        int lines = terminal.visible_lines, cols = terminal.visible_cols;
+        int count = 0;
+        for (int row = 0; row < lines; row++) {
+            if (terminal.getRowDamage(row) > sentSerial) {
+                count++;
+            }
+        }
+        if (count == 0 && terminal.cursorX == sentX && terminal.cursorY == sentY) {
+            return null;
+        }
+        start(MSG_ROWS, 6 + count * (2 + cols * 2));
+        putShort(terminal.cursorX - terminal.hScrollOffset);
+        putShort(terminal.cursorY);
+        putShort(count);
+        for (int row = 0; row < lines; row++) {
+            if (terminal.getRowDamage(row) > sentSerial) {
+                putShort(row);
+                putRow(row, cols);
+            }
+        }
+        return finish();
+    }
+
+    private void start(byte type, int payload) {
+        if (buffer.length < HEADER_SIZE + payload) {
+            buffer = new byte[HEADER_SIZE + payload];
+        }
+        buffer[0] = type;
+        length = 1;
+        putShort(payload >>> 16);
+        putShort(payload);
+    }
+
+    private void putShort(int v) {
+        buffer[length++] = (byte) (v >>> 8);
+        buffer[length++] = (byte) v;
+    }
+
+    private void putRow(int row, int cols) {
+        terminal.unpack();
+        Cell[] cells = terminal.display[row];
+        int offset = terminal.hScrollOffset;
+        for (int col = 0; col < cols; col++) {
+            Cell cell = cells[offset + col];
+            buffer[length + col] = cell.charValue;
+            buffer[length + cols + col] = cell.attributeBits();
+        }
+        length += cols * 2;
+    }
+
+    private byte[] finish() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * One connected viewer, its writer runs on the session's lifecycle
+     */
+    private final class Viewer implements Runnable {
+        private final Socket sock;
+        private final ArrayBlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(VIEWER_BACKLOG);
+        volatile boolean needsScreen = true;
+        SessionLifecycle.Task task;
+
+        Viewer(Socket sock) {
+            this.sock = sock;
+        }
+
+        void offer(byte[] frame) {
+            if (!frames.offer(frame)) {
+                needsScreen = true; // too far behind, start it again at the next frame
+            }
+        }
+
+        void resync(byte[] screen) {
+            frames.clear();
+            frames.offer(screen);
+            needsScreen = false;
+        }
+
+        @Override
+        public void run() {
+            try (OutputStream out = new BufferedOutputStream(sock.getOutputStream(), 16 * 1024)) {
+                while (true) {
+                    out.write(frames.take());
+                    if (frames.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // viewer gone, or we are stopping
+            } finally {
+                close();
+                viewers.remove(this);
+            }
+        }
+
+        void close() {
+            try {
+                sock.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import javafx.geometry.VPos;
+import javafx.print.PageLayout;
+import javafx.print.PageOrientation;
+import javafx.print.Paper;
+import javafx.print.Printer;
+import javafx.print.PrinterJob;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+/**
+ * Lays out a ScreenSnapshot as vector text for printing - black on white, one Text node
+ * per run of characters with the same attributes, each run placed at its exact column
+ * so that the printer renders the text at its own resolution.
+ *
+ * The nodes are never attached to a live scene, so this may be used off the FX thread
+ * (as by FxPrintSink on the PrintSpooler thread).
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class ScreenPrintLayout {
+
+    private static final String PRINT_FONT = "Courier New";
+    private static final double LINE_SPACING = 1.15;
+    private static final Color DIM_INK = Color.GRAY;
+
+    /**
+     * @return a page layout for the screen on the given printer - landscape A4 unless
+     * the screen is taller than it is wide
+     */
+    public static PageLayout pageLayout(Printer printer, ScreenSnapshot screen) {
+        PageOrientation orientation = screen.getLines() > screen.getCols() / 2 ? PageOrientation.PORTRAIT : PageOrientation.LANDSCAPE;
+        return printer.createPageLayout(Paper.A4, orientation, Printer.MarginType.DEFAULT);
+    }
+
+    /**
+     * Print the screen on one page
+     *
+     * @return true if the page was printed
+     */
+    public static boolean print(PrinterJob job, ScreenSnapshot screen) {
+        PageLayout layout = pageLayout(job.getPrinter(), screen);
+        Node page = layout(screen, layout.getPrintableWidth(), layout.getPrintableHeight());
+        return job.printPage(layout, page);
+    }
+
+    /**
+     * @return the screen as nodes fitting within width x height points
+     */
+    public static Node layout(ScreenSnapshot screen, double width, double height) {
+        // size the font so that the widest of the two dimensions fits
+        Text probe = new Text("M");
+        probe.setFont(new Font(PRINT_FONT, 10.0));
+        double advanceAt10 = probe.getLayoutBounds().getWidth();
+        double sizeForWidth = 10.0 * (width / screen.getCols()) / advanceAt10;
+        double sizeForHeight = height / screen.getLines() / LINE_SPACING;
+        Font font = new Font(PRINT_FONT, Math.min(sizeForWidth, sizeForHeight));
+        probe.setFont(font);
+        double charWidth = probe.getLayoutBounds().getWidth();
+        double lineHeight = font.getSize() * LINE_SPACING;
+
+        Group page = new Group();
+        StringBuilder run = new StringBuilder();
+        for (int row = 0; row < screen.getLines(); row++) {
+            int runStart = 0, runAttrs = 0;
+            for (int col = 0; col <= screen.getCols(); col++) {
+                int attrs = col < screen.getCols() ? screen.attributesAt(row, col) & ~Cell.PROTECT_BIT : -1;
+                if (col > 0 && attrs != runAttrs) {
+                    addRun(page, run, runAttrs, runStart * charWidth, row * lineHeight, charWidth, lineHeight, font);
+                    run.setLength(0);
+                    runStart = col;
+                }
+                if (col < screen.getCols()) {
+                    char ch = (char) (screen.charAt(row, col) & 0xff);
+                    run.append(ch < ' ' || ch == 0x7f ? ' ' : ch);
+                    runAttrs = attrs;
+                }
+            }
+        }
+        // keep the page size fixed whatever is on the screen
+        Rectangle bounds = new Rectangle(screen.getCols() * charWidth, screen.getLines() * lineHeight, Color.TRANSPARENT);
+        page.getChildren().add(0, bounds);
+        return page;
+    }
+
+    private static void addRun(Group page, StringBuilder run, int attrs, double x, double y,
+            double charWidth, double lineHeight, Font font) {
+        boolean reverse = (attrs & Cell.REVERSE_BIT) != 0;
+        if (reverse) {
+            page.getChildren().add(new Rectangle(x, y, run.length() * charWidth, lineHeight));
+        }
+        // nothing to draw for plain spaces
+        if (!reverse && (attrs & Cell.UNDERSCORE_BIT) == 0 && run.toString().trim().isEmpty()) {
+            return;
+        }
+        Text text = new Text(x, y, run.toString());
+        text.setFont(font);
+        text.setTextOrigin(VPos.TOP);
+        text.setFill(reverse ? Color.WHITE : ((attrs & Cell.DIM_BIT) != 0 ? DIM_INK : Color.BLACK));
+        text.setUnderline((attrs & Cell.UNDERSCORE_BIT) != 0);
+        page.getChildren().add(text);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable copy of the visible Terminal screen - characters, attributes and cursor -
+ * that can be handed to other threads (eg. the PrintSpooler) while emulation continues.
+ *
+ * Attributes are packed as per Cell.attributeBits().
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ *         Add fieldLayout()
+ */
+public final class ScreenSnapshot {
+
+    /**
+     * A run of cells on one row that are all protected, or all unprotected
+     */
+    public static final class Field {
+        public final int row, col, length;
+        public final boolean protect;
+
+        Field(int row, int col, int length, boolean protect) {
+            this.row = row;
+            this.col = col;
+            this.length = length;
+            this.protect = protect;
+        }
+
+        @Override
+        public String toString() {
+            return (protect ? "protected " : "unprotected ") + row + "," + col + "+" + length;
+        }
+    }
+
+    private final int lines, cols;
+    private final int cursorX, cursorY;
+    private final long takenAt;
+    private final byte[] chars;
+    private final byte[] attrs;
+
+    /**
+     * Only Terminal creates snapshots, the arrays are not copied again here
+     */
+    ScreenSnapshot(int lines, int cols, int cursorX, int cursorY, byte[] chars, byte[] attrs) {
+        this.lines = lines;
+        this.cols = cols;
+        this.cursorX = cursorX;
+        this.cursorY = cursorY;
+        this.chars = chars;
+        this.attrs = attrs;
+        this.takenAt = System.currentTimeMillis();
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getCursorX() {
+        return cursorX;
+    }
+
+    public int getCursorY() {
+        return cursorY;
+    }
+
+    /**
+     * @return when the snapshot was taken, in ms since the epoch
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * @param below another snapshot with the same number of columns
+     * @return a snapshot of this one with the other's rows after it, eg. history
+     * followed by the screen, the cursor being the other's
+     */
+    public ScreenSnapshot followedBy(ScreenSnapshot below) {
+        if (below.cols != cols) {
+            throw new IllegalArgumentException("Snapshots must have the same width");
+        }
+        byte[] joinedChars = new byte[chars.length + below.chars.length];
+        byte[] joinedAttrs = new byte[attrs.length + below.attrs.length];
+        System.arraycopy(chars, 0, joinedChars, 0, chars.length);
+        System.arraycopy(below.chars, 0, joinedChars, chars.length, below.chars.length);
+        System.arraycopy(attrs, 0, joinedAttrs, 0, attrs.length);
+        System.arraycopy(below.attrs, 0, joinedAttrs, attrs.length, below.attrs.length);
+        return new ScreenSnapshot(lines + below.lines, cols, below.cursorX, lines + below.cursorY, joinedChars, joinedAttrs);
+    }
+
+    public byte charAt(int row, int col) {
+        return chars[row * cols + col];
+    }
+
+    public byte attributesAt(int row, int col) {
+        return attrs[row * cols + col];
+    }
+
+    /**
+     * @return the screen divided into protected and unprotected runs, row by row,
+     * left to right - the unprotected ones being where a form expects input
+     */
+    public List<Field> fieldLayout() {
+        List<Field> fields = new ArrayList<>();
+        for (int row = 0; row < lines; row++) {
+            int start = 0;
+            for (int col = 1; col <= cols; col++) {
+                if (col == cols || isProtected(row, col) != isProtected(row, start)) {
+                    fields.add(new Field(row, start, col - start, isProtected(row, start)));
+                    start = col;
+                }
+            }
+        }
+        return fields;
+    }
+
+    public boolean isProtected(int row, int col) {
+        return (attrs[row * cols + col] & Cell.PROTECT_BIT) != 0;
+    }
+
+    public String rowText(int row) {
+        StringBuilder sb = new StringBuilder(cols);
+        appendRow(sb, row);
+        return sb.toString();
+    }
+
+    /**
+     * @return the screen as text, one line per row
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder(lines * (cols + 1));
+        for (int row = 0; row < lines; row++) {
+            appendRow(sb, row);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void appendRow(StringBuilder sb, int row) {
+        for (int ix = row * cols; ix < (row + 1) * cols; ix++) {
+            sb.append((char) (chars[ix] & 0xff));
+        }
+    }
+}
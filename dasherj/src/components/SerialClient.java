@@ -1,6 +1,9 @@
 package components;
 
 /***
+ * v. 1.3 - Pass DasherMetrics to the listener
+ *          Discover serial ports in the background with discoverPorts()
+ *          Run the listener and writer as SessionLifecycle tasks, close() waits for them
  * v. 0.9 - Add DEFAULT_BAUD
  *          Catch exception on connection
  *          Remove System exit on close
@@ -11,6 +14,7 @@ package components;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 
 import jssc.SerialPort;
 import jssc.SerialPortException;
@@ -20,23 +24,28 @@ import jssc.SerialPortList;
 public class SerialClient {
 	
 	public static final int DEFAULT_BAUD = 9600;
+	
+	private static CompletableFuture<String[]> discoveredPorts;
 
 	public boolean connected;
 	public String[] serialPortNames;
 	
 	// the shared queues
 	private BlockingQueue<Byte> fromHostQ, fromKeybdQ;
+	private DasherMetrics metrics;
 
-	private Thread serialListenerThread, serialWriterThread;
+	private final SessionLifecycle lifecycle;
+	private SessionLifecycle.Task serialListener, serialWriter;
 	
 	// private CommPort commPort;
 	SerialPort serialPort;
 	
-	public SerialClient( BlockingQueue<Byte> fromHostQ, BlockingQueue<Byte> fromKeybdQ ) {
+	public SerialClient( SessionLifecycle lifecycle, BlockingQueue<Byte> fromHostQ, BlockingQueue<Byte> fromKeybdQ, DasherMetrics metrics ) {
+		this.lifecycle = lifecycle;
 		this.fromHostQ = fromHostQ;
 		this.fromKeybdQ = fromKeybdQ;
-		serialPortNames = new String[16];
-		getComPorts();
+		this.metrics = metrics;
+		serialPortNames = listPorts();
 	}
 	
 	public boolean open( String portName, int baudRate ) {
@@ -53,17 +62,16 @@ public class SerialClient {
 		}
 
 		connected = true;
-		(serialListenerThread = new Thread(new SerialListener( serialPort, fromHostQ ))).start();
-		serialListenerThread.setName( "SerialListenerThread" );
-		(serialWriterThread   = new Thread(new SerialWriter( serialPort, fromKeybdQ ))).start();
-		serialWriterThread.setName( "SerialWriterThread" );
+		serialListener = lifecycle.start( "SerialListenerThread", new SerialListener( serialPort, fromHostQ, metrics ) );
+		serialWriter   = lifecycle.start( "SerialWriterThread", new SerialWriter( serialPort, fromKeybdQ ) );
 
 		return true;
 	}
 	
 	public void close() {
-		serialListenerThread.interrupt();
-		serialWriterThread.interrupt();
+		// the writer must be gone before anything else reads the keyboard queue
+		lifecycle.stop( serialWriter );
+		lifecycle.stop( serialListener );
 		try {
 			serialPort.closePort();
 		} catch (SerialPortException e) {
@@ -78,6 +86,34 @@ public class SerialClient {
                 System.out.println("Port : " + serialPortName);
             }
 	  }
+	
+	/***
+	 * Enumerating the ports can be slow (the first time especially), so it is done on a
+	 * background thread.  Call this early (eg. at startup) to get it going, each call
+	 * once the previous discovery has finished starts a fresh one.
+	 * 
+	 * @return the port names, when they are known
+	 */
+	public static synchronized CompletableFuture<String[]> discoverPorts() {
+		if (discoveredPorts == null || discoveredPorts.isDone()) {
+			discoveredPorts = CompletableFuture.supplyAsync( () -> {
+				String[] names = SerialPortList.getPortNames();
+				for (String name : names) {
+					System.out.println( "Port : " + name );
+				}
+				return names;
+			} );
+		}
+		return discoveredPorts;
+	}
+
+	/***
+	 * @return the ports present now, so adapters plugged in since startup are seen - 
+	 * waiting for a discovery already under way rather than starting another
+	 */
+	public static String[] listPorts() {
+		return discoverPorts().join();
+	}
 
 	public void changeBaudRate( int i ) {
 		try {
@@ -2,6 +2,8 @@ package components;
 
 /**
  * *
+ * v.1.3 - Count bytes received in DasherMetrics
+ *         Emit HostReadEvent for JFR
  * v.0.5 - Move to jssc serial library
  */
 import java.util.concurrent.BlockingQueue;
@@ -13,11 +15,13 @@ public final class SerialListener implements Runnable {
 
     private final SerialPort in;
     private final BlockingQueue<Byte> fromHostQ;
+    private final DasherMetrics metrics;
 
-    public SerialListener(SerialPort in, BlockingQueue<Byte> fromHostQ) {
+    public SerialListener(SerialPort in, BlockingQueue<Byte> fromHostQ, DasherMetrics metrics) {
 
         this.in = in;
         this.fromHostQ = fromHostQ;
+        this.metrics = metrics;
     }
 
     @Override
@@ -27,7 +31,10 @@ public final class SerialListener implements Runnable {
 
         try {
             while (true) {
+                HostReadEvent event = new HostReadEvent();
+                event.begin();
                 buffer = in.readBytes();
+                event.end();
                 if (buffer == null) {
                     try {
                         Thread.sleep(50);
@@ -38,6 +45,12 @@ public final class SerialListener implements Runnable {
                         return;
                     }
                 } else {
+                    metrics.hostBytesReceived(buffer.length);
+                    if (event.shouldCommit()) {
+                        event.transport = "Serial";
+                        event.bytes = buffer.length;
+                        event.commit();
+                    }
                     for (int c = 0; c < buffer.length; c++) {
                         fromHostQ.offer(buffer[c]);
                     }
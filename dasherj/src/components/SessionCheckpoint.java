@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SessionCheckpoint saves a Terminal's screen, emulation state and History to a
+ * file as they change, so that they can be put back straight away when DasherJ
+ * is restarted, even after a crash.
+ *
+ * The file is append-only...
+ *
+ *   header    - magic "DJCK", format version (short)
+ *   records   - type (byte), length (int), then...
+ *     REC_HISTORY - line width (short), line count (int), each line its length
+ *                   (short) and the line packed as by History
+ *     REC_SCREEN  - Terminal.writeState() snapshot
+ *
+ * Each checkpoint appends only the History lines added since the previous one and
+ * the screen as it is now.  When the file grows past COMPACT_BYTES it is rewritten
+ * as one History record and one screen, and renamed into place.  restore() maps
+ * the file, applies every History record and the last screen, and ignores a
+ * record cut short by a crash.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class SessionCheckpoint {
+
+    static final byte[] MAGIC = { 'D', 'J', 'C', 'K' };
+    /**
+     * the screens of each format version are Terminal snapshots of the same version
+     */
+    static final short FORMAT_VERSION = Terminal.STATE_VERSION;
+    static final int HEADER_SIZE = 6;
+    static final byte REC_HISTORY = 'H', REC_SCREEN = 'S';
+
+    static final long CHECKPOINT_MS = 1000;
+    static final long COMPACT_BYTES = 4 * 1024 * 1024;
+
+    private final Terminal terminal;
+    private final SessionLifecycle lifecycle;
+    private final Path path;
+    private FileChannel channel;
+    private final SessionLifecycle.Task task;
+
+    // the checkpoint thread's, after the constructor and until close() has stopped it
+    private long historyMark;
+    private long savedSerial;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(16 * 1024);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final ByteArrayOutputStream stateBytes = new ByteArrayOutputStream(16 * 1024);
+    private final DataOutputStream state = new DataOutputStream(stateBytes);
+
+    /**
+     * Start checkpointing to the file, replacing anything in it with the Terminal's
+     * state now - so restore() first if it should be kept
+     */
+    public SessionCheckpoint(Terminal terminal, SessionLifecycle lifecycle, File file) throws IOException {
+        this.terminal = terminal;
+        this.lifecycle = lifecycle;
+        path = file.toPath();
+        compact();
+        task = lifecycle.start("CheckpointThread", this::run);
+    }
+
+    /**
+     * Stop, then take a last checkpoint.  That is written here rather than by the
+     * task, stopping interrupts the task and an interrupted FileChannel write fails.
+     * It rewrites the whole file, so a record the interrupt cut short does not matter.
+     */
+    public void close() {
+        if (!lifecycle.stop(task)) {
+            return; // still running - leave the file to it
+        }
+        try {
+            compact();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                terminal.awaitDamage(savedSerial, CHECKPOINT_MS);
+                Thread.sleep(CHECKPOINT_MS); // changes rarely come singly, take them together
+                checkpoint();
+            }
+        } catch (InterruptedException | ClosedByInterruptException stopping) {
+            // close() takes the last checkpoint
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Append the new History lines and the screen, if anything has changed
+     */
+    private void checkpoint() throws IOException {
+        if (channel.size() > COMPACT_BYTES) {
+            compact();
+            return;
+        }
+        List<byte[]> lines;
+        int width;
+        synchronized (terminal) {
+            if (terminal.getDamageSerial() == savedSerial) {
+                return;
+            }
+            lines = terminal.history.linesSince(historyMark);
+            width = terminal.history.getWidth();
+            historyMark = terminal.history.getLinesAdded();
+            savedSerial = terminal.getDamageSerial();
+            stateBytes.reset();
+            terminal.writeState(state);
+        }
+        recordBytes.reset();
+        writeRecords(lines, width);
+        ByteBuffer bb = ByteBuffer.wrap(recordBytes.toByteArray());
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+
+    /**
+     * Write the whole History and the screen to a new file and swap it in
+     */
+    private void compact() throws IOException {
+        List<byte[]> lines;
+        int width;
+        synchronized (terminal) {
+            lines = terminal.history.linesSince(0);
+            width = terminal.history.getWidth();
+            historyMark = terminal.history.getLinesAdded();
+            savedSerial = terminal.getDamageSerial();
+            stateBytes.reset();
+            terminal.writeState(state);
+        }
+        recordBytes.reset();
+        record.write(MAGIC);
+        record.writeShort(FORMAT_VERSION);
+        writeRecords(lines, width);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, recordBytes.toByteArray());
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeRecords(List<byte[]> lines, int width) throws IOException {
+        if (!lines.isEmpty()) {
+            int length = 2 + 4;
+            for (byte[] line : lines) {
+                length += 2 + line.length;
+            }
+            record.writeByte(REC_HISTORY);
+            record.writeInt(length);
+            record.writeShort(width);
+            record.writeInt(lines.size());
+            for (byte[] line : lines) {
+                record.writeShort(line.length);
+                record.write(line);
+            }
+        }
+        record.writeByte(REC_SCREEN);
+        record.writeInt(stateBytes.size());
+        stateBytes.writeTo(record);
+    }
+
+    /**
+     * Put a checkpointed screen and History back into a Terminal, before it has
+     * been given anything else to show
+     *
+     * @return false if there was no checkpoint to restore
+     * @throws IOException if the file is not a checkpoint, or the screen does not fit
+     */
+    public static boolean restore(File file, Terminal terminal) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            byte[] magic = new byte[MAGIC.length];
+            if (map.remaining() < HEADER_SIZE) {
+                throw new IOException("Not a DasherJ checkpoint: " + file.getPath());
+            }
+            map.get(magic);
+            int version = map.getShort();
+            if (!Arrays.equals(magic, MAGIC) || version < 1 || version > FORMAT_VERSION) {
+                throw new IOException("Not a DasherJ checkpoint: " + file.getPath());
+            }
+            int screenAt = -1, screenLength = 0;
+            synchronized (terminal) {
+                while (map.remaining() >= 5) {
+                    byte type = map.get();
+                    int length = map.getInt();
+                    if (length < 0 || length > map.remaining()) {
+                        break; // cut short by a crash
+                    }
+                    int next = map.position() + length;
+                    if (type == REC_HISTORY) {
+                        int width = map.getShort();
+                        int count = map.getInt();
+                        for (int ix = 0; ix < count; ix++) {
+                            byte[] line = new byte[map.getShort()];
+                            map.get(line);
+                            terminal.history.addPacked(line, width);
+                        }
+                    } else if (type == REC_SCREEN) {
+                        screenAt = map.position();
+                        screenLength = length;
+                    } else {
+                        break;
+                    }
+                    map.position(next);
+                }
+                if (screenAt < 0) {
+                    return false;
+                }
+                byte[] screen = new byte[screenLength];
+                map.position(screenAt);
+                map.get(screen);
+                terminal.readState(new DataInputStream(new ByteArrayInputStream(screen)), version);
+            }
+            return true;
+        }
+    }
+}
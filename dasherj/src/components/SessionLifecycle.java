@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SessionLifecycle starts, stops and joins the blocking tasks of one session - the
+ * Terminal, the local echo client, the transport listener and writer, logging,
+ * spooling and playback, so that nothing outlives the session.
+ *
+ * The tasks run on IO_POOL, a pool of daemon threads shared by all sessions.  Each
+ * task blocks for as long as it runs, so it holds a platform thread of its own just as
+ * a dedicated Thread would, and the pool is bounded at MAX_IO_THREADS rather than
+ * queueing tasks that would never start.  A connected desktop session uses four
+ * threads - the Terminal, the print spooler and the transport's listener and writer
+ * (offline, the local client instead of those two) - and one more each for logging,
+ * playback, checkpointing, a shared screen or a mirror viewer; a ScreenMirror uses
+ * two plus one per viewer.  What the pool saves is creating threads as sessions and
+ * connections come and go, and stack - TASK_STACK_SIZE rather than the default.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced, replaces the per-connection Threads
+ *         Bound IO_POOL at MAX_IO_THREADS
+ */
+public class SessionLifecycle {
+
+    /**
+     * the tasks only ever block on a queue or a socket, so they need little stack
+     */
+    static final long TASK_STACK_SIZE = 256 * 1024;
+
+    /**
+     * how long stop() waits for a task to finish
+     */
+    static final long JOIN_MS = 2000;
+
+    /**
+     * the most tasks IO_POOL runs at once, room for dozens of busy desktop sessions
+     */
+    static final int MAX_IO_THREADS = 256;
+
+    /**
+     * one thread per running task up to MAX_IO_THREADS, idle threads are reused for a minute
+     */
+    static final ExecutorService IO_POOL = new ThreadPoolExecutor(0, MAX_IO_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), threadFactory("DasherJ-IO-"));
+
+    /**
+     * @param prefix the pool's thread names, they are numbered after it
+     * @return a factory for small-stack daemon threads
+     */
+    static ThreadFactory threadFactory(String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(null, r, prefix + threadNumber.incrementAndGet(), TASK_STACK_SIZE);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * One running task, which can be stopped and joined
+     */
+    public static class Task {
+        private final String name;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private Future<?> future;
+
+        private Task(String name) {
+            this.name = name;
+        }
+
+        private void run(Runnable task) {
+            if (!started.compareAndSet(false, true)) {
+                return; // stopped before it got going
+            }
+            // pool threads are anonymous, so name them after the task while it runs
+            Thread thread = Thread.currentThread();
+            String poolName = thread.getName();
+            thread.setName(name);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                thread.setName(poolName);
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Interrupt the task, it is up to the task to return promptly
+         */
+        public void stop() {
+            if (started.compareAndSet(false, true)) {
+                finished.countDown();
+            }
+            future.cancel(true);
+        }
+
+        /**
+         * @return true if the task finished within timeoutMs
+         */
+        public boolean join(long timeoutMs) {
+            try {
+                return finished.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        public boolean isRunning() {
+            return finished.getCount() != 0;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final String suffix;
+    private final ExecutorService pool;
+    private final List<Task> tasks = new ArrayList<>();
+    private boolean stopped;
+
+    /**
+     * @param sessionNumber appended to the task names, for thread dumps and profilers
+     */
+    public SessionLifecycle(int sessionNumber) {
+        this(sessionNumber, IO_POOL);
+    }
+
+    /**
+     * @param pool where the tasks run, eg. a ScreenFarm's bounded pool
+     */
+    public SessionLifecycle(int sessionNumber, ExecutorService pool) {
+        suffix = "-" + sessionNumber;
+        this.pool = pool;
+    }
+
+    /**
+     * Run a task on the session's pool
+     *
+     * @param name eg. "TelnetListenerThread"
+     * @throws IllegalStateException if the session has been stopped, or every thread
+     * of the pool is busy
+     */
+    public synchronized Task start(String name, Runnable runnable) {
+        if (stopped) {
+            throw new IllegalStateException("Session stopped, cannot start " + name);
+        }
+        tasks.removeIf(t -> !t.isRunning());
+        Task task = new Task(name + suffix);
+        try {
+            task.future = pool.submit(() -> task.run(runnable));
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("No thread free to start " + name, e);
+        }
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Stop a task and wait for it to finish
+     *
+     * @return true if it finished within JOIN_MS
+     */
+    public boolean stop(Task task) {
+        if (task == null) {
+            return true;
+        }
+        task.stop();
+        boolean joined = task.join(JOIN_MS);
+        if (!joined) {
+            System.out.println("SessionLifecycle: " + task.getName() + " did not stop");
+        }
+        return joined;
+    }
+
+    /**
+     * Stop every task of the session and wait for them all, no more may be started
+     *
+     * @return true if they all finished within JOIN_MS
+     */
+    public boolean stopAll() {
+        List<Task> running;
+        synchronized (this) {
+            stopped = true;
+            running = new ArrayList<>(tasks);
+            tasks.clear();
+        }
+        for (Task task : running) {
+            task.stop();
+        }
+        long deadline = System.currentTimeMillis() + JOIN_MS;
+        boolean joined = true;
+        for (Task task : running) {
+            if (!task.join(Math.max(deadline - System.currentTimeMillis(), 0))) {
+                System.out.println("SessionLifecycle: " + task.getName() + " did not stop");
+                joined = false;
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * @return the number of tasks still running
+     */
+    public synchronized int getRunningCount() {
+        tasks.removeIf(t -> !t.isRunning());
+        return tasks.size();
+    }
+}
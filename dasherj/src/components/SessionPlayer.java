@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * SessionPlayer feeds a recording made by SessionRecorder back into a Terminal,
+ * either in real time, N times faster, or as fast as possible (speed 0).
+ *
+ * Seeking restores the nearest preceding keyframe (found by binary search of the
+ * keyframe index) and then applies the data recorded after it at full speed.  A seek
+ * during playback takes effect between records, and playback carries on from there.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class SessionPlayer implements Runnable {
+
+    public static final double MAX_SPEED = 0.0;
+
+    private final Terminal terminal;
+    private final Status status;
+    private final Status.EmulationType savedEmulation;
+    private final RandomAccessFile raf;
+    private final int emulationLevel;
+    private final int formatVersion;
+    private final long dataEnd;
+
+    private long[] indexTimes, indexOffsets;
+    private int indexCount;
+    private long durationUs;
+
+    private DataInputStream in;
+    private long position;       // file offset of the next unread byte
+    private long currentTime;    // recorded time of the last record read
+    private byte recordType;
+    private int recordLength;
+
+    private volatile double speed = 1.0;
+    private volatile boolean stopped;
+    private int seeks;           // bumped by seek() so that run() restarts its pacing
+
+    private byte[] buffer = new byte[SessionRecorder.MAX_CHUNK];
+
+    public SessionPlayer(File file, Terminal terminal, Status status) throws IOException {
+        this.terminal = terminal;
+        this.status = status;
+        savedEmulation = status.emulation;
+        raf = new RandomAccessFile(file, "r");
+        DataInputStream header = new DataInputStream(Channels.newInputStream(raf.getChannel()));
+        byte[] magic = new byte[4];
+        header.readFully(magic);
+        boolean isRecording = Arrays.equals(magic, SessionRecorder.MAGIC);
+        formatVersion = header.readShort();
+        if (!isRecording || formatVersion < 1 || formatVersion > SessionRecorder.FORMAT_VERSION) {
+            raf.close();
+            throw new IOException("Not a DasherJ session recording: " + file.getPath());
+        }
+        header.readLong(); // start time, not used for playback
+        emulationLevel = header.readShort();
+        dataEnd = loadIndex();
+        for (Status.EmulationType em : Status.EmulationType.values()) {
+            if (em.getLevel() == emulationLevel) {
+                status.emulation = em;
+            }
+        }
+        seek(0);
+    }
+
+    /**
+     * @param newSpeed 1.0 for real time, >1.0 for faster, MAX_SPEED for no delays at all
+     */
+    public void setSpeed(double newSpeed) {
+        speed = newSpeed;
+    }
+
+    public long getDurationMicros() {
+        return durationUs;
+    }
+
+    public long getPositionMicros() {
+        return currentTime;
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Position playback at the given recorded time, updating the Terminal to show the
+     * screen exactly as it was at that moment.
+     *
+     * @param timeUs microseconds from the start of the recording
+     * @throws IOException
+     */
+    public synchronized void seek(long timeUs) throws IOException {
+        if (indexCount == 0) {
+            // nothing was ever recorded
+            currentTime = 0;
+            position = dataEnd;
+            return;
+        }
+        int ix = Arrays.binarySearch(indexTimes, 0, indexCount, timeUs);
+        if (ix < 0) {
+            ix = Math.max(-ix - 2, 0); // the keyframe before the insertion point
+        }
+        openAt(indexOffsets[ix]);
+        readRecordHeader();
+        currentTime = indexTimes[ix]; // keyframe times are absolute, record deltas are not
+        applyRecord();
+        // apply everything up to the requested time without delays
+        while (position < dataEnd) {
+            in.mark(32);
+            long savedPosition = position, savedTime = currentTime;
+            readRecordHeader();
+            if (recordType == SessionRecorder.REC_DATA && currentTime > timeUs) {
+                in.reset();
+                position = savedPosition;
+                currentTime = savedTime;
+                break;
+            }
+            applyRecord();
+        }
+        seeks++;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        long wallStart = 0, recordStart = 0;
+        double playSpeed = speed;
+        int playSeeks = -1;
+        try {
+            while (true) {
+                // the header is read and the record applied under one lock, so a seek()
+                // can only come between records, or while waiting for one to be due
+                synchronized (this) {
+                    if (stopped || position >= dataEnd) {
+                        break;
+                    }
+                    if (speed != playSpeed || seeks != playSeeks) {
+                        playSpeed = speed;
+                        playSeeks = seeks;
+                        wallStart = System.nanoTime();
+                        recordStart = currentTime;
+                    }
+                    in.mark(32);
+                    long savedPosition = position, savedTime = currentTime;
+                    readRecordHeader();
+                    if (recordType == SessionRecorder.REC_DATA && playSpeed != MAX_SPEED) {
+                        long wait = wallStart + (long) ((currentTime - recordStart) * 1000 / playSpeed) - System.nanoTime();
+                        if (wait > 0) {
+                            // not due yet - put the header back and wait, releasing the lock
+                            in.reset();
+                            position = savedPosition;
+                            currentTime = savedTime;
+                            wait(wait / 1_000_000, (int) (wait % 1_000_000));
+                            continue;
+                        }
+                    }
+                    applyRecord();
+                }
+            }
+        } catch (InterruptedException ie) {
+            // stopped
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Release the recording and give the session back the emulation it had before
+     */
+    public void close() {
+        status.emulation = savedEmulation;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readRecordHeader() throws IOException {
+        recordType = in.readByte();
+        position++;
+        currentTime += readVarint();
+        recordLength = (int) readVarint();
+    }
+
+    private void applyRecord() throws IOException {
+        if (recordLength > buffer.length) {
+            buffer = new byte[recordLength];
+        }
+        in.readFully(buffer, 0, recordLength);
+        position += recordLength;
+        switch (recordType) {
+            case SessionRecorder.REC_DATA:
+                terminal.processHostBytes(buffer, 0, recordLength, true);
+                break;
+            case SessionRecorder.REC_KEYFRAME:
+                // during normal playback the screen already matches the keyframe, but
+                // restoring it is cheap and makes seeking and playback share one path
+                terminal.readState(new DataInputStream(new ByteArrayInputStream(buffer, 0, recordLength)), formatVersion);
+                break;
+            default:
+                throw new IOException("Corrupt session recording - unknown record type " + recordType);
+        }
+    }
+
+    private void openAt(long offset) throws IOException {
+        raf.seek(offset);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel()), 64 * 1024));
+        position = offset;
+    }
+
+    private long readVarint() throws IOException {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            position++;
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+
+    /**
+     * Load the keyframe index from the trailer, or rebuild it by scanning the file if
+     * the recording was not closed cleanly.  Also establishes the recording's duration.
+     *
+     * @return the file offset at which the record data ends
+     */
+    private long loadIndex() throws IOException {
+        long length = raf.length();
+        if (length >= SessionRecorder.HEADER_SIZE + SessionRecorder.TRAILER_SIZE) {
+            raf.seek(length - SessionRecorder.TRAILER_SIZE);
+            long indexOffset = raf.readLong();
+            byte[] magic = new byte[4];
+            raf.readFully(magic);
+            if (Arrays.equals(magic, SessionRecorder.INDEX_MAGIC)) {
+                openAt(indexOffset);
+                in.readByte(); // REC_INDEX
+                indexCount = (int) readVarint();
+                indexTimes = new long[indexCount];
+                indexOffsets = new long[indexCount];
+                for (int ix = 0; ix < indexCount; ix++) {
+                    indexTimes[ix] = in.readLong();
+                    indexOffsets[ix] = in.readLong();
+                }
+                // only the records after the last keyframe need scanning for the duration
+                if (indexCount > 0) {
+                    scan(indexOffsets[indexCount - 1], indexTimes[indexCount - 1], indexOffset, false);
+                }
+                return indexOffset;
+            }
+        }
+        indexTimes = new long[64];
+        indexOffsets = new long[64];
+        indexCount = 0;
+        return scan(SessionRecorder.HEADER_SIZE, 0, length, true);
+    }
+
+    /**
+     * Walk the complete records from offset up to limit, noting the time of the last one
+     * as the duration and optionally adding keyframes to the index.
+     *
+     * @param offset where to start - the header end or a keyframe
+     * @param baseTime the absolute time of the record at offset if it is a keyframe
+     * @return the offset just after the last complete record
+     */
+    private long scan(long offset, long baseTime, long limit, boolean buildIndex) throws IOException {
+        openAt(offset);
+        currentTime = 0;
+        long recordStart = offset;
+        try {
+            while (position < limit) {
+                recordStart = position;
+                readRecordHeader();
+                if (recordStart == offset && recordType == SessionRecorder.REC_KEYFRAME) {
+                    currentTime = baseTime;
+                }
+                if ((recordType != SessionRecorder.REC_DATA && recordType != SessionRecorder.REC_KEYFRAME)
+                        || position + recordLength > limit) {
+                    position = recordStart;
+                    break;
+                }
+                in.skipBytes(recordLength);
+                position += recordLength;
+                if (buildIndex && recordType == SessionRecorder.REC_KEYFRAME) {
+                    if (indexCount == indexTimes.length) {
+                        indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+                        indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+                    }
+                    indexTimes[indexCount] = currentTime;
+                    indexOffsets[indexCount] = recordStart;
+                    indexCount++;
+                }
+                durationUs = currentTime;
+            }
+        } catch (EOFException eof) {
+            // truncated final record - ignore it
+            position = recordStart;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * SessionRecorder writes the host data stream, as seen by Terminal, to a compact
+ * binary file with timestamps so that it can be replayed later by SessionPlayer.
+ *
+ * File format (all multi-byte values big-endian, 'varint' is unsigned LEB128)...
+ *
+ *   Header:   "DJRC", version (short), start time (long, ms since epoch),
+ *             emulation level (short)
+ *   Records:  type (byte), time since previous record (varint, microseconds),
+ *             length (varint), payload
+ *             REC_DATA     - raw host bytes
+ *             REC_KEYFRAME - Terminal.writeState() snapshot
+ *   Trailer:  REC_INDEX, count (varint), count * (time (long), file offset (long)),
+ *             offset of the REC_INDEX record (long), "DJIX"
+ *
+ * Keyframes are written every KEYFRAME_INTERVAL_US of recorded time or
+ * KEYFRAME_INTERVAL_BYTES of data, whichever comes first.  If the trailer is missing
+ * (eg. the recording was not closed cleanly) the player rebuilds the index by scanning.
+ *
+ * record() is only ever called from the Terminal thread while it holds the Terminal lock.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ *         Format version 2 - keyframes keep the horizontal scroll and parser state
+ */
+public class SessionRecorder {
+
+    static final byte[] MAGIC = {'D', 'J', 'R', 'C'};
+    static final byte[] INDEX_MAGIC = {'D', 'J', 'I', 'X'};
+    /**
+     * the keyframes of each format version are Terminal snapshots of the same version
+     */
+    static final short FORMAT_VERSION = Terminal.STATE_VERSION;
+    static final int HEADER_SIZE = 4 + 2 + 8 + 2;
+    static final int TRAILER_SIZE = 8 + 4;
+
+    static final byte REC_DATA = 1;
+    static final byte REC_KEYFRAME = 2;
+    static final byte REC_INDEX = 3;
+
+    static final long KEYFRAME_INTERVAL_US = 5_000_000L;
+    static final int KEYFRAME_INTERVAL_BYTES = 64 * 1024;
+    /**
+     * bytes arriving within this time of the start of a chunk share its timestamp
+     */
+    static final long CHUNK_WINDOW_US = 1000L;
+    static final int MAX_CHUNK = 4096;
+
+    private final Terminal terminal;
+    private final OutputStream out;
+    private final long startNanos;
+
+    private long fileOffset;
+    private long lastRecordTime;
+    private long lastKeyframeTime;
+    private int bytesSinceKeyframe;
+    private boolean haveKeyframe;
+
+    private final byte[] chunk = new byte[MAX_CHUNK];
+    private int chunkLen;
+    private long chunkTime;
+
+    private long[] indexTimes = new long[64], indexOffsets = new long[64];
+    private int indexCount;
+
+    private final ByteArrayOutputStream stateBuffer = new ByteArrayOutputStream(16 * 1024);
+    private final DataOutputStream stateWriter = new DataOutputStream(stateBuffer);
+    private final byte[] scratch = new byte[10];
+
+    private boolean failed, closed;
+
+    public SessionRecorder(File file, Terminal terminal, Status status) throws IOException {
+        this.terminal = terminal;
+        out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeShort(FORMAT_VERSION);
+        header.writeLong(System.currentTimeMillis());
+        header.writeShort(status.emulation.getLevel());
+        fileOffset = HEADER_SIZE;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Record one byte from the host.  The keyframe (if one is due) reflects the Terminal
+     * state before this byte is processed.
+     *
+     * @param b
+     */
+    void record(byte b) {
+        if (failed) {
+            return;
+        }
+        long now = (System.nanoTime() - startNanos) / 1000;
+        try {
+            if (!haveKeyframe || now - lastKeyframeTime >= KEYFRAME_INTERVAL_US || bytesSinceKeyframe >= KEYFRAME_INTERVAL_BYTES) {
+                flushChunk();
+                writeKeyframe(now);
+            }
+            if (chunkLen > 0 && (chunkLen == MAX_CHUNK || now - chunkTime > CHUNK_WINDOW_US)) {
+                flushChunk();
+            }
+            if (chunkLen == 0) {
+                chunkTime = now;
+            }
+            chunk[chunkLen++] = b;
+            bytesSinceKeyframe++;
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+    }
+
+    /**
+     * Finish the recording, writing the keyframe index trailer.  The recorder must
+     * already have been removed from the Terminal.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!failed) {
+                flushChunk();
+                long indexOffset = fileOffset;
+                DataOutputStream dos = new DataOutputStream(out);
+                dos.writeByte(REC_INDEX);
+                writeVarint(indexCount);
+                for (int ix = 0; ix < indexCount; ix++) {
+                    dos.writeLong(indexTimes[ix]);
+                    dos.writeLong(indexOffsets[ix]);
+                }
+                dos.writeLong(indexOffset);
+                dos.write(INDEX_MAGIC);
+            }
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeKeyframe(long now) throws IOException {
+        stateBuffer.reset();
+        terminal.writeState(stateWriter);
+        stateWriter.flush();
+        if (indexCount == indexTimes.length) {
+            indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+        }
+        indexTimes[indexCount] = now;
+        indexOffsets[indexCount] = fileOffset;
+        indexCount++;
+        writeRecordHeader(REC_KEYFRAME, now, stateBuffer.size());
+        stateBuffer.writeTo(out);
+        fileOffset += stateBuffer.size();
+        lastKeyframeTime = now;
+        bytesSinceKeyframe = 0;
+        haveKeyframe = true;
+    }
+
+    private void flushChunk() throws IOException {
+        if (chunkLen == 0) {
+            return;
+        }
+        writeRecordHeader(REC_DATA, chunkTime, chunkLen);
+        out.write(chunk, 0, chunkLen);
+        fileOffset += chunkLen;
+        chunkLen = 0;
+    }
+
+    private void writeRecordHeader(byte type, long time, int length) throws IOException {
+        out.write(type);
+        fileOffset++;
+        writeVarint(time - lastRecordTime);
+        writeVarint(length);
+        lastRecordTime = time;
+    }
+
+    private void writeVarint(long v) throws IOException {
+        int n = 0;
+        while ((v & ~0x7fL) != 0) {
+            scratch[n++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        scratch[n++] = (byte) v;
+        out.write(scratch, 0, n);
+        fileOffset += n;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SharedScreen keeps a copy of a Terminal's visible screen in a memory-mapped file,
+ * so that other processes on the machine (eg. a monitoring agent) can read it with
+ * no round trip to DasherJ.  The layout, all little-endian...
+ *
+ *   0  magic "DJSS"           4  version (int)
+ *   8  sequence (long)       16  lines (int)      20  cols (int)
+ *  24  cursor column (int)   28  cursor row (int)
+ *  32  Terminal damage serial (long)             40  time of update, ms (long)
+ *  48  row stride (int)      52  max lines (int)
+ *  64  characters, one row every stride bytes, max lines rows
+ *  64 + stride * max lines    attributes, laid out the same (see Cell.attributeBits())
+ *
+ * The sequence is a seqlock - odd while an update is being written.  A reader
+ * takes the sequence, waits for it to be even, copies what it needs, then reads the
+ * sequence again and retries if it has changed (see Reader).
+ *
+ * Like ScreenMirror, an updater thread waits on the Terminal's damage tracking and
+ * copies only the damaged rows, at most once every UPDATE_MS.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class SharedScreen {
+
+    public static final int MAGIC = 'D' | 'J' << 8 | 'S' << 16 | 'S' << 24;
+    public static final int VERSION = 1;
+    public static final int SEQUENCE = 8, LINES = 16, COLS = 20, CURSOR_X = 24, CURSOR_Y = 28,
+            DAMAGE_SERIAL = 32, UPDATED = 40, STRIDE = 48, MAX_LINES = 52, HEADER_SIZE = 64;
+
+    static final long UPDATE_MS = 10;
+    static final long IDLE_MS = 200;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Terminal terminal;
+    private final SessionLifecycle lifecycle;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int stride = Terminal.MAX_VISIBLE_COLS, maxLines = Terminal.MAX_VISIBLE_LINES;
+    private final int attrsBase = HEADER_SIZE + stride * maxLines;
+    private final SessionLifecycle.Task updateTask;
+
+    // what has been written - updater thread only
+    private long sequence;
+    private long writtenSerial = -1;
+    private int writtenLines, writtenCols, writtenOffset;
+    private final int[] rows = new int[Terminal.MAX_VISIBLE_LINES];
+
+    /**
+     * Create (or take over) the file and keep it up to date with the Terminal's screen
+     */
+    public SharedScreen(Terminal terminal, SessionLifecycle lifecycle, File file) throws IOException {
+        this.terminal = terminal;
+        this.lifecycle = lifecycle;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, attrsBase + stride * maxLines);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putInt(STRIDE, stride);
+        map.putInt(MAX_LINES, maxLines);
+        LONGS.setVolatile(map, SEQUENCE, 0L);
+        updateTask = lifecycle.start("SharedScreenThread", this::update);
+    }
+
+    /**
+     * Stop updating, the file is left with the last screen written
+     */
+    public void close() {
+        lifecycle.stop(updateTask);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void update() {
+        long lastUpdate = 0;
+        try {
+            while (true) {
+                terminal.awaitDamage(writtenSerial, IDLE_MS);
+                long wait = lastUpdate + UPDATE_MS - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+                lastUpdate = System.currentTimeMillis();
+                synchronized (terminal) {
+                    write();
+                }
+            }
+        } catch (InterruptedException ie) {
+            // stopped
+        }
+    }
+
+    /**
+     * Copy the damaged rows (all of them if the screen has changed shape) and the
+     * cursor into the map, Terminal locked
+     */
+    private void write() {
+        int lines = Math.min(terminal.visible_lines, maxLines), cols = Math.min(terminal.visible_cols, stride);
+        boolean reshaped = lines != writtenLines || cols != writtenCols || terminal.hScrollOffset != writtenOffset;
+        int count = 0;
+        for (int row = 0; row < lines; row++) {
+            if (reshaped || terminal.getRowDamage(row) > writtenSerial) {
+                rows[count++] = row;
+            }
+        }
+        int cursorX = terminal.cursorX - terminal.hScrollOffset;
+        if (count == 0 && map.getInt(CURSOR_X) == cursorX && map.getInt(CURSOR_Y) == terminal.cursorY) {
+            return;
+        }
+        // odd - readers keep away
+        LONGS.setVolatile(map, SEQUENCE, ++sequence);
+        VarHandle.storeStoreFence();
+        map.putInt(LINES, lines);
+        map.putInt(COLS, cols);
+        map.putInt(CURSOR_X, cursorX);
+        map.putInt(CURSOR_Y, terminal.cursorY);
+        map.putLong(DAMAGE_SERIAL, terminal.getDamageSerial());
+        map.putLong(UPDATED, System.currentTimeMillis());
+        int offset = terminal.hScrollOffset;
+        terminal.unpack();
+        for (int ix = 0; ix < count; ix++) {
+            int row = rows[ix];
+            Cell[] cells = terminal.display[row];
+            int chars = HEADER_SIZE + row * stride, attrs = attrsBase + row * stride;
+            for (int col = 0; col < cols; col++) {
+                Cell cell = cells[offset + col];
+                map.put(chars + col, cell.charValue);
+                map.put(attrs + col, cell.attributeBits());
+            }
+        }
+        // even - consistent again
+        LONGS.setRelease(map, SEQUENCE, ++sequence);
+        writtenSerial = terminal.getDamageSerial();
+        writtenLines = lines;
+        writtenCols = cols;
+        writtenOffset = offset;
+    }
+
+    /**
+     * Reads consistent snapshots from a SharedScreen file, eg. in another JVM
+     */
+    public static class Reader implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer map;
+        private final ByteBuffer rows;    // for relative bulk gets
+        private final int stride, attrsBase;
+
+        public Reader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException("Not a DasherJ shared screen: " + file.getPath());
+            }
+            rows = map.duplicate();
+            stride = map.getInt(STRIDE);
+            attrsBase = HEADER_SIZE + stride * map.getInt(MAX_LINES);
+        }
+
+        /**
+         * @return the sequence number, which only changes when the screen does - it is
+         * a cheap way to poll
+         */
+        public long getSequence() {
+            return (long) LONGS.getAcquire(map, SEQUENCE);
+        }
+
+        /**
+         * @return a copy of the screen as it was at one moment, never half-updated
+         */
+        public synchronized ScreenSnapshot snapshot() {
+            while (true) {
+                long before = (long) LONGS.getAcquire(map, SEQUENCE);
+                if ((before & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                int lines = map.getInt(LINES), cols = map.getInt(COLS);
+                int cursorX = map.getInt(CURSOR_X), cursorY = map.getInt(CURSOR_Y);
+                if (lines < 0 || cols < 0 || cols > stride) {
+                    continue; // torn, the sequence check will fail
+                }
+                byte[] chars = new byte[lines * cols], attrs = new byte[lines * cols];
+                for (int row = 0; row < lines; row++) {
+                    rows.position(HEADER_SIZE + row * stride);
+                    rows.get(chars, row * cols, cols);
+                    rows.position(attrsBase + row * stride);
+                    rows.get(attrs, row * cols, cols);
+                }
+                VarHandle.loadLoadFence();
+                if ((long) LONGS.getVolatile(map, SEQUENCE) == before) {
+                    return new ScreenSnapshot(lines, cols, cursorX, cursorY, chars, attrs);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
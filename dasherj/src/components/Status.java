@@ -5,6 +5,10 @@ package components;
  * 
  * @author steve
  *
+ * v. 1.3 - Add smoothScroll
+ *          Add D400 & D410 emulations
+ *          Add triggerNotice
+ *          Add fieldTabbing
  * v. 1.2 - Add D211 emulation
  * v. 0.9 - Add baudRate
  * v. 0.8 - Add visible-lines/cols properties
@@ -21,7 +25,8 @@ public class Status {
 		D210 (210),
 		D211 (211),
 		// D220 (220),
-		// D400 (400),
+		D400 (400),
+		D410 (410),
 		;
 	
 		private int level;
@@ -35,6 +40,23 @@ public class Status {
 	public int baudRate;
 	public boolean logging;
 	public boolean control_pressed, shift_pressed, holding, dirty;
+	/**
+	 * false (the default) - the Crt paints whatever state it finds at its frame rate, as it
+	 * always has, true to show every line as it scrolls.  Smooth scrolling holds the
+	 * screen thread after each scroll (each line for ordinary output) until a frame has
+	 * been painted, for up to Terminal.SMOOTH_SCROLL_MAX_WAIT_MS (100ms), so a fast host
+	 * is slowed to the frame rate - at worst 10 lines a second.
+	 */
+	public boolean smoothScroll;
+	/**
+	 * the text of the latest NOTIFY trigger match, shown on the status bar
+	 */
+	public volatile String triggerNotice;
+	/**
+	 * Tab and Shift-Tab move between the unprotected fields of a form rather than
+	 * going to the host
+	 */
+	public boolean fieldTabbing;
 	
 	public int blinkCountdown;
 	
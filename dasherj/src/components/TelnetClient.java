@@ -17,8 +17,11 @@
 package components;
 
 /**
- * TelnetClient runs the reader and writer threads for telnet
+ * TelnetClient runs the reader and writer tasks for telnet
  * 
+ * v.1.3 Pass DasherMetrics to the listener
+ *       Run the listener and writer as tasks of the session's SessionLifecycle,
+ *       close() waits for them to finish
  * v.1.0 Add restart() method
  */
 
@@ -29,7 +32,8 @@ import java.io.*;
 public class TelnetClient {
 	
 	Socket sock;
-	Thread telnetListenerThread, telnetWriterThread;
+	SessionLifecycle lifecycle;
+	SessionLifecycle.Task telnetListener, telnetWriter;
 	public boolean connected;
 	
 	static final byte CMD_SE = (byte) 240;
@@ -71,13 +75,16 @@ public class TelnetClient {
 	
 	// the shared queues
 	BlockingQueue<Byte> lFromHostQ, lFromKeybdQ;
+	DasherMetrics metrics;
         
         private String host;
         private Integer port;
 	
-	public TelnetClient(BlockingQueue<Byte> fromHostQ, BlockingQueue<Byte> fromKeybdQ) {
+	public TelnetClient(SessionLifecycle pLifecycle, BlockingQueue<Byte> fromHostQ, BlockingQueue<Byte> fromKeybdQ, DasherMetrics pMetrics) {
+		lifecycle = pLifecycle;
 		lFromHostQ = fromHostQ;
 		lFromKeybdQ = fromKeybdQ;
+		metrics = pMetrics;
 	}
 
 	public boolean open( String pHost, Integer pPort ) {
@@ -95,12 +102,10 @@ public class TelnetClient {
 			return false;
 		}
 		
-		// start host listener thread
-		(telnetListenerThread = new Thread( new TelnetListener(sock, lFromHostQ))).start();
-		telnetListenerThread.setName( "TelnetListenerThread" );
-		// start host writer thread
-		(telnetWriterThread = new Thread( new TelnetWriter( sock, lFromKeybdQ ) ) ).start();
-		telnetWriterThread.setName( "TelnetWriterThread" );
+		// start host listener
+		telnetListener = lifecycle.start( "TelnetListenerThread", new TelnetListener(sock, lFromHostQ, metrics) );
+		// start host writer
+		telnetWriter = lifecycle.start( "TelnetWriterThread", new TelnetWriter( sock, lFromKeybdQ ) );
 		
 		return true;
 		
@@ -109,9 +114,11 @@ public class TelnetClient {
 	public void close() {
             if (connected) {
 		try {
-			telnetListenerThread.interrupt();
-			telnetWriterThread.interrupt();
+			// the writer must be gone before anything else reads the keyboard queue
+			lifecycle.stop( telnetWriter );
+			// closing the socket ends the listener's read
 			sock.close();
+			lifecycle.stop( telnetListener );
 			connected = false;
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
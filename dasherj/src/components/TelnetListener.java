@@ -1,6 +1,8 @@
 package components;
 
 /**
+ * v1.3 - Count bytes received in DasherMetrics
+ *        Emit HostReadEvent for JFR
  * v0.9 - Stop with a return when finished/stopped
  */
 import java.io.IOException;
@@ -13,10 +15,12 @@ public class TelnetListener implements Runnable {
     Socket sock;
     InputStream in;
     BlockingQueue<Byte> fromHostQ;
+    DasherMetrics metrics;
 
-    public TelnetListener(Socket pSock, BlockingQueue<Byte> plFromHostQ) {
+    public TelnetListener(Socket pSock, BlockingQueue<Byte> plFromHostQ, DasherMetrics pMetrics) {
         sock = pSock;
         fromHostQ = plFromHostQ;
+        metrics = pMetrics;
 
         try {
             in = sock.getInputStream();
@@ -32,19 +36,30 @@ public class TelnetListener implements Runnable {
 
         byte[] buffer = new byte[1024];
         int len;
+        HostReadEvent event = new HostReadEvent();
 
         try {
+            event.begin();
             while ((len = in.read(buffer)) != -1) {
+                event.end();
                 if (buffer == null) {
                     System.out.printf("TelnetListener stopping\n");
                     return;
                 } else {
+                    metrics.hostBytesReceived(len);
+                    if (event.shouldCommit()) {
+                        event.transport = "Telnet";
+                        event.bytes = len;
+                        event.commit();
+                    }
                     for (int c = 0; c < len; c++) {
                         fromHostQ.offer(buffer[c]);
                         //System.out.printf( "TelnetListener got %d\n", buffer[c] );
                     }
                     //System.out.printf( "TelnetListener got: %s\n", buffer );
                 }
+                event = new HostReadEvent();
+                event.begin();
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
@@ -16,14 +16,14 @@
  */
 package components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import javafx.print.PrinterJob;
-import sun.audio.AudioPlayer;
-
-import javafx.scene.media.AudioClip;
-import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
-import javafx.scene.text.Text;
+import java.util.concurrent.TimeUnit;
 
 /**
  * *
@@ -31,8 +31,46 @@ import javafx.scene.text.Text;
  * (not keyboard) emulation happens here This class manipulates the display
  * matrix of Cells which is shared with Crt.
  *
+ * Terminal has no GUI dependencies, it can be run headless (see HeadlessTerminal).
+ *
  * @author steve
  *
+ * v.1.3 - Split host byte processing out of run() into processHostByte()
+ *         Add session recording hook, state snapshots and replay support
+ *         Load beep via our own class, sun.audio is gone from current JDKs
+ *         Remove all JavaFX dependencies - bell, print and repaint notifications
+ *         now go to BellSink, PrintSink and RenderSink so we can run headless
+ *         Count bytes processed for the throughput benchmark
+ *         Update DasherMetrics
+ *         Time keystroke echoes through DasherMetrics/EchoLatency
+ *         Hand Print Screen requests to the PrintSpooler as ScreenSnapshots rather
+ *         than printing on the Terminal thread
+ *         Add historySnapshot() for exporting
+ *         Scroll by moving row references rather than copying cells, all the lines
+ *         of a multi-line scroll in one move
+ *         Track row edits and lines scrolled so the Crt can shift its row images
+ *         once per frame
+ *         Pack the cells of an idle headless Terminal into bytes, see setPackWhenIdle()
+ *         Add smooth scrolling - pace each scroll to the Crt frame rate
+ *         Catch up quickly when Hold is released on a large backlog
+ *         Emit JFR events for batches, scrolls, erases and cursor address storms
+ *         Drive host byte processing from the ParseTable state/byte tables, parse
+ *         Telnet commands (including subnegotiations) properly, CMD F is now followed
+ *         by its sub-command byte, and window address row 127 keeps the cursor row
+ *         Add D400/D410 emulation - scroll up/down, insert/delete line and character,
+ *         horizontal scroll enable/disable/offset, scroll rate, screen erase & home
+ *         Add a horizontally scrolling view of the line buffer - lines are TOTAL_COLS
+ *         wide when horizontal scrolling is enabled, panned by the host or the user
+ *         Allow a smaller line buffer than TOTAL_LINES x TOTAL_COLS, for headless
+ *         sessions that only ever need their visible screen
+ *         Track which rows have changed (getRowDamage()) and let other threads wait
+ *         for changes with awaitDamage(), for Expect
+ *         Run user-defined Triggers over the printed text
+ *         Keep an incremental index of protected/unprotected fields (FieldIndex),
+ *         handle D210 Protect On/Off
+ *         Add mirror() for showing the screen of a ScreenMirror
+ *         Resize without clearing the screen, report the window size to Telnet
+ *         hosts that ask for it (NAWS)
  * v.1.2 - Fix Read Model response for D210
  *         Add Read Model response for D211
  *         Add (host-initiated) Print Screen action
@@ -60,6 +98,18 @@ public class Terminal implements Runnable {
             MAX_VISIBLE_LINES = 66,
             TOTAL_LINES = 96;
 
+    /**
+     * a batch of host data with at least this many cursor addresses is reported as a
+     * CursorAddressStormEvent
+     */
+    static final int CURSOR_STORM_THRESHOLD = 64;
+
+    /**
+     * when Hold is released with at least this much host data waiting it is applied
+     * in CATCH_UP_CHUNK pieces with rendering suspended - see catchUp()
+     */
+    static final int CATCH_UP_THRESHOLD = 1024, CATCH_UP_CHUNK = 64 * 1024;
+
     /***
      * These constants are the single-byte DASHER control characters
      */
@@ -103,27 +153,97 @@ public class Terminal implements Runnable {
 
     public static final byte SELF_TEST = (byte) -2;  // Not standard, used to initiate self-test function, only in off-line mode
 
+    /***
+     * Telnet command parsing states
+     */
+    private static final int TELNET_DATA = 0, TELNET_IAC = 1, TELNET_DO = 2, TELNET_WILL = 3, TELNET_OPTION = 4,
+            TELNET_SB = 5, TELNET_SB_IAC = 6, TELNET_DONT = 7;
+
     public int visible_lines;
     public int visible_cols;
     public int cursorX, cursorY;
     public boolean roll_enabled, blinking_enabled, blinkState, protection_enabled;
+    /**
+     * D400 and up - horizontal scrolling, offset is the first buffer column shown
+     */
+    public boolean hScroll_enabled;
+    public int hScrollOffset;
 
     private Status status;
 
     public Cell[][] display;
     public History history; 
+    public final FieldIndex fields;
+    /**
+     * the size of display, TOTAL_LINES x TOTAL_COLS unless the Terminal was built smaller
+     */
+    public final int bufferLines, bufferCols;
 
     private BlockingQueue<Byte> fromHostQ, fromKbdQ, logQ;
 
-    private final AudioClip BEEP_AUDIOCLIP;
+    private BellSink bellSink = BellSink.NONE;
+    private PrintSpooler printSpooler;
+    private RenderSink renderSink = RenderSink.NONE;
+    private TriggerSink triggerSink = TriggerSink.NONE;
+    private volatile TriggerEngine triggers;
 
-    private boolean inCommand, inExtendedCommand, readingWindowAddressX, readingWindowAddressY, blinking, dimmed, reversedVideo, underscored, protectd,
-            inTelnetCommand, gotTelnetDo, gotTelnetWill;
+    private boolean blinking, dimmed, reversedVideo, underscored, protectd;
+    private int parserState = ParseTable.GROUND;
+    private int telnetState = TELNET_DATA;
+    private boolean nawsAgreed;
     private int newXaddress, newYaddress;
 
+    private long bytesProcessed;
+    private int batchCursorAddresses;
+    private DasherMetrics metrics = new DasherMetrics();
+
+    private volatile SessionRecorder recorder;
+    private boolean replaying;
+    private boolean renderingSuspended;
+    private final Cell[][] spareRows;
+    /**
+     * while idle, the cells packed as bufferLines x bufferCols characters followed by
+     * as many attribute bytes, and display holds no rows - guarded by this
+     */
+    private byte[] packedCells;
+    private long packAfterIdleMs;
+    /**
+     * damage tracking - the serial of the last change to each row, guarded by this
+     */
+    private long damageSerial;
+    private final long[] rowDamage;
+    private int damageWaiters;
+    /**
+     * the serial of the last change to the contents of each row, which (unlike rowDamage)
+     * moves with the row when it scrolls, and the total lines scrolled - so the Crt can
+     * shift its row images once per frame instead of repainting them - guarded by this
+     */
+    private final long[] rowEdits, spareEdits;
+    private long linesScrolled;
+    /**
+     * frames painted by the Crt, for smooth scrolling - guarded by this
+     */
+    private long framesPainted;
+    private boolean scrollToShow;
+    static final long SMOOTH_SCROLL_MAX_WAIT_MS = 100;
+
     public Terminal(Status pStatus, BlockingQueue<Byte> pFromHostQ, BlockingQueue<Byte> pFromKbdQ, BlockingQueue<Byte> pLogQ) {
+        this(pStatus, pFromHostQ, pFromKbdQ, pLogQ, TOTAL_LINES, TOTAL_COLS);
+    }
+
+    /**
+     * A Terminal with a line buffer of the given size, it can never be resized
+     * beyond it.  A 24x80 buffer is about a tenth of the full-size one.
+     */
+    public Terminal(Status pStatus, BlockingQueue<Byte> pFromHostQ, BlockingQueue<Byte> pFromKbdQ, BlockingQueue<Byte> pLogQ,
+                    int lines, int cols) {
 
         status = pStatus;
+        bufferLines = lines;
+        bufferCols = cols;
+        if (status.visLines > lines || status.visCols > cols) {
+            throw new IllegalArgumentException("Visible screen is larger than the line buffer");
+        }
 
         visible_lines = status.visLines;
         visible_cols = status.visCols;
@@ -131,70 +251,109 @@ public class Terminal implements Runnable {
         fromKbdQ = pFromKbdQ;
         logQ = pLogQ;
 
-        BEEP_AUDIOCLIP = new AudioClip(AudioPlayer.class.getResource("/resources/ShortBeep.wav").toString());
-
         cursorX = 0;
         cursorY = 0;
         roll_enabled = true;
         blinking_enabled = true;
         protection_enabled = false;
-        inCommand = false;
-        inExtendedCommand = false;
-        inTelnetCommand = false;
-        gotTelnetDo = false;
-        gotTelnetWill = false;
-        readingWindowAddressX = false;
-        readingWindowAddressY = false;
+        hScroll_enabled = false;
+        hScrollOffset = 0;
+        parserState = ParseTable.GROUND;
+        telnetState = TELNET_DATA;
         blinking = false;
         dimmed = false;
         reversedVideo = false;
         underscored = false;
-        display = new Cell[TOTAL_LINES][TOTAL_COLS];
-        for (int y = 0; y < TOTAL_LINES; y++) {
-            for (int x = 0; x < TOTAL_COLS; x++) {
+        display = new Cell[bufferLines][bufferCols];
+        for (int y = 0; y < bufferLines; y++) {
+            for (int x = 0; x < bufferCols; x++) {
                 display[y][x] = new Cell();
             }
         }
+        spareRows = new Cell[bufferLines][];
+        rowDamage = new long[bufferLines];
+        rowEdits = new long[bufferLines];
+        spareEdits = new long[bufferLines];
+        fields = new FieldIndex(this, bufferLines);
         history = new History();
 
-        display[12][39].charValue = 'O';
-        display[12][40].charValue = 'K';
+        display[visible_lines / 2][visible_cols / 2 - 1].charValue = 'O';
+        display[visible_lines / 2][visible_cols / 2].charValue = 'K';
     }
 
-    void resize(int lines, int cols) {
+    /**
+     * Change the visible window without losing what is on it - the rows, history and
+     * emulation state all stay as they are.  If the window gets shorter than the
+     * cursor line the top rows go to the history, as if they had scrolled off, and
+     * only cells the window newly uncovers are blanked, and the rows it no longer
+     * shows.  No cells are copied.
+     *
+     * @param lines
+     * @param cols
+     */
+    synchronized void resize(int lines, int cols) {
 
-        clearScreen();
+        if (lines > bufferLines || cols > bufferCols) {
+            throw new IllegalArgumentException("Cannot resize beyond the line buffer");
+        }
+        unpack();
 
-        cursorX = 0;
-        cursorY = 0;
-        roll_enabled = true;
-        blinking_enabled = true;
-        protection_enabled = false;
-        inCommand = false;
-        inExtendedCommand = false;
-        inTelnetCommand = false;
-        gotTelnetDo = false;
-        gotTelnetWill = false;
-        readingWindowAddressX = false;
-        readingWindowAddressY = false;
-        blinking = false;
-        dimmed = false;
-        reversedVideo = false;
-        underscored = false;
+        if (cursorY >= lines) {
+            int rows = cursorY - lines + 1;
+            for (int r = 0; r < rows; r++) {
+                history.addLine( display[r] );
+            }
+            moveRows(0, visible_lines, rows);
+            cursorY -= rows;
+        }
 
+        int oldLines = visible_lines, oldCols = visible_cols;
         visible_lines = lines;
         visible_cols = cols;
+        if (lines < oldLines) {
+            // nothing below the window may come back into view by scrolling or growing
+            blankRows(lines, oldLines);
+        }
+        if (!hScroll_enabled && cols > oldCols) {
+            // the cells beyond the old line end may hold anything
+            for (int row = 0; row < Math.min(lines, oldLines); row++) {
+                for (int col = oldCols; col < cols; col++) {
+                    display[row][col].clearToSpace();
+                }
+                fields.rowEdited(row);
+            }
+        }
+        if (lines > oldLines) {
+            blankRows(oldLines, lines);
+        }
+        cursorX = Math.min(cursorX, columns() - 1);
+
         status.visCols = cols;
         status.visLines = lines;
+        panHorizontally(0);
+        damaged(0, bufferLines);
+        changed();
+        if (nawsAgreed) {
+            sendWindowSize();
+        }
+    }
+
+    /**
+     * A new Telnet connection starts with no options agreed
+     */
+    synchronized void resetTelnet() {
+        telnetState = TELNET_DATA;
+        nawsAgreed = false;
     }
 
     void clearLine(int line) {
-        for (int cc = 0; cc < visible_cols; cc++) {
+        int cols = columns();
+        for (int cc = 0; cc < cols; cc++) {
             display[line][cc].clearToSpace();
         }
-        inCommand = false;
-        readingWindowAddressX = false;
-        readingWindowAddressY = false;
+        fields.rowCleared(line, cols);
+        damaged(line, line + 1);
+        parserState = ParseTable.GROUND;
         blinking = false;
         dimmed = false;
         reversedVideo = false;
@@ -208,35 +367,222 @@ public class Terminal implements Runnable {
     }
 
     void eraseUnprotectedToEndOfScreen() {
+        EraseEvent event = new EraseEvent();
+        event.begin();
+        int cols = columns();
         // clear remainder of line
-        for (int x = cursorX; x < visible_cols; x++) {
+        for (int x = cursorX; x < cols; x++) {
             display[cursorY][x].clearToSpaceIfUnprotected();
         }
         // clear all lines below
         for (int y = cursorY + 1; y < visible_lines; y++) {
-            for (int x = 0; x < visible_cols; x++) {
+            for (int x = 0; x < cols; x++) {
                 display[y][x].clearToSpaceIfUnprotected();
             }
         }
+        damaged(cursorY, visible_lines);
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = "Unprotected to end of screen";
+            event.row = cursorY;
+            event.cells = (visible_lines - cursorY) * cols - cursorX;
+            event.commit();
+        }
     }
 
     void scrollUp(int rowsToScroll) {
-        for (int times = 0; times < rowsToScroll; times++) {
-            // move each char up a row
-            for (int r = 1; r < TOTAL_LINES; r++) {
-                // store top-line in history
-                if (r == 1) {
-                    history.addLine( display[0] );
-                }
-                for (int c = 0; c < visible_cols; c++) {
-                    display[r - 1][c].copy(display[r][c]);
-                }
+        if (status.smoothScroll && !replaying && !renderingSuspended) {
+            // run() lets the Crt show this scroll before it takes the next byte
+            scrollToShow = true;
+        }
+        metrics.scrolled(rowsToScroll);
+        ScrollEvent event = new ScrollEvent();
+        event.begin();
+        // only the visible rows scroll, the rows below them are never shown
+        int rows = Math.min(rowsToScroll, visible_lines);
+        // store the departing lines in history
+        for (int r = 0; r < rows; r++) {
+            history.addLine( display[r] );
+        }
+        // move the rows up in one go, recycling the departing ones at the bottom
+        System.arraycopy(display, 0, spareRows, 0, rows);
+        System.arraycopy(display, rows, display, 0, visible_lines - rows);
+        System.arraycopy(spareRows, 0, display, visible_lines - rows, rows);
+        fields.moveRows(0, visible_lines, rows);
+        rotateEdits(visible_lines, rows);
+        linesScrolled += rows;
+        moved(0, visible_lines);
+        for (int r = visible_lines - rows; r < visible_lines; r++) {
+            clearLine(r);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.lines = rowsToScroll;
+            event.commit();
+        }
+    }
+
+    /**
+     * Rotate the first count rowEdits up by rows, as scrollUp does the rows
+     */
+    private void rotateEdits(int count, int rows) {
+        System.arraycopy(rowEdits, 0, spareEdits, 0, rows);
+        System.arraycopy(rowEdits, rows, rowEdits, 0, count - rows);
+        System.arraycopy(spareEdits, 0, rowEdits, count - rows, rows);
+    }
+
+    /**
+     * @return the width of a line - the whole buffer when horizontal scrolling is
+     * enabled, otherwise just the visible columns
+     */
+    int columns() {
+        return hScroll_enabled ? bufferCols : visible_cols;
+    }
+
+    /**
+     * Turn horizontal scrolling on or off, the host can also do this in D400 mode and up.
+     * Turning it off brings the view back to column 0.
+     *
+     * @param enabled
+     */
+    public synchronized void setHorizontalScroll(boolean enabled) {
+        hScroll_enabled = enabled;
+        panHorizontally(0);
+    }
+
+    /**
+     * Pan the view across the line buffer by moving the column the Crt starts
+     * rendering from, the cells themselves do not move.  The view stays within the
+     * buffer, and at column 0 unless horizontal scrolling is enabled.
+     *
+     * @param cols positive to see further right
+     */
+    public synchronized void panHorizontally(int cols) {
+        int maxOffset = hScroll_enabled ? bufferCols - visible_cols : 0;
+        int offset = Math.max(0, Math.min(hScrollOffset + cols, maxOffset));
+        if (offset != hScrollOffset) {
+            hScrollOffset = offset;
+            changed();
+        }
+    }
+
+    /**
+     * Move rows top to bottom-1 of the screen up (n > 0) or down (n < 0) by n rows,
+     * blanking the rows uncovered.  Only the row references in the region move, no
+     * cells are copied and no history is kept.
+     *
+     * @param top
+     * @param bottom the row below the region
+     * @param n
+     */
+    void moveRows(int top, int bottom, int n) {
+        int height = bottom - top;
+        int rows = Math.min(Math.abs(n), height);
+        if (rows <= 0) {
+            return;
+        }
+        ScrollEvent event = new ScrollEvent();
+        event.begin();
+        fields.moveRows(top, bottom, n);
+        if (n > 0) {
+            System.arraycopy(display, top, spareRows, 0, rows);
+            System.arraycopy(display, top + rows, display, top, height - rows);
+            System.arraycopy(spareRows, 0, display, bottom - rows, rows);
+            blankRows(bottom - rows, bottom);
+        } else {
+            System.arraycopy(display, bottom - rows, spareRows, 0, rows);
+            System.arraycopy(display, top, display, top + rows, height - rows);
+            System.arraycopy(spareRows, 0, display, top, rows);
+            blankRows(top, top + rows);
+        }
+        damaged(top, bottom);
+        event.end();
+        if (event.shouldCommit()) {
+            event.lines = n;
+            event.commit();
+        }
+    }
+
+    private void blankRows(int from, int to) {
+        int cols = columns();
+        for (int row = from; row < to; row++) {
+            for (int col = 0; col < cols; col++) {
+                display[row][col].clearToSpace();
+            }
+            fields.rowCleared(row, cols);
+        }
+    }
+
+    /**
+     * Open a blank cell at the cursor, pushing the rest of the line right - the cell
+     * pushed off the end of the line is recycled
+     */
+    private void insertChar() {
+        int cols = columns();
+        if (cursorX >= cols) {
+            return;
+        }
+        Cell[] row = display[cursorY];
+        Cell recycled = row[cols - 1];
+        System.arraycopy(row, cursorX, row, cursorX + 1, cols - 1 - cursorX);
+        recycled.clearToSpace();
+        row[cursorX] = recycled;
+        fields.rowEdited(cursorY);
+        damaged(cursorY, cursorY + 1);
+    }
+
+    /**
+     * Remove the cell at the cursor, pulling the rest of the line left
+     */
+    private void deleteChar() {
+        int cols = columns();
+        if (cursorX >= cols) {
+            return;
+        }
+        Cell[] row = display[cursorY];
+        Cell recycled = row[cursorX];
+        System.arraycopy(row, cursorX + 1, row, cursorX, cols - 1 - cursorX);
+        recycled.clearToSpace();
+        row[cols - 1] = recycled;
+        fields.rowEdited(cursorY);
+        damaged(cursorY, cursorY + 1);
+    }
+
+    /**
+     * In smooth scroll mode wait until the Crt has painted the latest scroll.  Only
+     * called from run() between host bytes, never while one is being processed, so
+     * wait() releasing the lock cannot let anything change under an emulator action.
+     * Does not wait if nothing has ever been painted, ie. we are headless.
+     */
+    private synchronized void awaitScrollShown() {
+        if (!scrollToShow) {
+            return;
+        }
+        scrollToShow = false;
+        if (framesPainted == 0) {
+            return;
+        }
+        changed();
+        long target = framesPainted + 1;
+        long deadline = System.currentTimeMillis() + SMOOTH_SCROLL_MAX_WAIT_MS;
+        try {
+            long remaining;
+            while (framesPainted < target && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
             }
-            // clear the bottom row
-            clearLine(TOTAL_LINES - 1);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Called by the GUI each time the Crt has been painted
+     */
+    public synchronized void framePainted() {
+        framesPainted++;
+        notifyAll();
+    }
+
     void selfTest(BlockingQueue<Byte> fromKbdQ) {
 
         byte[] testlineHRule1 = "123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789012345678901".getBytes();
@@ -320,533 +666,1064 @@ public class Terminal implements Runnable {
     @Override
     public void run() {
 
-        boolean skipChar;
-        byte ch, willAction, doAction;
+        byte ch;
+        int unpublished = 0;
+        TerminalBatchEvent batch = null;
 
         try {
 
             while (true) {
 
-                ch = fromHostQ.take();
-
-                while (status.holding) {
-                    Thread.sleep(100);
-                }
-
-                skipChar = false;
+                ch = nextHostByte();
 
-                // check for Telnet command
-                if (status.connection == Status.ConnectionType.TELNET_CONNECTED && ch == TelnetClient.CMD_IAC) {
-                    if (inTelnetCommand) {
-                        // special case - host really wants to send 255 - let it through
-                        inTelnetCommand = false;
-                    } else {
-                        inTelnetCommand = true;
-                        skipChar = true;
+                if (status.holding) {
+                    while (status.holding) {
+                        Thread.sleep(100);
+                    }
+                    if (fromHostQ.size() >= CATCH_UP_THRESHOLD) {
+                        catchUp(ch);
                         continue;
                     }
                 }
 
-                // process Telnet command
-                if (status.connection == Status.ConnectionType.TELNET_CONNECTED && inTelnetCommand) {
-                    // get command byte
-                    Byte telnetCmd = ch;
-                    switch (telnetCmd) {
-                        case TelnetClient.CMD_DO:
-                            gotTelnetDo = true;
-                            skipChar = true;
-                            break;
-                        case TelnetClient.CMD_WILL:
-                            gotTelnetWill = true;
-                            skipChar = true;
-                            break;
-                        case TelnetClient.CMD_AO:
-                        case TelnetClient.CMD_AYT:
-                        case TelnetClient.CMD_BRK:
-                        case TelnetClient.CMD_DM:
-                        case TelnetClient.CMD_DONT:
-                        case TelnetClient.CMD_EC: // ??? Erase Char - should we map this to BS/CurLeft?
-                        case TelnetClient.CMD_EL:
-                        case TelnetClient.CMD_GA:
-                        case TelnetClient.CMD_IP:
-                        case TelnetClient.CMD_NOP:
-                        case TelnetClient.CMD_SB: // should probably skip to SE...
-                        case TelnetClient.CMD_SE:
-                            skipChar = true;
-                            break;
-                        default:
-                            break;
-                    }
+                if (batch == null) {
+                    batch = new TerminalBatchEvent();
+                    batch.begin();
                 }
 
-                if (skipChar) {
-                    continue;
-                }
+                processHostByte(ch);
+                metrics.hostByteApplied();
+                awaitScrollShown();
 
-                if (status.connection == Status.ConnectionType.TELNET_CONNECTED && gotTelnetDo) {
-                    // whatever the host asks us to do we will refuse
-                    doAction = ch;
-                    fromKbdQ.offer(TelnetClient.CMD_IAC);
-                    fromKbdQ.offer(TelnetClient.CMD_WONT);
-                    fromKbdQ.offer(doAction);
-                    gotTelnetDo = false;
-                    inTelnetCommand = false;
-                    skipChar = true;
+                // publish the byte count in batches rather than contending on every byte
+                if (++unpublished == 4096 || fromHostQ.isEmpty()) {
+                    metrics.hostBytesProcessed(unpublished);
+                    endBatch(batch, unpublished);
+                    batch = null;
+                    unpublished = 0;
                 }
+            }
 
-                if (status.connection == Status.ConnectionType.TELNET_CONNECTED && gotTelnetWill) {
-                    // whatever the host offers to do we will decline
-                    willAction = ch;
-                    fromKbdQ.offer(TelnetClient.CMD_IAC);
-                    fromKbdQ.offer(TelnetClient.CMD_DONT);
-                    fromKbdQ.offer(willAction);
-                    gotTelnetWill = false;
-                    inTelnetCommand = false;
-                    skipChar = true;
-                }
+        } catch (InterruptedException ie) {
 
-                if (skipChar) {
-                    continue;
-                }
+        }
 
-                // check for Self-Test command
-                if (status.connection == Status.ConnectionType.DISCONNECTED && ch == SELF_TEST) {
-                    selfTest(fromKbdQ);
-                    skipChar = true;
-                }
+    }
 
-                if (skipChar) {
-                    continue;
-                }
+    /**
+     * @return the next byte from the host, packing the cells while waiting for it if
+     * the host has been quiet for packAfterIdleMs
+     */
+    private byte nextHostByte() throws InterruptedException {
+        if (packAfterIdleMs > 0) {
+            Byte ch = fromHostQ.poll(packAfterIdleMs, TimeUnit.MILLISECONDS);
+            if (ch != null) {
+                return ch;
+            }
+            pack();
+        }
+        return fromHostQ.take();
+    }
 
-                if (readingWindowAddressX) {
-                    newXaddress = (int) ch & 0x7f;
-                    if (newXaddress >= visible_cols) {
-                        System.out.printf("Warning: host attempt to set cursor off screen at column %d%n", newXaddress);
-                        newXaddress = newXaddress - visible_cols;
-                    }
-                    if (newXaddress == 127) {
-                        // special case - x stays the same - see D410 User Manual p.3-25
-                        newXaddress = cursorX;
-                    }
-                    readingWindowAddressX = false;
-                    readingWindowAddressY = true;
-                    skipChar = true;
-                    continue;
-                }
+    /**
+     * Pack the cells of an idle Terminal into two bytes each, rather than keep a Cell
+     * object per character, once the host has been quiet for ms.  They are unpacked
+     * again by the next byte from the host, or anything else that reads the screen.
+     * For headless sessions - a Crt unpacks them again on every frame.
+     *
+     * @param ms how long the host must be quiet, 0 (the default) to never pack
+     */
+    public void setPackWhenIdle(long ms) {
+        packAfterIdleMs = ms;
+    }
 
-                if (readingWindowAddressY) {
-                    newYaddress = (int) ch & 0x7f;
-                    cursorX = newXaddress;
-                    cursorY = newYaddress;
-                    if (newYaddress == 127) {
-                        // special case - y stays the same - see D410 User Manual p.3-25
-                        newYaddress = cursorY;
-                    }
-                    if (cursorY >= visible_lines) {
-                        System.out.printf("Warning: host attempt to set cursor off screen to row %d%n", cursorY);
-                        // see end of p.3-24 in D410 User Manual
-                        if (roll_enabled) {
-                            scrollUp(cursorY - (visible_lines - 1));
-                        }
-                        cursorY = cursorY - visible_lines;
-                    }
-                    // System.out.printf("Terminal - moving cursor to Row %d,  Column %d%n", cursorY, cursorX);
-                    readingWindowAddressY = false;
-                    skipChar = true;
-                    continue;
-                }
+    /**
+     * Swap the Cell objects for packed bytes, see setPackWhenIdle()
+     */
+    synchronized void pack() {
+        if (packedCells != null) {
+            return;
+        }
+        int size = bufferLines * bufferCols;
+        byte[] packed = new byte[size * 2];
+        int ix = 0;
+        for (int y = 0; y < bufferLines; y++) {
+            for (int x = 0; x < bufferCols; x++, ix++) {
+                packed[ix] = display[y][x].charValue;
+                packed[size + ix] = display[y][x].attributeBits();
+            }
+            display[y] = null;
+        }
+        Arrays.fill(spareRows, null);
+        packedCells = packed;
+    }
 
-                // logging output chars
-                if (status.logging) {
-                    logQ.offer(ch);
+    /**
+     * Bring back the Cell objects if the cells are packed.  Anything that reads display
+     * must call this first, with the lock held.
+     */
+    synchronized void unpack() {
+        if (packedCells == null) {
+            return;
+        }
+        int size = bufferLines * bufferCols;
+        int ix = 0;
+        for (int y = 0; y < bufferLines; y++) {
+            Cell[] row = new Cell[bufferCols];
+            for (int x = 0; x < bufferCols; x++, ix++) {
+                row[x] = new Cell();
+                row[x].charValue = packedCells[ix];
+                row[x].setAttributeBits(packedCells[size + ix]);
+            }
+            display[y] = row;
+        }
+        packedCells = null;
+    }
+
+    /**
+     * Apply the backlog that built up while Hold was on in large chunks, without any
+     * repaints until the queue is empty, then repaint once.  History is still kept.
+     *
+     * @param first the byte already taken from the queue
+     */
+    private void catchUp(byte first) {
+        byte[] chunk = new byte[CATCH_UP_CHUNK];
+        int len = 0;
+        chunk[len++] = first;
+        setRenderingSuspended(true);
+        // drainTo takes the queue lock once per chunk rather than once per byte
+        List<Byte> drained = new ArrayList<>(CATCH_UP_CHUNK);
+        try {
+            while (true) {
+                fromHostQ.drainTo(drained, CATCH_UP_CHUNK - len);
+                for (Byte b : drained) {
+                    chunk[len++] = b;
+                }
+                drained.clear();
+                processHostBytes(chunk, 0, len, false);
+                // stop when the queue is drained, or if Hold has been pressed again
+                if (len < CATCH_UP_CHUNK || status.holding) {
+                    break;
                 }
+                len = 0;
+            }
+        } finally {
+            setRenderingSuspended(false);
+        }
+    }
 
-                // D200 CMD commands
-                if (inCommand) {
-                    switch (ch) {
-                        case 'C':	 	// REQUIRES RESPONSE
-                            sendModelID();
-                            skipChar = true;
-                            break;
-                        case 'D':
-                            reversedVideo = true;
-                            skipChar = true;
-                            break;
-                        case 'E':
-                            reversedVideo = false;
-                            skipChar = true;
-                            break;
-                        default:
-                            // System.out.printf( "Screen: Warning - Unrecognised Break-CMD code '%s'\n", ch );
-                            break;
-                    }
+    private synchronized void setRenderingSuspended(boolean suspend) {
+        renderingSuspended = suspend;
+        if (!suspend) {
+            changed();
+        }
+    }
 
-                    // D210 commands
-                    if (status.emulation.getLevel() >= 210 && ch == 'F') {
-                        inExtendedCommand = true;
-                        skipChar = true;
-                    }
+    /**
+     * Commit the JFR events for a batch of host bytes - a no-op unless a recording with
+     * the DasherJ events enabled is running.
+     */
+    private void endBatch(TerminalBatchEvent batch, int bytes) {
+        batch.end();
+        if (batch.shouldCommit()) {
+            batch.bytes = bytes;
+            batch.cursorAddresses = batchCursorAddresses;
+            batch.commit();
+        }
+        if (batchCursorAddresses >= CURSOR_STORM_THRESHOLD) {
+            CursorAddressStormEvent storm = new CursorAddressStormEvent();
+            if (storm.isEnabled()) {
+                storm.cursorAddresses = batchCursorAddresses;
+                storm.bytes = bytes;
+                storm.commit();
+            }
+        }
+        batchCursorAddresses = 0;
+    }
 
-                    if (status.emulation.getLevel() >= 210 && inExtendedCommand) {
-                        switch (ch) {
-                            case 'F':
-                                eraseUnprotectedToEndOfScreen();
-                                skipChar = true;
-                                inExtendedCommand = false;
-                                break;
-                        }
-                    }
+    /**
+     * Feed a block of bytes into the emulator as if they had come from the host.
+     * Used by the SessionPlayer, which suppresses any responses the emulator would
+     * normally send back to the host.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @param replay true if the bytes are a replay of a recorded session
+     */
+    public synchronized void processHostBytes(byte[] buffer, int offset, int length, boolean replay) {
+        replaying = replay;
+        TerminalBatchEvent batch = new TerminalBatchEvent();
+        batch.begin();
+        try {
+            for (int ix = offset; ix < offset + length; ix++) {
+                processHostByte(buffer[ix]);
+            }
+            metrics.hostBytesProcessed(length);
+            endBatch(batch, length);
+        } finally {
+            replaying = false;
+        }
+    }
 
-                    //	                // D211 commands
-                    //					if (status.emulation.getLevel() >= 211) {
-                    //						switch (ch) {
-                    //						case 'F': // extended commands...
-                    //							Byte extCmd = fromHostQ.take();
-                    //							switch (extCmd) {
-                    //							case 'S': // Select Char set
-                    //								break;	
-                    //							}
-                    //							break;
-                    //						case 'N': // shift in
-                    //							break;
-                    //						case 'O': // shift out
-                    //							break;
-                    //						}
-                    //					}
-                    //
-                    //					// D400 commands
-                    //					if (status.emulation.getLevel() >= 400) {
-                    //						switch (ch) {
-                    //						case 'F': // extended commands...
-                    //							// get extended command byte
-                    //							Byte extCmd = fromHostQ.take();
-                    //							switch (extCmd) {
-                    //							case 'I': // delete line
-                    //								break;
-                    //							case '\\': // <134> delete line between margins
-                    //								break;
-                    //							case 'E': // Erase screen
-                    //								break;
-                    //							case ']': // Horizontal scroll disable
-                    //								break;
-                    //							case '^': // Horizontal scroll enable
-                    //								break;
-                    //							case 'H': // Insert line
-                    //								break;
-                    //							case '[': // Insert line between margins
-                    //								break;
-                    //							case 'a': // Print pass thru off
-                    //								break;
-                    //							case '\'': // Print pass thru on
-                    //								break;
-                    //							case 'W': // Protect disable
-                    //								break;
-                    //							case 'V': // Protect enable
-                    //								break;
-                    //							case 'O': // Read horizontal scroll offset
-                    //								break;
-                    //							case 'b': // Read screen address
-                    //								break;
-                    //							case 'A': // RESET
-                    //								break;
-                    //							case 'Z': // Restore normal margins
-                    //								break;
-                    //							case 'G': // Screen home
-                    //								break;
-                    //							case 'C': // Scroll left n
-                    //								break;
-                    //							case 'D': // Scroll right n
-                    //								break;
-                    //							case 'K': // Select compressed spacing
-                    //								break;
-                    //							case 'J': // Select normal spacing
-                    //								break;
-                    //							case 'Y': // Set alternate margins i,j,k
-                    //								break;
-                    //							case 'Q': // Set cursor type n
-                    //								break;
-                    //							case 'X': // Set margins i,j,k
-                    //								break;
-                    //							case 'T': // Set scroll rate n
-                    //								break;
-                    //							case 'B': // Set windows ....
-                    //								break;
-                    //							case '_': // Show columns i,j
-                    //								break;
-                    //							case '?': // Window bit dump ('5')
-                    //								break;
-                    //							case 'P': // Write screen address
-                    //								break;
-                    //							}
-                    //							break;
-                    //						case 'H': // scroll up
-                    //							break;
-                    //						case 'I': // scroll down
-                    //							break;
-                    //						case 'J': // insert char
-                    //							break;
-                    //						case 'K': // delete char
-                    //							break;
-                    //
-                    //
-                    //						}
-                    //					}
-                    inCommand = false;
-                    continue;
-                }
+    /**
+     * Process a single byte received from the host
+     *
+     * @param ch
+     */
+    synchronized void processHostByte(byte ch) {
 
-                if (skipChar) {
-                    continue;
-                }
+        bytesProcessed++;
+        if (packedCells != null) {
+            unpack();
+        }
+
+        if (status.connection == Status.ConnectionType.TELNET_CONNECTED
+                && (telnetState != TELNET_DATA || ch == TelnetClient.CMD_IAC) && telnetCommand(ch)) {
+            return;
+        }
+
+        // check for Self-Test command
+        if (ch == SELF_TEST && status.connection == Status.ConnectionType.DISCONNECTED) {
+            selfTest(fromKbdQ);
+            return;
+        }
+
+        // session recording sees the DASHER stream with any Telnet negotiation removed
+        if (recorder != null) {
+            recorder.record(ch);
+        }
+
+        int entry = ParseTable.forEmulation(status.emulation)[(parserState << 8) | (ch & 0xff)];
+        parserState = (entry >>> ParseTable.STATE_SHIFT) & ParseTable.STATE_MASK;
 
+        // logging output chars
+        if ((entry & ParseTable.LOGGED) != 0 && status.logging) {
+            logQ.offer(ch);
+        }
+
+        int action = entry & ParseTable.ACTION_MASK;
+        if (action == ParseTable.PRINT) {
+            printChar(ch);
+        } else {
+            perform(action, ch);
+        }
+    }
+
+    /**
+     * Strip Telnet commands out of the host data, refusing whatever options the host
+     * asks for - except NAWS, so the host knows our window size.
+     *
+     * @param ch
+     * @return true if ch was part of a Telnet command
+     */
+    private boolean telnetCommand(byte ch) {
+        switch (telnetState) {
+            case TELNET_DATA: // must be IAC
+                telnetState = TELNET_IAC;
+                return true;
+            case TELNET_IAC:
                 switch (ch) {
-                    case NULL:
-                        skipChar = true;
-                        break;
-                    case BELL:
-                        BEEP_AUDIOCLIP.play();
-                        skipChar = true;
-                        break;
-                    case BLINK_DISABLE:
-                        blinking_enabled = false;
-                        skipChar = true;
-                        break;
-                    case BLINK_ENABLE:
-                        blinking_enabled = true;
-                        skipChar = true;
-                        break;
-                    case BLINK_OFF:
-                        blinking = false;
-                        skipChar = true;
-                        break;
-                    case BLINK_ON:
-                        blinking = true;
-                        skipChar = true;
-                        break;
-                    case CURSOR_UP:
-                        if (cursorY > 0) {
-                            cursorY--;
-                        } else {
-                            cursorY = visible_lines - 1;
-                        }
-                        skipChar = true;
-                        status.dirty = true;
-                        break;
-                    case CURSOR_DOWN:
-                        if (cursorY < visible_lines - 1) {
-                            cursorY++;
-                        } else {
-                            cursorY = 0;
-                        }
-                        status.dirty = true;
-                        skipChar = true;
-                        break;
-                    case CURSOR_RIGHT:
-                        if (cursorX < visible_cols - 1) {
-                            cursorX++;
-                        } else {
-                            cursorX = 0;
-                            if (cursorY < visible_lines - 2) {
-                                cursorY++;
-                            } else {
-                                cursorY = 0;
-                            }
-                        }
-                        status.dirty = true;
-                        skipChar = true;
-                        break;
-                    case CURSOR_LEFT:
-                        if (cursorX > 0) {
-                            cursorX--;
-                        } else {
-                            cursorX = visible_cols - 1;
-                            if (cursorY > 0) {
-                                cursorY--;
-                            } else {
-                                cursorY = visible_lines - 1;
-                            }
-                        }
-                        status.dirty = true;
-                        skipChar = true;
-                        break;
-                    case DIM_ON:
-                        dimmed = true;
-                        skipChar = true;
-                        break;
-                    case DIM_OFF:
-                        dimmed = false;
-                        skipChar = true;
-                        break;
-                    case HOME:
-                        cursorX = 0;
-                        cursorY = 0;
-                        status.dirty = true;
-                        skipChar = true;
-                        break;
-                    case ERASE_EOL:
-                        for (int col = cursorX; col < visible_cols; col++) {
-                            display[cursorY][col].clearToSpace();
-                        }
-                        status.dirty = true;
-                        skipChar = true;
-                        break;
-                    case ERASE_WINDOW:
-                        clearScreen();
-                        cursorX = 0;
-                        cursorY = 0;
-                        status.dirty = true;
-                        skipChar = true;
-                        break;
-                    case PRINT_SCREEN:
-                        // not supported on D210
-                        if (status.emulation.getLevel() != 210) {
-                            String screenString = new String();
-                            
-                            for (int l = 0; l < visible_lines; l++) {
-                                for (int c = 0; c < visible_cols; c++)
-                                    screenString += (char) display[l][c].charValue;
-                                screenString += "\n";
-                            }
-                            Text screenText = new Text( 10,10, screenString );
-                            screenText.setFont( new Font( "Courier New", 10 ));
-                            screenText.setFill( Color.BLACK );
-                            PrinterJob job = PrinterJob.createPrinterJob();
-                            if (job != null) {
-                                boolean ok = job.printPage( screenText );
-                                if (ok) job.endJob();
-                                // send ACK to host
-                                fromKbdQ.offer( ACK );
-                            }
-                        }
-                        skipChar = true;
-                        break;
-                    case REVERSE_VIDEO_OFF:
-                        if (status.emulation.getLevel() > 200) {
-                            reversedVideo = false;
-                            skipChar = true;
-                        }
-                        break;
-                    case REVERSE_VIDEO_ON:
-                        if (status.emulation.getLevel() > 200) {
-                            reversedVideo = true;
-                            skipChar = true;
-                        }
-                        break;
-                    case ROLL_DISABLE:
-                        roll_enabled = false;
-                        skipChar = true;
-                        break;
-                    case READ_WINDOW_ADDR: 	 // REQUIRES RESPONSE - see D410 User Manual p.3-18
-                        fromKbdQ.offer((byte) 31);
-                        fromKbdQ.offer((byte) cursorX);
-                        fromKbdQ.offer((byte) cursorY);
-                        skipChar = true;
+                    case TelnetClient.CMD_IAC:
+                        // special case - host really wants to send 255 - let it through
+                        telnetState = TELNET_DATA;
+                        return false;
+                    case TelnetClient.CMD_DO:
+                        telnetState = TELNET_DO;
                         break;
-                    case ROLL_ENABLE:
-                        roll_enabled = true;
-                        skipChar = true;
+                    case TelnetClient.CMD_WILL:
+                        telnetState = TELNET_WILL;
                         break;
-                    case UNDERSCORE_ON:
-                        underscored = true;
-                        skipChar = true;
+                    case TelnetClient.CMD_DONT:
+                        telnetState = TELNET_DONT;
                         break;
-                    case UNDERSCORE_OFF:
-                        underscored = false;
-                        skipChar = true;
+                    case TelnetClient.CMD_WONT:
+                        telnetState = TELNET_OPTION;
                         break;
-                    case WRITE_WINDOW_ADDR:
-                        readingWindowAddressX = true;
-                        skipChar = true;
+                    case TelnetClient.CMD_SB:
+                        telnetState = TELNET_SB;
                         break;
-                    case CMD:
-                        inCommand = true;
-                        skipChar = true;
+                    default: // NOP, AYT, GA etc. have no option byte
+                        telnetState = TELNET_DATA;
                         break;
                 }
-
-                if (skipChar) {
-                    continue;
+                return true;
+            case TELNET_DO:
+                fromKbdQ.offer(TelnetClient.CMD_IAC);
+                if (ch == TelnetClient.OPT_NAWS) {
+                    fromKbdQ.offer(TelnetClient.CMD_WILL);
+                    fromKbdQ.offer(ch);
+                    nawsAgreed = true;
+                    sendWindowSize();
+                } else {
+                    // anything else the host asks us to do we will refuse
+                    fromKbdQ.offer(TelnetClient.CMD_WONT);
+                    fromKbdQ.offer(ch);
                 }
-
-                // wrap due to hitting margin or new line?
-                if (cursorX == visible_cols || ch == NL) {
-                    if (cursorY == visible_lines - 1) { // hit bottom of screen
-                        if (roll_enabled) {
-                            this.scrollUp(1);
-                        } else {
-                            cursorY = 0;
-                            clearLine(cursorY);
-                        }
-                    } else {
-                        cursorY++;
-                        if (!roll_enabled) {
-                            clearLine(cursorY);
-                        }
-                    }
-                    cursorX = 0;
+                telnetState = TELNET_DATA;
+                return true;
+            case TELNET_DONT:
+                if (ch == TelnetClient.OPT_NAWS) {
+                    nawsAgreed = false;
                 }
-
-                // CR?
-                if (ch == CR || ch == NL) {
-                    cursorX = 0;
-                    continue;
+                telnetState = TELNET_DATA;
+                return true;
+            case TELNET_WILL:
+                // whatever the host offers to do we will decline
+                fromKbdQ.offer(TelnetClient.CMD_IAC);
+                fromKbdQ.offer(TelnetClient.CMD_DONT);
+                fromKbdQ.offer(ch);
+                telnetState = TELNET_DATA;
+                return true;
+            case TELNET_SB:
+                // skip subnegotiations up to IAC SE
+                if (ch == TelnetClient.CMD_IAC) {
+                    telnetState = TELNET_SB_IAC;
                 }
+                return true;
+            case TELNET_SB_IAC:
+                telnetState = ch == TelnetClient.CMD_SE ? TELNET_DATA : TELNET_SB;
+                return true;
+            default: // TELNET_OPTION
+                telnetState = TELNET_DATA;
+                return true;
+        }
+    }
 
-                // finally, put the character in the displayable character matrix
-                // it will get picked up on next refresh by Crt
-                if (ch > 0) {
-                    assert cursorX <= MAX_VISIBLE_COLS;
-                    assert cursorY <= MAX_VISIBLE_LINES;
-                    display[cursorY][cursorX].set(ch, blinking, dimmed, reversedVideo, underscored, protectd);
-                } else {
-                    System.out.printf("Terminal: Warning - Ignoring character with code %d\n", ch);
-                    continue;
+    /**
+     * Tell the host our window size in a NAWS subnegotiation (RFC 1073)
+     */
+    private void sendWindowSize() {
+        fromKbdQ.offer(TelnetClient.CMD_IAC);
+        fromKbdQ.offer(TelnetClient.CMD_SB);
+        fromKbdQ.offer(TelnetClient.OPT_NAWS);
+        for (int size : new int[] { visible_cols, visible_lines }) {
+            for (byte b : new byte[] { (byte) (size >> 8), (byte) size }) {
+                fromKbdQ.offer(b);
+                if (b == TelnetClient.CMD_IAC) {
+                    fromKbdQ.offer(b);
                 }
-
-                cursorX++;
-
-                status.dirty = true;
-
             }
+        }
+        fromKbdQ.offer(TelnetClient.CMD_IAC);
+        fromKbdQ.offer(TelnetClient.CMD_SE);
+    }
 
-        } catch (InterruptedException ie) {
+    /**
+     * Put a character in the displayable character matrix, it will get picked up on
+     * the next refresh by Crt
+     *
+     * @param ch
+     */
+    private void printChar(byte ch) {
+        // wrap due to hitting margin?
+        if (cursorX == columns()) {
+            newLine();
+        }
+        assert cursorX <= MAX_VISIBLE_COLS;
+        assert cursorY <= MAX_VISIBLE_LINES;
+        Cell cell = display[cursorY][cursorX];
+        if (cell.protect != protectd) {
+            fields.protectChanged(cursorY);
+        }
+        cell.set(ch, blinking, dimmed, reversedVideo, underscored, protectd);
+        damaged(cursorY, cursorY + 1);
+        if (triggers != null) {
+            triggers.printed(this, ch, cursorY, cursorX);
+        }
+        cursorX++;
+        changed();
+    }
 
+    private void newLine() {
+        if (triggers != null) {
+            triggers.lineEnded(this);
         }
+        if (cursorY == visible_lines - 1) { // hit bottom of screen
+            if (roll_enabled) {
+                this.scrollUp(1);
+            } else {
+                cursorY = 0;
+                clearLine(cursorY);
+            }
+        } else {
+            cursorY++;
+            if (!roll_enabled) {
+                clearLine(cursorY);
+            }
+        }
+        cursorX = 0;
+    }
 
+    /**
+     * Carry out everything other than printing a character, as found by the ParseTable
+     *
+     * @param action
+     * @param ch the byte that completed the action
+     */
+    private void perform(int action, byte ch) {
+        switch (action) {
+            case ParseTable.IGNORE:
+                break;
+            case ParseTable.UNPRINTABLE:
+                System.out.printf("Terminal: Warning - Ignoring character with code %d\n", ch);
+                break;
+            case ParseTable.NEW_LINE:
+                newLine();
+                changed();
+                break;
+            case ParseTable.CARRIAGE_RETURN:
+                if (triggers != null) {
+                    triggers.lineEnded(this);
+                }
+                if (cursorX == columns()) {
+                    newLine();
+                }
+                cursorX = 0;
+                changed();
+                break;
+            case ParseTable.BELL:
+                bellSink.bell();
+                break;
+            case ParseTable.BLINK_DISABLE:
+                blinking_enabled = false;
+                break;
+            case ParseTable.BLINK_ENABLE:
+                blinking_enabled = true;
+                break;
+            case ParseTable.BLINK_OFF:
+                blinking = false;
+                break;
+            case ParseTable.BLINK_ON:
+                blinking = true;
+                break;
+            case ParseTable.CURSOR_UP:
+                if (cursorY > 0) {
+                    cursorY--;
+                } else {
+                    cursorY = visible_lines - 1;
+                }
+                changed();
+                break;
+            case ParseTable.CURSOR_DOWN:
+                if (cursorY < visible_lines - 1) {
+                    cursorY++;
+                } else {
+                    cursorY = 0;
+                }
+                changed();
+                break;
+            case ParseTable.CURSOR_RIGHT:
+                if (cursorX < columns() - 1) {
+                    cursorX++;
+                } else {
+                    cursorX = 0;
+                    if (cursorY < visible_lines - 2) {
+                        cursorY++;
+                    } else {
+                        cursorY = 0;
+                    }
+                }
+                changed();
+                break;
+            case ParseTable.CURSOR_LEFT:
+                if (cursorX > 0) {
+                    cursorX--;
+                } else {
+                    cursorX = columns() - 1;
+                    if (cursorY > 0) {
+                        cursorY--;
+                    } else {
+                        cursorY = visible_lines - 1;
+                    }
+                }
+                changed();
+                break;
+            case ParseTable.DIM_ON:
+                dimmed = true;
+                break;
+            case ParseTable.DIM_OFF:
+                dimmed = false;
+                break;
+            case ParseTable.HOME:
+                if (triggers != null) {
+                    triggers.reset();
+                }
+                cursorX = 0;
+                cursorY = 0;
+                changed();
+                break;
+            case ParseTable.ERASE_EOL:
+                EraseEvent eolEvent = new EraseEvent();
+                eolEvent.begin();
+                for (int col = cursorX; col < columns(); col++) {
+                    display[cursorY][col].clearToSpace();
+                }
+                fields.rowEdited(cursorY);
+                damaged(cursorY, cursorY + 1);
+                eolEvent.end();
+                if (eolEvent.shouldCommit()) {
+                    eolEvent.kind = "End of line";
+                    eolEvent.row = cursorY;
+                    eolEvent.cells = columns() - cursorX;
+                    eolEvent.commit();
+                }
+                changed();
+                break;
+            case ParseTable.ERASE_WINDOW:
+                EraseEvent windowEvent = new EraseEvent();
+                windowEvent.begin();
+                if (triggers != null) {
+                    triggers.reset();
+                }
+                clearScreen();
+                windowEvent.end();
+                if (windowEvent.shouldCommit()) {
+                    windowEvent.kind = "Window";
+                    windowEvent.row = 0;
+                    windowEvent.cells = visible_lines * visible_cols;
+                    windowEvent.commit();
+                }
+                cursorX = 0;
+                cursorY = 0;
+                changed();
+                break;
+            case ParseTable.PRINT_SCREEN:
+                // never during a replay
+                if (!replaying && printSpooler != null) {
+                    // the spooler ACKs the host once it has printed
+                    printSpooler.submit(snapshot());
+                }
+                break;
+            case ParseTable.REVERSE_VIDEO_OFF:
+                reversedVideo = false;
+                break;
+            case ParseTable.REVERSE_VIDEO_ON:
+                reversedVideo = true;
+                break;
+            case ParseTable.ROLL_DISABLE:
+                roll_enabled = false;
+                break;
+            case ParseTable.ROLL_ENABLE:
+                roll_enabled = true;
+                break;
+            case ParseTable.READ_WINDOW_ADDR: // REQUIRES RESPONSE - see D410 User Manual p.3-18
+                toHost((byte) 31);
+                toHost((byte) cursorX);
+                toHost((byte) cursorY);
+                break;
+            case ParseTable.UNDERSCORE_ON:
+                underscored = true;
+                break;
+            case ParseTable.UNDERSCORE_OFF:
+                underscored = false;
+                break;
+            case ParseTable.PROTECT_ON:
+                protectd = true;
+                break;
+            case ParseTable.PROTECT_OFF:
+                protectd = false;
+                break;
+            case ParseTable.WINDOW_ADDR_X_VALUE:
+                newXaddress = (int) ch & 0x7f;
+                if (newXaddress == 127) {
+                    // special case - x stays the same - see D410 User Manual p.3-25
+                    newXaddress = cursorX;
+                } else if (newXaddress >= columns()) {
+                    System.out.printf("Warning: host attempt to set cursor off screen at column %d%n", newXaddress);
+                    newXaddress = newXaddress % columns();
+                }
+                break;
+            case ParseTable.WINDOW_ADDR_Y_VALUE:
+                newYaddress = (int) ch & 0x7f;
+                if (newYaddress == 127) {
+                    // special case - y stays the same - see D410 User Manual p.3-25
+                    newYaddress = cursorY;
+                }
+                if (triggers != null) {
+                    triggers.lineEnded(this);
+                }
+                cursorX = newXaddress;
+                cursorY = newYaddress;
+                if (cursorY >= visible_lines) {
+                    System.out.printf("Warning: host attempt to set cursor off screen to row %d%n", cursorY);
+                    // see end of p.3-24 in D410 User Manual
+                    if (roll_enabled) {
+                        scrollUp(Math.min(cursorY - (visible_lines - 1), visible_lines));
+                    }
+                    // rows more than a screen below (up to 126) wrap round again, they must
+                    // stay on the screen - and within a small headless buffer
+                    cursorY = (cursorY - visible_lines) % visible_lines;
+                }
+                batchCursorAddresses++;
+                break;
+            case ParseTable.READ_MODEL_ID: // REQUIRES RESPONSE
+                sendModelID();
+                break;
+            case ParseTable.ERASE_UNPROTECTED:
+                if (triggers != null) {
+                    triggers.reset();
+                }
+                eraseUnprotectedToEndOfScreen();
+                break;
+            case ParseTable.SCROLL_UP:
+                scrollUp(1);
+                changed();
+                break;
+            case ParseTable.SCROLL_DOWN:
+                moveRows(0, visible_lines, -1);
+                changed();
+                break;
+            case ParseTable.INSERT_CHAR:
+                insertChar();
+                changed();
+                break;
+            case ParseTable.DELETE_CHAR:
+                deleteChar();
+                changed();
+                break;
+            case ParseTable.INSERT_LINE:
+                moveRows(cursorY, visible_lines, -1);
+                changed();
+                break;
+            case ParseTable.DELETE_LINE:
+                moveRows(cursorY, visible_lines, 1);
+                changed();
+                break;
+            case ParseTable.HSCROLL_ENABLE:
+                setHorizontalScroll(true);
+                break;
+            case ParseTable.HSCROLL_DISABLE:
+                setHorizontalScroll(false);
+                break;
+            case ParseTable.SCROLL_LEFT_VALUE:
+                panHorizontally(ch & 0x7f);
+                break;
+            case ParseTable.SCROLL_RIGHT_VALUE:
+                panHorizontally(-(ch & 0x7f));
+                break;
+            case ParseTable.READ_HSCROLL_OFFSET: // REQUIRES RESPONSE
+                toHost((byte) 036);
+                toHost((byte) 0157);
+                toHost((byte) 072);  // horizontal scroll offset report
+                toHost((byte) hScrollOffset);
+                break;
+            case ParseTable.SCROLL_RATE_VALUE:
+                // zero is jump scrolling, any other rate scrolls smoothly
+                status.smoothScroll = (ch & 0x7f) != 0;
+                break;
+            default:
+                System.out.printf("Terminal: Warning - no handler for parser action %d\n", action);
+                break;
+        }
     }
 
     private void sendModelID() {
         switch (status.emulation) {
             case D200:
-                fromKbdQ.offer((byte) 036);
-                fromKbdQ.offer((byte) 0157);
-                fromKbdQ.offer((byte) 043);  // model report
-                fromKbdQ.offer((byte) 041);  // D100/D200
-                fromKbdQ.offer((byte) 'Z'); // see p.2-7 of D100/D200 User Manual
-                fromKbdQ.offer((byte) 003);  // firmware code
+                toHost((byte) 036);
+                toHost((byte) 0157);
+                toHost((byte) 043);  // model report
+                toHost((byte) 041);  // D100/D200
+                toHost((byte) 'Z'); // see p.2-7 of D100/D200 User Manual
+                toHost((byte) 003);  // firmware code
                 break;
             case D210:
-                fromKbdQ.offer((byte) 036);
-                fromKbdQ.offer((byte) 0157);
-                fromKbdQ.offer((byte) 043);  // model report
-                fromKbdQ.offer((byte) 050) ;  // D210/D211
-                fromKbdQ.offer((byte) 0b01010001); // see p.3-9 of D210/D211 User Manual
-                fromKbdQ.offer((byte) 0b01011010);  
+                toHost((byte) 036);
+                toHost((byte) 0157);
+                toHost((byte) 043);  // model report
+                toHost((byte) 050) ;  // D210/D211
+                toHost((byte) 0b01010001); // see p.3-9 of D210/D211 User Manual
+                toHost((byte) 0b01011010);  
                 break;
              case D211:
-                fromKbdQ.offer((byte) 036);
-                fromKbdQ.offer((byte) 0157);
-                fromKbdQ.offer((byte) 043);  // model report
-                fromKbdQ.offer((byte) 050) ;  // D210/D211
-                fromKbdQ.offer((byte) 0b01011001); // see p.3-9 of D210/D211 User Manual
-                fromKbdQ.offer((byte) 0b01111010);  
+                toHost((byte) 036);
+                toHost((byte) 0157);
+                toHost((byte) 043);  // model report
+                toHost((byte) 050) ;  // D210/D211
+                toHost((byte) 0b01011001); // see p.3-9 of D210/D211 User Manual
+                toHost((byte) 0b01111010);  
+                break;
+            case D400:
+            case D410:
+                toHost((byte) 036);
+                toHost((byte) 0157);
+                toHost((byte) 043);  // model report
+                toHost((byte) 051);  // D400/D410
+                toHost((byte) 0b01011001);
+                toHost((byte) 0b01111010);
                 break;
         }
     }
 
+    /**
+     * @return the total number of bytes received from the host
+     */
+    public synchronized long getBytesProcessed() {
+        return bytesProcessed;
+    }
+
+    public void setMetrics(DasherMetrics pMetrics) {
+        metrics = pMetrics;
+    }
+
+    public void setBellSink(BellSink sink) {
+        bellSink = sink;
+    }
+
+    /**
+     * @param spooler where Print Screen requests go, null to ignore them
+     */
+    public void setPrintSpooler(PrintSpooler spooler) {
+        printSpooler = spooler;
+    }
+
+    public void setRenderSink(RenderSink sink) {
+        renderSink = sink;
+    }
+
+    /**
+     * @param engine the triggers to run over the printed text, null for none
+     */
+    public synchronized void setTriggers(TriggerEngine engine) {
+        triggers = engine;
+    }
+
+    public TriggerEngine getTriggers() {
+        return triggers;
+    }
+
+    public void setTriggerSink(TriggerSink sink) {
+        triggerSink = sink;
+    }
+
+    /**
+     * Carry out the actions of a Trigger that has matched len characters at row, col
+     */
+    void fireTrigger(Trigger trigger, String text, int row, int col, int len) {
+        if (trigger.has(Trigger.Action.HIGHLIGHT)) {
+            int end = Math.min(col + len, columns());
+            for (int c = col; c < end; c++) {
+                display[row][c].reverse = true;
+            }
+            damaged(row, row + 1);
+            changed();
+        }
+        if (trigger.has(Trigger.Action.BELL)) {
+            bellSink.bell();
+        }
+        if (trigger.has(Trigger.Action.NOTIFY)) {
+            triggerSink.triggered(trigger, text, row);
+        }
+        if (trigger.has(Trigger.Action.RESPOND)) {
+            for (byte b : trigger.getResponse()) {
+                toHost(b);
+            }
+        }
+    }
+
+    /**
+     * Rows from..to-1 have changed, wake anyone waiting in awaitDamage()
+     */
+    private void damaged(int from, int to) {
+        damageSerial++;
+        for (int row = from; row < to; row++) {
+            rowDamage[row] = damageSerial;
+            rowEdits[row] = damageSerial;
+        }
+        if (damageWaiters > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Rows from..to-1 have moved without their contents changing, the Crt shifts
+     * its images of them rather than painting them again
+     */
+    private void moved(int from, int to) {
+        damageSerial++;
+        for (int row = from; row < to; row++) {
+            rowDamage[row] = damageSerial;
+        }
+        if (damageWaiters > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the serial of the last change to the contents of the row, it moves with
+     * the row when the screen scrolls.  Only for the Crt, which holds the lock.
+     */
+    long getRowEdit(int row) {
+        return rowEdits[row];
+    }
+
+    /**
+     * @return the number of lines scrolled up so far.  Only for the Crt, which holds the lock.
+     */
+    long getLinesScrolled() {
+        return linesScrolled;
+    }
+
+    /**
+     * @return the serial of the latest change to the screen, it only ever increases
+     */
+    public synchronized long getDamageSerial() {
+        return damageSerial;
+    }
+
+    /**
+     * @return the serial of the latest change to the row, compare with getDamageSerial()
+     * to find the rows that have changed since
+     */
+    public synchronized long getRowDamage(int row) {
+        return rowDamage[row];
+    }
+
+    /**
+     * Wait until the screen changes after the given serial, or the timeout expires
+     *
+     * @param sinceSerial eg. the result of an earlier getDamageSerial()
+     * @return the new damage serial
+     */
+    public synchronized long awaitDamage(long sinceSerial, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        damageWaiters++;
+        try {
+            long remaining = timeoutMs;
+            while (damageSerial <= sinceSerial && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } finally {
+            damageWaiters--;
+        }
+        return damageSerial;
+    }
+
+    /**
+     * The screen (or cursor) has changed and needs repainting
+     */
+    private void changed() {
+        if (renderingSuspended) {
+            return;
+        }
+        status.dirty = true;
+        renderSink.screenChanged();
+    }
+
+    /**
+     * Send a response to the host - unless we are replaying a recorded session, in which
+     * case the host is not listening.
+     */
+    private void toHost(byte b) {
+        if (!replaying) {
+            fromKbdQ.offer(b);
+        }
+    }
+
+    /**
+     * Start or stop (with null) recording the host data stream.
+     * Synchronized so that no byte is being recorded when a recorder is removed.
+     *
+     * @param rec
+     */
+    public synchronized void setRecorder(SessionRecorder rec) {
+        recorder = rec;
+    }
+
+    /**
+     * The version of the writeState() snapshot, those holding one must record it...
+     * 1 - the visible screen and the emulation state up to D211
+     * 2 - adds horizontal scrolling, the exact parser state and the row width, which
+     *     is the whole line buffer when horizontal scrolling is enabled
+     */
+    static final short STATE_VERSION = 2;
+
+    /**
+     * Write a snapshot of the visible screen and all emulation state, used for
+     * keyframes in session recordings and for checkpoints.
+     *
+     * @param out
+     * @throws IOException
+     */
+    synchronized void writeState(DataOutputStream out) throws IOException {
+        unpack();
+        out.writeShort(visible_lines);
+        out.writeShort(visible_cols);
+        out.writeShort(cursorX);
+        out.writeShort(cursorY);
+        out.writeShort(newXaddress);
+        out.writeShort(newYaddress);
+        out.writeBoolean(roll_enabled);
+        out.writeBoolean(blinking_enabled);
+        out.writeBoolean(protection_enabled);
+        // the parser state as the flags it replaced, all that version 1 kept
+        out.writeBoolean(parserState == ParseTable.CMD || parserState == ParseTable.CMD_F);
+        out.writeBoolean(parserState == ParseTable.CMD_F);
+        out.writeBoolean(parserState == ParseTable.WINDOW_ADDR_X);
+        out.writeBoolean(parserState == ParseTable.WINDOW_ADDR_Y);
+        out.writeBoolean(blinking);
+        out.writeBoolean(dimmed);
+        out.writeBoolean(reversedVideo);
+        out.writeBoolean(underscored);
+        out.writeBoolean(protectd);
+        out.writeBoolean(hScroll_enabled);
+        out.writeShort(hScrollOffset);
+        out.writeByte(parserState);
+        int cols = columns();
+        out.writeShort(cols);
+        for (int y = 0; y < visible_lines; y++) {
+            for (int x = 0; x < cols; x++) {
+                out.writeByte(display[y][x].charValue);
+                out.writeByte(display[y][x].attributeBits());
+            }
+        }
+    }
+
+    /**
+     * Restore a snapshot previously written by writeState()
+     *
+     * @param in
+     * @param version the STATE_VERSION it was written with
+     * @throws IOException
+     */
+    synchronized void readState(DataInputStream in, int version) throws IOException {
+        if (version < 1 || version > STATE_VERSION) {
+            throw new IOException("Unknown screen snapshot version " + version);
+        }
+        unpack();
+        int lines = in.readShort(), cols = in.readShort();
+        if (lines > bufferLines || cols > bufferCols) {
+            throw new IOException("Recorded screen " + lines + "x" + cols + " does not fit the line buffer");
+        }
+        visible_lines = lines;
+        visible_cols = cols;
+        fields.invalidateAll();
+        status.visLines = visible_lines;
+        status.visCols = visible_cols;
+        cursorX = in.readShort();
+        cursorY = in.readShort();
+        newXaddress = in.readShort();
+        newYaddress = in.readShort();
+        roll_enabled = in.readBoolean();
+        blinking_enabled = in.readBoolean();
+        protection_enabled = in.readBoolean();
+        boolean inCommand = in.readBoolean();
+        boolean inExtendedCommand = in.readBoolean();
+        boolean readingWindowAddressX = in.readBoolean();
+        boolean readingWindowAddressY = in.readBoolean();
+        if (readingWindowAddressX) {
+            parserState = ParseTable.WINDOW_ADDR_X;
+        } else if (readingWindowAddressY) {
+            parserState = ParseTable.WINDOW_ADDR_Y;
+        } else if (inCommand) {
+            parserState = inExtendedCommand ? ParseTable.CMD_F : ParseTable.CMD;
+        } else {
+            parserState = ParseTable.GROUND;
+        }
+        blinking = in.readBoolean();
+        dimmed = in.readBoolean();
+        reversedVideo = in.readBoolean();
+        underscored = in.readBoolean();
+        protectd = in.readBoolean();
+        if (version >= 2) {
+            hScroll_enabled = in.readBoolean();
+            hScrollOffset = Math.max(0, Math.min(in.readShort(), hScroll_enabled ? bufferCols - visible_cols : 0));
+            int state = in.readByte();
+            if (state < 0 || state >= ParseTable.STATES) {
+                throw new IOException("Corrupt screen snapshot - parser state " + state);
+            }
+            parserState = state;
+        } else {
+            hScroll_enabled = false;
+            hScrollOffset = 0;
+        }
+        telnetState = TELNET_DATA;
+        int rowWidth = version >= 2 ? in.readShort() : visible_cols;
+        if (rowWidth > bufferCols) {
+            throw new IOException("Recorded lines of " + rowWidth + " columns do not fit the line buffer");
+        }
+        for (int y = 0; y < visible_lines; y++) {
+            for (int x = 0; x < rowWidth; x++) {
+                display[y][x].charValue = in.readByte();
+                display[y][x].setAttributeBits(in.readByte());
+            }
+            for (int x = rowWidth; x < columns(); x++) {
+                display[y][x].clearToSpace();
+            }
+        }
+        damaged(0, bufferLines);
+        changed();
+    }
+
+    /**
+     * Show rows sent by a ScreenMirror, for a MirrorViewer.  Each row is cols characters
+     * followed by their cols attribute bytes, the rows being stride bytes apart.
+     *
+     * @param lines the new screen size, or -1 to keep the current one
+     * @param rows the row numbers, or null for rows 0 to count-1
+     */
+    synchronized void mirror(int lines, int cols, int x, int y, int[] rows, int count, byte[] data, int offset, int stride) {
+        unpack();
+        if (lines >= 0) {
+            if (lines > bufferLines || cols > bufferCols) {
+                throw new IllegalArgumentException("Mirrored screen " + lines + "x" + cols + " does not fit the line buffer");
+            }
+            visible_lines = lines;
+            visible_cols = cols;
+            status.visLines = lines;
+            status.visCols = cols;
+            hScroll_enabled = false;
+            hScrollOffset = 0;
+        }
+        int width = Math.min(cols, visible_cols);
+        for (int ix = 0; ix < count; ix++) {
+            int row = rows == null ? ix : rows[ix];
+            if (row >= visible_lines) {
+                continue;
+            }
+            Cell[] cells = display[row];
+            int pos = offset + ix * stride;
+            for (int col = 0; col < width; col++) {
+                cells[col].charValue = data[pos + col];
+                cells[col].setAttributeBits(data[pos + cols + col]);
+            }
+            fields.protectChanged(row);
+            damaged(row, row + 1);
+        }
+        cursorX = Math.max(0, Math.min(x, visible_cols));
+        cursorY = Math.min(y, visible_lines - 1);
+        changed();
+    }
+
+    /**
+     * @return an immutable copy of the visible screen
+     */
+    public synchronized ScreenSnapshot snapshot() {
+        unpack();
+        byte[] chars = new byte[visible_lines * visible_cols];
+        byte[] attrs = new byte[visible_lines * visible_cols];
+        int ix = 0;
+        for (int y = 0; y < visible_lines; y++) {
+            for (int x = hScrollOffset; x < hScrollOffset + visible_cols; x++) {
+                chars[ix] = display[y][x].charValue;
+                attrs[ix++] = display[y][x].attributeBits();
+            }
+        }
+        return new ScreenSnapshot(visible_lines, visible_cols, cursorX - hScrollOffset, cursorY, chars, attrs);
+    }
+
+    /**
+     * @return an immutable copy of the history followed by the visible screen
+     */
+    public synchronized ScreenSnapshot historySnapshot() {
+        return history.snapshot(visible_cols).followedBy(snapshot());
+    }
+
     public String fetchDisplayAsString() {
         String text;
+        unpack();
         StringBuilder builder = new StringBuilder( 1000 );
         for (int r = 0; r < this.visible_lines; r++ ) {
             for ( int c = 0; c < this.visible_cols; c++ ){
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.util.Arrays;
+
+/**
+ * ThroughputBenchmark measures how fast the emulator processes and paints a
+ * synthesised host stream: host bytes processed per second, frames painted per second
+ * and the distribution of frame (Crt.paintCrt) times.
+ *
+ * recordFrame() and finish() must be called on the same (FX) thread.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public class ThroughputBenchmark {
+
+    private final Terminal terminal;
+    private final String description;
+
+    private long startNanos, startBytes;
+    private long[] frameNanos = new long[1024];
+    private int frameCount;
+
+    public ThroughputBenchmark(Terminal terminal, String description) {
+        this.terminal = terminal;
+        this.description = description;
+    }
+
+    public void start() {
+        startBytes = terminal.getBytesProcessed();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @param nanos how long painting one frame took
+     */
+    public void recordFrame(long nanos) {
+        if (frameCount == frameNanos.length) {
+            frameNanos = Arrays.copyOf(frameNanos, frameCount * 2);
+        }
+        frameNanos[frameCount++] = nanos;
+    }
+
+    /**
+     * @return a human-readable report of the run
+     */
+    public String finish() {
+        double secs = (System.nanoTime() - startNanos) / 1e9;
+        long bytes = terminal.getBytesProcessed() - startBytes;
+        long[] sorted = Arrays.copyOf(frameNanos, frameCount);
+        Arrays.sort(sorted);
+        return String.format("%s%n%n"
+                + "Host bytes processed: %d in %.1fs (%.0f bytes/s)%n"
+                + "Frames painted:       %d (%.1f frames/s)%n%n"
+                + "Frame time (ms)  p50: %.2f  p90: %.2f  p99: %.2f  max: %.2f",
+                description, bytes, secs, bytes / secs, frameCount, frameCount / secs,
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100));
+    }
+
+    private static double percentile(long[] sorted, int pc) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int ix = (int) Math.ceil(pc / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(ix, 0)] / 1e6;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.regex.Pattern;
+
+/**
+ * A user-defined trigger - a literal string or a regular expression to look for in
+ * the host output, and what to do when it is seen.
+ *
+ * Literals are matched in the stream of printed characters as it arrives, regular
+ * expressions against each line as it is completed (by NL, CR, wrapping or the
+ * cursor being addressed elsewhere).  Neither matches across lines.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ */
+public final class Trigger {
+
+    public enum Action {
+        /** show the matched text in reverse video */
+        HIGHLIGHT,
+        /** sound the bell */
+        BELL,
+        /** tell the session's TriggerSink */
+        NOTIFY,
+        /** send the response to the host, as if typed */
+        RESPOND
+    }
+
+    private final String text;
+    private final Pattern pattern;   // null for literals
+    private final EnumSet<Action> actions;
+    private final byte[] response;
+
+    private Trigger(String text, Pattern pattern, EnumSet<Action> actions, String response) {
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("A trigger needs something to match");
+        }
+        if (actions.contains(Action.RESPOND) && response == null) {
+            throw new IllegalArgumentException("A RESPOND trigger needs a response");
+        }
+        this.text = text;
+        this.pattern = pattern;
+        this.actions = actions;
+        this.response = response == null ? new byte[0] : response.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param response what to send for RESPOND, otherwise null
+     */
+    public static Trigger literal(String text, EnumSet<Action> actions, String response) {
+        return new Trigger(text, null, actions, response);
+    }
+
+    /**
+     * @param response what to send for RESPOND, otherwise null
+     */
+    public static Trigger regex(String regex, EnumSet<Action> actions, String response) {
+        return new Trigger(regex, Pattern.compile(regex), actions, response);
+    }
+
+    public boolean isRegex() {
+        return pattern != null;
+    }
+
+    /**
+     * @return the literal text, or the regular expression's source
+     */
+    public String getText() {
+        return text;
+    }
+
+    Pattern getPattern() {
+        return pattern;
+    }
+
+    public boolean has(Action action) {
+        return actions.contains(action);
+    }
+
+    byte[] getResponse() {
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return (isRegex() ? "regex " : "literal ") + text + " " + actions;
+    }
+}
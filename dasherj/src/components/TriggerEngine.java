@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * TriggerEngine watches what the Terminal prints and fires the actions of any
+ * Triggers that match.
+ *
+ * All the literal triggers are compiled into one Aho-Corasick automaton, a dense
+ * transition table over the bytes that actually occur in them (every other byte
+ * shares one column), so each printed character costs one table lookup however
+ * many triggers there are.  Regular expressions are only tried on completed lines.
+ *
+ * An engine holds matching state, so it belongs to one Terminal; the Terminal calls
+ * it with its lock held.
+ *
+ * Trigger files have one trigger per line, tab separated...
+ *
+ *   literal|regex  pattern  actions  [response]
+ *
+ * where actions is a comma-separated list of HIGHLIGHT, BELL, NOTIFY and RESPOND,
+ * and \r, \n, \t and \\ may be used in the response.  Blank lines and lines
+ * starting with # are ignored.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Class introduced
+ *         Restart literal matching whenever the cursor moves other than by printing
+ */
+public final class TriggerEngine {
+
+    private final Trigger[] literals, regexes;
+
+    // the automaton, immutable once built
+    private final int[] classOf = new int[256];
+    private final int classes;
+    private final int[] delta;       // state * classes + class -> next state
+    private final int[][] output;    // state -> indices of the literals ending there, or null
+
+    // matching state
+    private int state;
+    private int lastRow = -1, lastCol; // where the last character was printed
+    private int pendingRow = -1;     // a row printed on since the last line end
+    private final StringBuilder rowText = new StringBuilder(Terminal.TOTAL_COLS);
+    private final Matcher[] matchers;
+
+    public TriggerEngine(List<Trigger> triggers) {
+        List<Trigger> lits = new ArrayList<>(), res = new ArrayList<>();
+        for (Trigger t : triggers) {
+            (t.isRegex() ? res : lits).add(t);
+        }
+        literals = lits.toArray(new Trigger[0]);
+        regexes = res.toArray(new Trigger[0]);
+        matchers = new Matcher[regexes.length];
+        for (int ix = 0; ix < regexes.length; ix++) {
+            matchers[ix] = regexes[ix].getPattern().matcher("");
+        }
+
+        // give each byte that appears in a literal its own column, 0 is everything else
+        int nextClass = 1;
+        for (Trigger t : literals) {
+            for (byte b : bytes(t)) {
+                if (classOf[b & 0xff] == 0) {
+                    classOf[b & 0xff] = nextClass++;
+                }
+            }
+        }
+        classes = nextClass;
+
+        // the trie, -1 being no child
+        List<int[]> trie = new ArrayList<>();
+        List<int[]> ends = new ArrayList<>();
+        trie.add(newRow());
+        ends.add(null);
+        for (int ix = 0; ix < literals.length; ix++) {
+            int s = 0;
+            for (byte b : bytes(literals[ix])) {
+                int c = classOf[b & 0xff];
+                if (trie.get(s)[c] < 0) {
+                    trie.get(s)[c] = trie.size();
+                    trie.add(newRow());
+                    ends.add(null);
+                }
+                s = trie.get(s)[c];
+            }
+            ends.set(s, append(ends.get(s), ix));
+        }
+
+        // breadth first, fill in the failure transitions and merge the outputs
+        int states = trie.size();
+        delta = new int[states * classes];
+        output = new int[states][];
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        output[0] = ends.get(0);
+        for (int c = 0; c < classes; c++) {
+            int child = trie.get(0)[c];
+            if (child > 0) {
+                fail[child] = 0;
+                delta[c] = child;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            output[s] = merge(ends.get(s), output[fail[s]]);
+            for (int c = 0; c < classes; c++) {
+                int child = trie.get(s)[c];
+                if (child > 0) {
+                    fail[child] = delta[fail[s] * classes + c];
+                    delta[s * classes + c] = child;
+                    queue.add(child);
+                } else {
+                    delta[s * classes + c] = delta[fail[s] * classes + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how many triggers the engine holds
+     */
+    public int size() {
+        return literals.length + regexes.length;
+    }
+
+    /**
+     * A character has been printed at row, col
+     */
+    void printed(Terminal terminal, byte ch, int row, int col) {
+        if (row != lastRow || col != lastCol + 1) {
+            // the cursor has moved, a literal only matches characters printed side by side
+            state = 0;
+        }
+        lastRow = row;
+        lastCol = col;
+        state = delta[state * classes + classOf[ch & 0xff]];
+        int[] out = output[state];
+        if (out != null) {
+            for (int ix : out) {
+                int start = Math.max(col - literals[ix].getText().length() + 1, 0);
+                terminal.fireTrigger(literals[ix], literals[ix].getText(), row, start, col + 1 - start);
+            }
+        }
+        pendingRow = row;
+    }
+
+    /**
+     * The screen has been erased or the cursor moved other than by printing, so no
+     * literal can carry on matching across it
+     */
+    void reset() {
+        state = 0;
+        lastRow = -1;
+    }
+
+    /**
+     * The line being printed is complete, try the regular expressions on it
+     */
+    void lineEnded(Terminal terminal) {
+        reset();
+        if (pendingRow < 0) {
+            return;
+        }
+        int row = pendingRow;
+        pendingRow = -1;
+        if (regexes.length == 0) {
+            return;
+        }
+        rowText.setLength(0);
+        Cell[] cells = terminal.display[row];
+        int cols = terminal.columns();
+        for (int col = 0; col < cols; col++) {
+            rowText.append((char) (cells[col].charValue & 0xff));
+        }
+        for (int ix = 0; ix < regexes.length; ix++) {
+            Matcher m = matchers[ix].reset(rowText);
+            while (m.find()) {
+                if (m.end() == m.start()) {
+                    continue; // nothing to act on
+                }
+                terminal.fireTrigger(regexes[ix], m.group(), row, m.start(), m.end() - m.start());
+            }
+        }
+    }
+
+    /**
+     * Read triggers from a file, see the class description for the format
+     */
+    public static TriggerEngine load(File file) throws IOException {
+        List<Trigger> triggers = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.ISO_8859_1))) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                try {
+                    if (fields.length < 3) {
+                        throw new IllegalArgumentException("expected kind, pattern and actions");
+                    }
+                    EnumSet<Trigger.Action> actions = EnumSet.noneOf(Trigger.Action.class);
+                    for (String action : fields[2].split(",")) {
+                        actions.add(Trigger.Action.valueOf(action.trim().toUpperCase()));
+                    }
+                    String response = fields.length > 3 ? unescape(fields[3]) : null;
+                    switch (fields[0].trim().toLowerCase()) {
+                        case "literal":
+                            triggers.add(Trigger.literal(fields[1], actions, response));
+                            break;
+                        case "regex":
+                            triggers.add(Trigger.regex(fields[1], actions, response));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown kind " + fields[0]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file.getName() + " line " + lineNo + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return new TriggerEngine(triggers);
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int ix = 0; ix < s.length(); ix++) {
+            char c = s.charAt(ix);
+            if (c == '\\' && ix + 1 < s.length()) {
+                char e = s.charAt(++ix);
+                switch (e) {
+                    case 'r': sb.append('\r'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    default: sb.append(e);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(Trigger t) {
+        return t.getText().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private int[] newRow() {
+        int[] row = new int[classes];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] append(int[] list, int value) {
+        if (list == null) {
+            return new int[] { value };
+        }
+        int[] longer = Arrays.copyOf(list, list.length + 1);
+        longer[list.length] = value;
+        return longer;
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        int[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+/**
+ * Where Terminal reports Trigger matches that have the NOTIFY action.
+ *
+ * @author Stephen Merrony
+ *
+ * v.1.3 - Interface introduced
+ */
+public interface TriggerSink {
+
+    TriggerSink NONE = (trigger, text, row) -> { };
+
+    /**
+     * Called on the Terminal thread (with the Terminal locked), so must not block
+     *
+     * @param trigger
+     * @param text what matched
+     * @param row the screen row it matched on
+     */
+    void triggered(Trigger trigger, String text, int row);
+}
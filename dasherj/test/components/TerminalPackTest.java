@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Packing an idle Terminal's cells must not change what is on the screen.
+ *
+ * @author Stephen Merrony
+ */
+public class TerminalPackTest {
+
+    private static void send(HeadlessTerminal ht, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        ht.process(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void packKeepsCharactersAndAttributes() {
+        HeadlessTerminal ht = new HeadlessTerminal(24, 80, Status.EmulationType.D210);
+        byte[] form = HostStreamSynth.generate(HostStreamSynth.Pattern.FORM_REPAINT, 20000, 24, 80);
+        ht.process(form, 0, form.length);
+        Terminal terminal = ht.getTerminal();
+        ScreenSnapshot before = terminal.snapshot();
+
+        terminal.pack();
+        ScreenSnapshot after = terminal.snapshot();
+
+        assertEquals(before.toText(), after.toText());
+        for (int row = 0; row < 24; row++) {
+            for (int col = 0; col < 80; col++) {
+                assertEquals(before.attributesAt(row, col), after.attributesAt(row, col));
+            }
+        }
+    }
+
+    @Test
+    public void hostBytesUnpack() {
+        HeadlessTerminal ht = new HeadlessTerminal(24, 80, Status.EmulationType.D210);
+        send(ht, "first\n");
+        Terminal terminal = ht.getTerminal();
+        terminal.pack();
+        send(ht, "second\n");
+
+        ScreenSnapshot screen = terminal.snapshot();
+        assertEquals("first", screen.rowText(0).trim());
+        assertEquals("second", screen.rowText(1).trim());
+    }
+}
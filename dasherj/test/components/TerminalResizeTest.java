@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Stephen Merrony
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Resizing must not leave rows behind the window that scrolling can bring back.
+ *
+ * @author Stephen Merrony
+ */
+public class TerminalResizeTest {
+
+    private static void send(HeadlessTerminal ht, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        ht.process(bytes, 0, bytes.length);
+    }
+
+    private static String row(Terminal terminal, int row) {
+        StringBuilder sb = new StringBuilder();
+        for (int col = 0; col < terminal.visible_cols; col++) {
+            sb.append((char) terminal.display[row][col].charValue);
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void shrinkThenScrollShowsNoHiddenRows() {
+        HeadlessTerminal ht = new HeadlessTerminal(48, 80, Status.EmulationType.D210);
+        StringBuilder fill = new StringBuilder();
+        for (int line = 0; line < 47; line++) {
+            fill.append("line").append(line).append('\n');
+        }
+        send(ht, fill.toString());
+        send(ht, "" + (char) Terminal.HOME);
+        Terminal terminal = ht.getTerminal();
+        terminal.resize(24, 80);
+        send(ht, "" + (char) Terminal.WRITE_WINDOW_ADDR + (char) 0 + (char) 23 + "X\nY\nZ\n");
+
+        // X overwrites the start of the visible line23, the rows below it were hidden
+        assertEquals("Xine23", row(terminal, 20));
+        assertEquals("Y", row(terminal, 21));
+        assertEquals("Z", row(terminal, 22));
+        assertEquals("", row(terminal, 23));
+    }
+
+    @Test
+    public void shrinkBelowCursorKeepsCursorLineAndBlanksBelow() {
+        HeadlessTerminal ht = new HeadlessTerminal(48, 80, Status.EmulationType.D210);
+        StringBuilder fill = new StringBuilder();
+        for (int line = 0; line < 30; line++) {
+            fill.append("line").append(line).append('\n');
+        }
+        send(ht, fill.toString() + "last");
+        Terminal terminal = ht.getTerminal();
+        terminal.resize(24, 80);
+
+        assertEquals(23, terminal.cursorY);
+        assertEquals("last", row(terminal, 23));
+        assertEquals("line29", row(terminal, 22));
+        assertEquals(7, terminal.history.lineCount());
+        send(ht, "\n\n");
+        assertEquals("last", row(terminal, 21));
+        assertEquals("", row(terminal, 23));
+    }
+}